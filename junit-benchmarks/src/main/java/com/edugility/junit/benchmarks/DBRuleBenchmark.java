@@ -0,0 +1,164 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.logging.Logger;
+
+import com.edugility.junit.db.ConnectionDescriptor;
+import com.edugility.junit.db.DBRule;
+import com.edugility.junit.db.DBRule.DBManager;
+import com.edugility.junit.db.PhaseTimingRegistry;
+
+import com.edugility.junit.dbunit.DbUnitManager;
+
+import com.edugility.junit.h2.H2Manager;
+
+import com.edugility.junit.liquibase.LiquibaseManager;
+
+import org.junit.internal.runners.statements.InvokeMethod;
+
+import org.junit.runner.Description;
+
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.Statement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.openjdk.jmh.profile.GCProfiler;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how long a {@link DBRule} takes to run its {@link
+ * DBManager}s around a test that does nothing.
+ *
+ * <p>The {@link #managers} parameter selects the {@link DBManager}s
+ * in use: an {@link H2Manager} alone, an {@link H2Manager} followed by
+ * a {@link LiquibaseManager}, or all three managers as used in the
+ * <tt>junit-liquibase</tt> module's <tt>TestCaseIntegration</tt>
+ * test.  The primary result is the average time taken per test.  A
+ * {@link PhaseTimingRegistry} is {@linkplain
+ * DBRule#addPhaseTimingListener(com.edugility.junit.db.PhaseTimingListener)
+ * registered} for the duration of each trial, and its summary of the
+ * time spent by each {@link DBManager} in each of its phases is
+ * logged at the end of the trial.  Allocation rates are reported by JMH's
+ * <tt>gc</tt> profiler, which {@link #main(String[])} enables; when
+ * running the shaded <tt>benchmarks.jar</tt> directly, pass <tt>-prof
+ * gc</tt>.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 10)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5)
+public class DBRuleBenchmark {
+
+  @Param({ "h2", "h2+liquibase", "h2+liquibase+dbunit" })
+  public String managers;
+
+  private PhaseTimingRegistry timings;
+
+  private Statement statement;
+
+  public DBRuleBenchmark() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    final String catalog = "benchmark" + Math.abs(this.managers.hashCode());
+    final ConnectionDescriptor cd = new ConnectionDescriptor("jdbc:h2:mem:" + catalog + ";INIT=CREATE SCHEMA IF NOT EXISTS test;DB_CLOSE_DELAY=-1", catalog, "test", "sa", "");
+    final List<DBManager> managers = new ArrayList<DBManager>();
+    managers.add(new H2Manager(cd));
+    if (this.managers.contains("liquibase")) {
+      managers.add(new LiquibaseManager(cd));
+    }
+    if (this.managers.contains("dbunit")) {
+      managers.add(new DbUnitManager(cd));
+    }
+    final DBRule rule = new DBRule(managers);
+
+    this.timings = new PhaseTimingRegistry();
+    DBRule.addPhaseTimingListener(this.timings);
+
+    final FrameworkMethod method = new FrameworkMethod(BenchmarkTarget.class.getMethod("test"));
+    final Description description = Description.createTestDescription(BenchmarkTarget.class, method.getName());
+    this.statement = rule.apply(new InvokeMethod(method, new BenchmarkTarget()), description);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (this.timings != null) {
+      DBRule.removePhaseTimingListener(this.timings);
+      final Logger logger = Logger.getLogger(this.getClass().getName());
+      if (logger.isLoggable(java.util.logging.Level.INFO)) {
+        logger.logp(java.util.logging.Level.INFO, this.getClass().getName(), "tearDown", "Time per phase for {0}:\n{1}", new Object[] { this.managers, this.timings });
+      }
+      this.timings = null;
+    }
+  }
+
+  @Benchmark
+  public void apply() throws Throwable {
+    this.statement.evaluate();
+  }
+
+  public static final void main(final String[] args) throws RunnerException {
+    final Options options = new OptionsBuilder()
+      .include(DBRuleBenchmark.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build();
+    new Runner(options).run();
+  }
+
+}
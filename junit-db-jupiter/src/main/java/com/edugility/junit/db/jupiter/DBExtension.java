@@ -0,0 +1,407 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db.jupiter;
+
+import java.lang.reflect.Method;
+
+import java.sql.Connection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import com.edugility.junit.db.DBConnection;
+import com.edugility.junit.db.DBRule;
+import com.edugility.junit.db.DBRule.DBManager;
+import com.edugility.junit.db.DBRule.DBManagerFactory;
+import com.edugility.junit.db.DBRule.Scope;
+import com.edugility.junit.db.DBRule.SingleDBManager;
+import com.edugility.junit.db.PhaseTimingListener; // for javadoc only
+
+import com.edugility.junit.dbunit.DataSet;
+import com.edugility.junit.dbunit.DbUnitManager;
+
+import com.edugility.throwables.ThrowableChain;
+
+import org.dbunit.dataset.IDataSet;
+
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.ExtensionContext.Store;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.jupiter.api.extension.RegisterExtension; // for javadoc only
+
+import org.junit.runner.Description;
+
+/**
+ * A JUnit Jupiter extension that runs {@link DBManager}s through
+ * the same lifecycle that a {@link DBRule} does, without requiring
+ * the JUnit Vintage engine.
+ *
+ * <p>A {@link DBExtension} is {@linkplain RegisterExtension
+ * registered} on a {@code static} field to run the {@linkplain
+ * Scope#CLASS class-scoped} phases of its {@link DBManager}s once
+ * around all of a test class' tests, and the {@linkplain
+ * Scope#METHOD method-scoped} ones around each test:</p>
+ *
+ * <blockquote><pre>&#64;RegisterExtension
+ *static final DBExtension db = new DBExtension(managers);</pre></blockquote>
+ *
+ * <p>Registered on an instance field instead, it runs all phases of
+ * its {@link DBManager}s around each test.</p>
+ *
+ * <p>In addition to the usual field injection performed by the
+ * {@link DBManager}s themselves, a {@link DBExtension} resolves test
+ * method parameters of type {@link Connection} and {@link IDataSet},
+ * optionally annotated with {@link DBConnection} or {@link DataSet}
+ * respectively.</p>
+ *
+ * <p>All per-class and per-test state is kept in the {@link Store}
+ * of the relevant {@link ExtensionContext}.  A {@link DBExtension}
+ * {@linkplain #DBExtension(DBRule.DBManagerFactory) created with a
+ * <code>DBManagerFactory</code>} may therefore be used when tests
+ * run concurrently: each concurrently running test receives its own
+ * {@link DBManager}s, which undergo their class-scoped phases the
+ * first time they are used and are reused by later tests of the same
+ * class.</p>
+ *
+ * <p>The phases themselves are run by {@link
+ * DBRule#runPhases(List, Scope, boolean, boolean, Description,
+ * Executor, ThrowableChain)}, so {@link DBManager} dependencies,
+ * {@linkplain #setPhaseExecutor(Executor) phase executors} and
+ * {@linkplain DBRule#addPhaseTimingListener(PhaseTimingListener)
+ * phase timing listeners} behave exactly as they do for a {@link
+ * DBRule}.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DBRule
+ */
+public class DBExtension implements BeforeAllCallback, BeforeEachCallback, AfterEachCallback, AfterAllCallback, ParameterResolver {
+
+  private final Namespace namespace;
+
+  private final List<DBManager> managers;
+
+  private final DBManagerFactory managerFactory;
+
+  private volatile Executor phaseExecutor;
+
+  public DBExtension(final DBManager manager) {
+    this(Collections.singleton(manager));
+  }
+
+  public DBExtension(final Collection<? extends DBManager> managers) {
+    this(managers, null);
+  }
+
+  /**
+   * Creates a new {@link DBExtension} that is safe to use when tests
+   * run concurrently.
+   *
+   * @param managerFactory the {@link DBManagerFactory} that will
+   * supply {@link DBManager}s; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code managerFactory} is
+   * {@code null}
+   */
+  public DBExtension(final DBManagerFactory managerFactory) {
+    this(null, managerFactory);
+    if (managerFactory == null) {
+      throw new IllegalArgumentException("managerFactory", new NullPointerException("managerFactory == null"));
+    }
+  }
+
+  private DBExtension(final Collection<? extends DBManager> managers, final DBManagerFactory managerFactory) {
+    super();
+    this.namespace = Namespace.create(DBExtension.class, this);
+    if (managers != null && !managers.isEmpty()) {
+      this.managers = new ArrayList<DBManager>(managers);
+    } else {
+      this.managers = Collections.emptyList();
+    }
+    this.managerFactory = managerFactory;
+  }
+
+  /**
+   * Returns the {@link Executor} used to run independent {@link
+   * DBManager}s' phases concurrently, or {@code null} if they are run
+   * one after another.
+   *
+   * @return an {@link Executor}, or {@code null}
+   *
+   * @see #setPhaseExecutor(Executor)
+   */
+  public Executor getPhaseExecutor() {
+    return this.phaseExecutor;
+  }
+
+  /**
+   * Sets the {@link Executor} used to run independent {@link
+   * DBManager}s' phases concurrently, exactly as {@link
+   * DBRule#setPhaseExecutor(Executor)} does for a {@link DBRule}.
+   *
+   * @param phaseExecutor the {@link Executor} to use; may be {@code
+   * null} in which case phases are run one {@link DBManager} after
+   * another
+   */
+  public void setPhaseExecutor(final Executor phaseExecutor) {
+    this.phaseExecutor = phaseExecutor;
+  }
+
+  @Override
+  public void beforeAll(final ExtensionContext context) throws Exception {
+    final ClassState classState = new ClassState(Description.createSuiteDescription(context.getRequiredTestClass()));
+    context.getStore(this.namespace).put(ClassState.class, classState);
+    if (this.managerFactory == null) {
+      // Without a factory all tests share the same managers, so they
+      // can undergo their class-scoped phases right away.
+      final ThrowableChain chain = new ThrowableChain();
+      setContext(this.managers, classState.description, null);
+      if (DBRule.runPhases(this.managers, Scope.CLASS, false, true, classState.description, this.phaseExecutor, chain)) {
+        classState.classScopedManagers.add(this.managers);
+      }
+      throwIfFailed(chain);
+    }
+  }
+
+  @Override
+  public void beforeEach(final ExtensionContext context) throws Exception {
+    final Store store = context.getStore(this.namespace);
+    final ClassState classState = store.get(ClassState.class, ClassState.class);
+    final boolean classScoped = classState != null;
+    final ThrowableChain chain = new ThrowableChain();
+    List<DBManager> managers = null;
+    if (this.managerFactory == null) {
+      managers = this.managers;
+    } else if (classScoped) {
+      managers = classState.idleManagers.poll();
+      if (managers == null) {
+        // These managers have not yet undergone their class-scoped
+        // phases.
+        managers = this.createManagers();
+        setContext(managers, classState.description, null);
+        if (DBRule.runPhases(managers, Scope.CLASS, false, true, classState.description, this.phaseExecutor, chain)) {
+          classState.classScopedManagers.add(managers);
+        } else {
+          managers = null;
+        }
+      }
+    } else {
+      managers = this.createManagers();
+    }
+    if (managers != null) {
+      final Method method = context.getRequiredTestMethod();
+      final Description description = Description.createTestDescription(context.getRequiredTestClass(), method.getName(), method.getAnnotations());
+      setContext(managers, description, context.getRequiredTestInstance());
+      if (DBRule.runPhases(managers, Scope.METHOD, false, classScoped, description, this.phaseExecutor, chain)) {
+        store.put(MethodState.class, new MethodState(managers, description));
+      } else {
+        this.release(managers, classState);
+      }
+    }
+    throwIfFailed(chain);
+  }
+
+  @Override
+  public void afterEach(final ExtensionContext context) throws Exception {
+    final Store store = context.getStore(this.namespace);
+    final MethodState methodState = store.remove(MethodState.class, MethodState.class);
+    if (methodState != null) {
+      final ClassState classState = store.get(ClassState.class, ClassState.class);
+      final List<DBManager> managers = methodState.managers;
+      final ThrowableChain chain = new ThrowableChain();
+      if (!context.getExecutionException().isPresent()) {
+        DBRule.runEvaluateSucceeded(managers, methodState.description, chain);
+      }
+      DBRule.runPhases(managers, Scope.METHOD, true, classState != null, methodState.description, this.phaseExecutor, chain);
+      this.release(managers, classState);
+      throwIfFailed(chain);
+    }
+  }
+
+  @Override
+  public void afterAll(final ExtensionContext context) throws Exception {
+    final ClassState classState = context.getStore(this.namespace).remove(ClassState.class, ClassState.class);
+    if (classState != null) {
+      final ThrowableChain chain = new ThrowableChain();
+      final List<List<DBManager>> classScopedManagers;
+      synchronized (classState.classScopedManagers) {
+        classScopedManagers = new ArrayList<List<DBManager>>(classState.classScopedManagers);
+        classState.classScopedManagers.clear();
+      }
+      for (final List<DBManager> managers : classScopedManagers) {
+        setContext(managers, classState.description, null);
+        DBRule.runPhases(managers, Scope.CLASS, true, true, classState.description, this.phaseExecutor, chain);
+        setContext(managers, null, null);
+      }
+      classState.idleManagers.clear();
+      throwIfFailed(chain);
+    }
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link ParameterContext}
+   * describes a test method parameter of type {@link Connection} or
+   * {@link IDataSet} for which one of the {@link DBManager}s
+   * currently in use for the test can supply a value.
+   *
+   * @param parameterContext the {@link ParameterContext} in
+   * question; must not be {@code null}
+   *
+   * @param extensionContext the {@link ExtensionContext} in
+   * question; must not be {@code null}
+   *
+   * @return {@code true} if this {@link DBExtension} can resolve the
+   * parameter; {@code false} otherwise
+   */
+  @Override
+  public boolean supportsParameter(final ParameterContext parameterContext, final ExtensionContext extensionContext) {
+    return this.findParameterValue(parameterContext, extensionContext) != null;
+  }
+
+  @Override
+  public Object resolveParameter(final ParameterContext parameterContext, final ExtensionContext extensionContext) {
+    final Object returnValue = this.findParameterValue(parameterContext, extensionContext);
+    if (returnValue == null) {
+      throw new ParameterResolutionException("No DBManager supplies a value for " + parameterContext.getParameter());
+    }
+    return returnValue;
+  }
+
+  private final Object findParameterValue(final ParameterContext parameterContext, final ExtensionContext extensionContext) {
+    Object returnValue = null;
+    final Class<?> type = parameterContext.getParameter().getType();
+    if (Connection.class.equals(type) || IDataSet.class.equals(type)) {
+      final MethodState methodState = extensionContext.getStore(this.namespace).get(MethodState.class, MethodState.class);
+      if (methodState != null) {
+        final DBConnection dbConnection = parameterContext.findAnnotation(DBConnection.class).orElse(null);
+        final DataSet dataSet = parameterContext.findAnnotation(DataSet.class).orElse(null);
+        for (final DBManager manager : methodState.managers) {
+          if (Connection.class.equals(type)) {
+            if (manager instanceof SingleDBManager && ((SingleDBManager)manager).isTargetOf(dbConnection)) {
+              returnValue = ((SingleDBManager)manager).getAllocatedConnection();
+            }
+          } else if (manager instanceof DbUnitManager && ((DbUnitManager)manager).isTargetOf(dataSet)) {
+            returnValue = ((DbUnitManager)manager).getDataSet();
+          }
+          if (returnValue != null) {
+            break;
+          }
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private final List<DBManager> createManagers() throws Exception {
+    assert this.managerFactory != null;
+    final List<? extends DBManager> managers = this.managerFactory.createManagers();
+    final List<DBManager> returnValue;
+    if (managers == null || managers.isEmpty()) {
+      returnValue = Collections.emptyList();
+    } else {
+      returnValue = new ArrayList<DBManager>(managers);
+    }
+    return returnValue;
+  }
+
+  private final void release(final List<DBManager> managers, final ClassState classState) {
+    assert managers != null;
+    if (classState == null) {
+      setContext(managers, null, null);
+    } else {
+      setContext(managers, classState.description, null);
+      if (this.managerFactory != null) {
+        classState.idleManagers.offer(managers);
+      }
+    }
+  }
+
+  private static final void setContext(final List<DBManager> managers, final Description description, final Object testInstance) {
+    if (managers != null && !managers.isEmpty()) {
+      for (final DBManager manager : managers) {
+        if (manager != null) {
+          manager.setDescription(description);
+          manager.setTestInstance(testInstance);
+        }
+      }
+    }
+  }
+
+  private static final void throwIfFailed(final ThrowableChain chain) throws ThrowableChain {
+    assert chain != null;
+    if (chain.getCause() != null || chain.size() > 1) {
+      throw chain;
+    }
+  }
+
+  private static final class ClassState {
+
+    private final Description description;
+
+    private final Queue<List<DBManager>> idleManagers;
+
+    private final List<List<DBManager>> classScopedManagers;
+
+    private ClassState(final Description description) {
+      super();
+      this.description = description;
+      this.idleManagers = new ConcurrentLinkedQueue<List<DBManager>>();
+      this.classScopedManagers = Collections.synchronizedList(new ArrayList<List<DBManager>>());
+    }
+
+  }
+
+  private static final class MethodState {
+
+    private final List<DBManager> managers;
+
+    private final Description description;
+
+    private MethodState(final List<DBManager> managers, final Description description) {
+      super();
+      this.managers = managers;
+      this.description = description;
+    }
+
+  }
+
+}
@@ -0,0 +1,141 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db.jupiter;
+
+import java.sql.Connection;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.edugility.junit.db.DBConnection;
+import com.edugility.junit.db.DBRule;
+import com.edugility.junit.db.PhaseTimingListener;
+
+import com.edugility.junit.h2.H2Manager;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import org.junit.runner.Description;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCaseDBExtension {
+
+  private static final H2Manager classScoped = new H2Manager("jdbc:h2:mem:jupiter");
+
+  private static Connection firstConnection;
+
+  private static int managersCreated;
+
+  private static final Set<String> timedPhases = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private static final PhaseTimingListener timingListener = new PhaseTimingListener() {
+      @Override
+      public final void phaseCompleted(final DBRule.DBManager manager, final String phase, final Description description, final long nanos, final Throwable failure) {
+        if (manager == classScoped) {
+          timedPhases.add(phase);
+        }
+      }
+    };
+
+  static {
+    classScoped.setScope(DBRule.Scope.CLASS);
+    DBRule.addPhaseTimingListener(timingListener);
+  }
+
+  @RegisterExtension
+  static final DBExtension classExtension = new DBExtension(classScoped);
+
+  @RegisterExtension
+  static final DBExtension factoryExtension = new DBExtension(new DBRule.DBManagerFactory() {
+      @Override
+      public final List<? extends DBRule.DBManager> createManagers() {
+        managersCreated++;
+        return Collections.singletonList(new H2Manager("jdbc:h2:mem:jupiterFactory"));
+      }
+    });
+
+  @DBConnection(catalog = "jupiter")
+  private Connection connection;
+
+  @DBConnection(catalog = "froo")
+  private Connection nullConnection;
+
+  public TestCaseDBExtension() {
+    super();
+  }
+
+  @Test
+  public void testInjection(@DBConnection(catalog = "jupiter") final Connection parameter) throws Exception {
+    assertNotNull(this.connection);
+    assertNull(this.nullConnection);
+    assertSame(this.connection, parameter);
+    this.assertClassScoped();
+  }
+
+  @Test
+  public void testFactoryConnection(@DBConnection(catalog = "jupiterFactory") final Connection parameter) throws Exception {
+    assertNotNull(parameter);
+    assertFalse(parameter.isClosed());
+    this.assertClassScoped();
+  }
+
+  @Test
+  public void testPhasesAreTimed() {
+    assertTrue(timedPhases.containsAll(Arrays.asList("create", "connect", "initialize", "inject")), String.valueOf(timedPhases));
+  }
+
+  private final void assertClassScoped() {
+    if (firstConnection == null) {
+      firstConnection = this.connection;
+    }
+    assertSame(firstConnection, this.connection);
+    assertEquals(1, managersCreated);
+  }
+
+  @AfterAll
+  public static void assertClassScopedConnectionIsStillOpen() throws Exception {
+    // @AfterAll methods run before the extension's AfterAllCallback.
+    assertNotNull(firstConnection);
+    assertFalse(firstConnection.isClosed());
+    DBRule.removePhaseTimingListener(timingListener);
+  }
+
+}
@@ -33,8 +33,13 @@ import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -43,6 +48,17 @@ import javax.sql.DataSource;
 
 public class ConnectionDescriptor extends Properties implements DataSource, Serializable {
 
+  /**
+   * The name of the property that a {@link DBRule.DBManager} sets to
+   * {@code true} when it has attached to a database that some earlier
+   * {@link DBRule.DBManager} already built, such as a shared H2
+   * catalog, so that other {@link DBRule.DBManager}s sharing this
+   * {@link ConnectionDescriptor} can skip building it again.
+   *
+   * @see #isAttached()
+   */
+  public static final String ATTACHED = "com.edugility.junit.db.attached";
+
   public static final String CATALOG = "com.edugility.junit.db.catalog";
 
   public static final String CONNECTION_URL = "javax.persistence.jdbc.url";
@@ -51,14 +67,33 @@ public class ConnectionDescriptor extends Properties implements DataSource, Seri
 
   public static final String DRIVER_CLASS_NAME = "javax.persistence.jdbc.driver";
 
+  public static final String MAX_IDLE = "com.edugility.junit.db.maxIdle";
+
   public static final String PASSWORD = "javax.persistence.jdbc.password";
 
+  public static final String POOLED = "com.edugility.junit.db.pooled";
+
   public static final String SCHEMA = "com.edugility.junit.db.schema";
 
   public static final String USERNAME = "javax.persistence.jdbc.user";
 
   private static final long serialVersionUID = 1L;
 
+  /**
+   * A JVM-wide cache of the {@link PoolingDataSource}s used by
+   * {@linkplain #isPooled() pooled} {@link ConnectionDescriptor}s.
+   * Keys are {@link List}s consisting of the connection URL, the user
+   * name, the password and the maximum number of idle connections,
+   * so that every {@link ConnectionDescriptor} that describes the same
+   * database shares one pool.  Each pool is {@linkplain
+   * PoolingDataSource#close() closed} when the JVM exits.
+   */
+  private static final ConcurrentMap<List<String>, PoolingDataSource> pools = new ConcurrentHashMap<List<String>, PoolingDataSource>();
+
+  private transient DataSource derivedDataSource;
+
+  private transient String derivedDataSourceURL;
+
   public ConnectionDescriptor() {
     super(System.getProperties());
   }
@@ -150,13 +185,80 @@ public class ConnectionDescriptor extends Properties implements DataSource, Seri
     if (dataSource == null) {
       final String connectionURL = this.getConnectionURL();
       if (connectionURL != null) {
-        dataSource = new DriverManagerDataSource(this);
-        this.put(DATA_SOURCE, dataSource);
+        synchronized (this) {
+          if (this.derivedDataSource == null || !connectionURL.equals(this.derivedDataSourceURL)) {
+            if (this.isPooled()) {
+              this.derivedDataSource = getPoolingDataSource(this);
+            } else {
+              this.derivedDataSource = new DriverManagerDataSource(this);
+            }
+            this.derivedDataSourceURL = connectionURL;
+          }
+          dataSource = this.derivedDataSource;
+        }
       }
     }
     return dataSource;
   }
 
+  /**
+   * Returns the JVM-wide {@link PoolingDataSource} for the database
+   * described by the supplied {@link ConnectionDescriptor}, creating
+   * it and arranging for it to be closed when the JVM exits if
+   * necessary.
+   *
+   * <p>Because idle {@link Connection}s stay open until then, an
+   * in-memory database reached through a pool is not discarded when
+   * a test's last {@link Connection} to it is closed.</p>
+   */
+  private static final PoolingDataSource getPoolingDataSource(final ConnectionDescriptor cd) {
+    assert cd != null;
+    final int maxIdle = cd.getMaxIdle();
+    final List<String> key = Arrays.asList(cd.getConnectionURL(), cd.getUsername(), cd.getPassword(), String.valueOf(maxIdle));
+    PoolingDataSource pool = pools.get(key);
+    if (pool == null) {
+      final PoolingDataSource newPool = new PoolingDataSource(new DriverManagerDataSource(cd), maxIdle);
+      pool = pools.putIfAbsent(key, newPool);
+      if (pool == null) {
+        pool = newPool;
+        Runtime.getRuntime().addShutdownHook(new Thread(PoolingDataSource.class.getName()) {
+            @Override
+            public final void run() {
+              newPool.close();
+            }
+          });
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * Returns {@code true} if the database described by this {@link
+   * ConnectionDescriptor} has already been built by someone else.
+   *
+   * @return the value of the {@link #ATTACHED} property
+   */
+  public boolean isAttached() {
+    return Boolean.valueOf(this.getProperty(ATTACHED));
+  }
+
+  public boolean isPooled() {
+    return Boolean.valueOf(this.getProperty(POOLED));
+  }
+
+  public int getMaxIdle() {
+    int maxIdle = PoolingDataSource.DEFAULT_MAX_IDLE;
+    final String maxIdleString = this.getProperty(MAX_IDLE);
+    if (maxIdleString != null) {
+      try {
+        maxIdle = Integer.parseInt(maxIdleString.trim());
+      } catch (final NumberFormatException badValue) {
+        maxIdle = PoolingDataSource.DEFAULT_MAX_IDLE;
+      }
+    }
+    return maxIdle;
+  }
+
   public String getDriverClassName() {
     return this.getProperty(DRIVER_CLASS_NAME);
   }
@@ -27,27 +27,54 @@
  */
 package com.edugility.junit.db;
 
+import java.io.File;
+
+import java.lang.annotation.Annotation;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 
 import com.edugility.throwables.ThrowableChain;
 
-import org.junit.internal.runners.statements.ExpectException;
+import org.junit.ClassRule; // for javadoc only
+import org.junit.Rule; // for javadoc only
 
+import org.junit.rules.MethodRule;
 import org.junit.rules.TestRule;
 
 import org.junit.runner.Description;
 
 import org.junit.runners.model.FrameworkField;
+import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.Statement;
 import org.junit.runners.model.TestClass;
 
@@ -55,17 +82,34 @@ import static org.junit.Assert.*;
 
 public class DBRule implements TestRule {
 
-  private static final Map<Class<?>, TestClass> testClasses = Collections.synchronizedMap(new HashMap<Class<?>, TestClass>());
+  /**
+   * The name of the system property that, if set, names a file to
+   * which a {@link FilePhaseTimingListener} will write a summary of
+   * all {@link DBManager} phase timings when the JVM exits.
+   */
+  public static final String TIMINGS_FILE = "com.edugility.junit.db.timingsFile";
+
+  private static final List<PhaseTimingListener> phaseTimingListeners = new CopyOnWriteArrayList<PhaseTimingListener>(loadPhaseTimingListeners());
+
+  private static final ConcurrentMap<ClassKey, TestClassHolder> testClasses = new ConcurrentHashMap<ClassKey, TestClassHolder>();
+
+  private static final ReferenceQueue<Class<?>> staleClasses = new ReferenceQueue<Class<?>>();
+
+  private static final ConcurrentMap<ClassKey, SoftReference<StatementAccessor>> statementAccessors = new ConcurrentHashMap<ClassKey, SoftReference<StatementAccessor>>();
 
-  private transient TestClass testClass;
+  private static final ReferenceQueue<Class<?>> staleStatementClasses = new ReferenceQueue<Class<?>>();
 
-  private transient Object testInstance;
+  private final List<DBManager> managers;
 
-  private transient Description description;
+  private final DBManagerFactory managerFactory;
 
-  private transient List<DBManager> managers;
+  private final ThreadLocal<State> state;
 
-  private transient DBManager failedManager;
+  private final Set<List<DBManager>> classScopedManagers;
+
+  private transient volatile Description classDescription;
+
+  private volatile Executor phaseExecutor;
 
   public DBRule() {
     this((Collection<? extends DBManager>)null);
@@ -76,67 +120,362 @@ public class DBRule implements TestRule {
   }
 
   public DBRule(final Collection<? extends DBManager> managers) {
+    this(managers, null);
+  }
+
+  /**
+   * Creates a new {@link DBRule} that is safe to use when tests run
+   * concurrently.
+   *
+   * <p>Each thread that runs a test with this {@link DBRule} will
+   * receive its own {@link DBManager}s from the supplied {@link
+   * DBManagerFactory}, and will keep them for as long as this {@link
+   * DBRule} is in use.  When this {@link DBRule} is also used as a
+   * {@link ClassRule}, a thread's {@link DBManager}s undergo their
+   * {@linkplain Scope#CLASS class-scoped} phases just before the
+   * first test that the thread runs, and undergo the phases that
+   * compensate for them when the test class or suite has
+   * finished.</p>
+   *
+   * @param managerFactory the {@link DBManagerFactory} that will
+   * supply each thread's {@link DBManager}s; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code managerFactory} is
+   * {@code null}
+   */
+  public DBRule(final DBManagerFactory managerFactory) {
+    this(null, managerFactory);
+    if (managerFactory == null) {
+      throw new IllegalArgumentException("managerFactory", new NullPointerException("managerFactory == null"));
+    }
+  }
+
+  private DBRule(final Collection<? extends DBManager> managers, final DBManagerFactory managerFactory) {
     super();
     if (managers != null && !managers.isEmpty()) {
       this.managers = new ArrayList<DBManager>(managers);
     } else {
       this.managers = Collections.emptyList();
     }
+    this.managerFactory = managerFactory;
+    this.state = new ThreadLocal<State>() {
+        @Override
+        protected final State initialValue() {
+          return new State();
+        }
+      };
+    this.classScopedManagers = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<List<DBManager>, Boolean>()));
   }
 
   public TestClass getTestClass() {
-    return this.testClass;
+    return this.state.get().testClass;
   }
 
   public Object getTestInstance() {
-    return this.testInstance;
+    return this.state.get().testInstance;
   }
 
   public Description getDescription() {
-    return this.description;
+    return this.state.get().description;
+  }
+
+  /**
+   * Returns the {@link Executor} used to run independent {@link
+   * DBManager}s' phases concurrently, or {@code null} if they are run
+   * one after another.
+   *
+   * @return an {@link Executor}, or {@code null}
+   *
+   * @see #setPhaseExecutor(Executor)
+   */
+  public Executor getPhaseExecutor() {
+    return this.phaseExecutor;
+  }
+
+  /**
+   * Sets the {@link Executor} used to run independent {@link
+   * DBManager}s' phases concurrently.
+   *
+   * <p>When a phase executor is set, each of the {@link
+   * DBManager#create()}, {@link DBManager#connect()} and {@link
+   * DBManager#initialize()} phases, and each of the phases that
+   * compensate for them, is run for a {@link DBManager} on the
+   * executor as soon as the {@link DBManager}s it {@linkplain
+   * DBManager#getDependencies() depends on} have completed it (or, in
+   * the case of the compensating phases, as soon as the {@link
+   * DBManager}s that depend on it have).  The calling thread waits
+   * for the whole phase to finish before continuing, so tests
+   * themselves still run only once all {@link DBManager}s are ready.
+   * A {@link DBManager} that does not declare its dependencies
+   * depends on all of those that precede it, so a {@link DBRule}
+   * whose {@link DBManager}s declare none behaves exactly as though
+   * no phase executor were set.</p>
+   *
+   * <p>If a {@link DBManager} fails, no further {@link DBManager}s
+   * are started, those already running are allowed to finish, and
+   * the failing {@link DBManager} is the one that is notified of the
+   * failure.  If more than one {@link DBManager} fails, the one that
+   * appears first is notified and a {@link ThrowableChain} of all
+   * their failures is thrown.</p>
+   *
+   * @param phaseExecutor the {@link Executor} to use; may be {@code
+   * null} in which case phases are run one {@link DBManager} after
+   * another
+   */
+  public void setPhaseExecutor(final Executor phaseExecutor) {
+    this.phaseExecutor = phaseExecutor;
   }
 
   public void create() throws Exception {
-    this.failedManager = null;
-    if (this.managers != null && !this.managers.isEmpty()) {
-      for (final DBManager manager : this.managers) {
-        if (manager != null) {
-          manager.setDescription(this.getDescription());
-          manager.setTestInstance(this.getTestInstance());
-          try {
-            manager.create();
-          } catch (final Throwable boom) {
-            this.failedManager = manager;
-            if (boom instanceof Exception) {
-              throw (Exception)boom;
-            } else {
-              throw (Error)boom;
-            }
-          }
+    this.runManagers(this.getManagers(), Phase.CREATE, false, Scope.METHOD);
+  }
+
+  public void createFailed(final Throwable createFailed) throws Exception {
+    final DBManager failedManager = this.state.get().failedManager;
+    if (failedManager != null) {
+      failedManager.createFailed(createFailed);
+    }
+  }
+
+  public void connect() throws Exception {
+    this.runManagers(this.getManagers(), Phase.CONNECT, false, Scope.METHOD);
+  }
+
+  protected void inject() throws Exception {
+    inject(this.getManagers(), this.state.get());
+  }
+
+  public void connectFailed(final Throwable connectFailed) throws Exception {
+    final DBManager failedManager = this.state.get().failedManager;
+    if (failedManager != null) {
+      failedManager.connectFailed(connectFailed);
+    }
+  }
+
+  public void initialize() throws Exception {
+    this.runManagers(this.getManagers(), Phase.INITIALIZE, false, Scope.METHOD);
+  }
+
+  public void initializeFailed(final Throwable initializeFailed) throws Exception {
+    final DBManager failedManager = this.state.get().failedManager;
+    if (failedManager != null) {
+      failedManager.initializeFailed(initializeFailed);
+    }
+  }
+
+  public void evaluateSucceeded() throws Exception {
+    evaluateSucceeded(this.getManagers(), this.state.get());
+  }
+
+  public void evaluateFailed(final Throwable evaluateFailed) throws Exception {
+    final DBManager failedManager = this.state.get().failedManager;
+    if (failedManager != null) {
+      failedManager.evaluateFailed(evaluateFailed);
+    }
+  }
+
+  public void reset() throws Exception {
+    this.runManagers(this.getManagers(), Phase.INITIALIZE, true, Scope.METHOD);
+  }
+
+  public void resetFailed(final Throwable resetFailed) throws Exception {
+    final DBManager failedManager = this.state.get().failedManager;
+    if (failedManager != null) {
+      failedManager.resetFailed(resetFailed);
+    }
+  }
+
+  public void disconnect() throws Exception {
+    this.runManagers(this.getManagers(), Phase.CONNECT, true, Scope.METHOD);
+  }
+
+  public void disconnectFailed(final Throwable disconnectFailed) throws Exception {
+    final DBManager failedManager = this.state.get().failedManager;
+    if (failedManager != null) {
+      failedManager.disconnectFailed(disconnectFailed);
+    }
+  }
+
+  public void destroy() throws Exception {
+    this.runManagers(this.getManagers(), Phase.CREATE, true, Scope.METHOD);
+  }
+
+  public void destroyFailed(final Throwable destroyFailed) throws Exception {
+    final State state = this.state.get();
+    if (state.failedManager != null) {
+      state.failedManager.destroyFailed(destroyFailed);
+    }
+    state.failedManager = null;
+  }
+
+  private final List<DBManager> getManagers() {
+    List<DBManager> managers = this.state.get().managers;
+    if (managers == null) {
+      managers = this.managers;
+    }
+    return managers;
+  }
+
+  private final List<DBManager> getManagers(final State state) throws Exception {
+    assert state != null;
+    if (state.managers == null) {
+      if (this.managerFactory == null) {
+        state.managers = this.managers;
+      } else {
+        final List<? extends DBManager> managers = this.managerFactory.createManagers();
+        if (managers == null || managers.isEmpty()) {
+          state.managers = Collections.emptyList();
+        } else {
+          state.managers = new ArrayList<DBManager>(managers);
         }
       }
     }
+    return state.managers;
   }
 
-  public void createFailed(final Throwable createFailed) throws Exception {
-    if (this.failedManager != null) {
-      this.failedManager.createFailed(createFailed);
+  private final boolean setUp(final List<DBManager> managers, final Scope scope, final ThrowableChain chain) {
+    assert managers != null;
+    assert scope != null;
+    assert chain != null;
+    final Phase[] phases = Phase.values();
+    int completed = 0;
+    try {
+      while (completed < phases.length) {
+        this.run(managers, phases[completed], false, scope);
+        if (Scope.METHOD.equals(scope) && Phase.INITIALIZE.equals(phases[completed])) {
+          this.inject();
+        }
+        completed++;
+      }
+    } catch (final Throwable setUpFailed) {
+      chain.add(setUpFailed);
+      try {
+        this.failed(phases[completed], false, setUpFailed);
+      } catch (final Throwable setUpFailedFailed) {
+        chain.add(setUpFailedFailed);
+      }
+      this.tearDown(managers, scope, completed, chain);
     }
+    return completed == phases.length;
   }
 
-  public void connect() throws Exception {
-    this.failedManager = null;
-    if (this.managers != null && !this.managers.isEmpty()) {
-      for (final DBManager manager : this.managers) {
-        if (manager != null) {
-          try {
-            manager.connect();
-          } catch (final Throwable boom) {
-            this.failedManager = manager;
-            if (boom instanceof Exception) {
-              throw (Exception)boom;
-            } else {
-              throw (Error)boom;
+  private final void tearDown(final List<DBManager> managers, final Scope scope, final int completed, final ThrowableChain chain) {
+    assert managers != null;
+    assert scope != null;
+    assert chain != null;
+    final Phase[] phases = Phase.values();
+    for (int i = completed - 1; i >= 0; i--) {
+      try {
+        this.run(managers, phases[i], true, scope); // compensates for phases[i]
+      } catch (final Throwable tearDownFailed) {
+        chain.add(tearDownFailed);
+        try {
+          this.failed(phases[i], true, tearDownFailed);
+        } catch (final Throwable tearDownFailedFailed) {
+          chain.add(tearDownFailedFailed);
+        }
+      }
+    }
+  }
+
+  private final void run(final List<DBManager> managers, final Phase phase, final boolean compensate, final Scope scope) throws Exception {
+    assert phase != null;
+    if (Scope.CLASS.equals(scope)) {
+      this.runManagers(managers, phase, compensate, scope);
+    } else {
+      switch (phase) {
+      case CREATE:
+        if (compensate) {
+          this.destroy();
+        } else {
+          this.create();
+        }
+        break;
+      case CONNECT:
+        if (compensate) {
+          this.disconnect();
+        } else {
+          this.connect();
+        }
+        break;
+      case INITIALIZE:
+        if (compensate) {
+          this.reset();
+        } else {
+          this.initialize();
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unexpected phase: " + phase);
+      }
+    }
+  }
+
+  private final void failed(final Phase phase, final boolean compensate, final Throwable failure) throws Exception {
+    assert phase != null;
+    switch (phase) {
+    case CREATE:
+      if (compensate) {
+        this.destroyFailed(failure);
+      } else {
+        this.createFailed(failure);
+      }
+      break;
+    case CONNECT:
+      if (compensate) {
+        this.disconnectFailed(failure);
+      } else {
+        this.connectFailed(failure);
+      }
+      break;
+    case INITIALIZE:
+      if (compensate) {
+        this.resetFailed(failure);
+      } else {
+        this.initializeFailed(failure);
+      }
+      break;
+    default:
+      throw new IllegalStateException("Unexpected phase: " + phase);
+    }
+  }
+
+  private final void runManagers(final List<DBManager> managers, final Phase phase, final boolean compensate, final Scope scope) throws Exception {
+    runManagers(this.phaseExecutor, managers, phase, compensate, scope, this.classDescription != null, this.state.get());
+  }
+
+  /**
+   * Runs the supplied {@link Phase}, or the phase that compensates
+   * for it, for each of the supplied {@link DBManager}s that undergoes
+   * it in the supplied {@link Scope}, recording the {@link DBManager}
+   * that fails, if any, in the supplied {@link State}.
+   */
+  private static final void runManagers(final Executor executor, final List<? extends DBManager> managers, final Phase phase, final boolean compensate, final Scope scope, final boolean classScoped, final State state) throws Exception {
+    assert phase != null;
+    assert scope != null;
+    assert state != null;
+    state.failedManager = null;
+    if (managers != null && !managers.isEmpty()) {
+      if (executor != null && managers.size() > 1) {
+        runManagersConcurrently(executor, managers, phase, compensate, scope, classScoped, state);
+      } else {
+        final int size = managers.size();
+        for (int i = 0; i < size; i++) {
+          final DBManager manager;
+          if (compensate) {
+            manager = managers.get(size - i - 1);
+          } else {
+            manager = managers.get(i);
+          }
+          if (manager != null && runs(manager, phase, scope, classScoped)) {
+            try {
+              runManager(manager, phase, compensate, state.description);
+            } catch (final Exception boom) {
+              state.failedManager = manager;
+              throw boom;
+            } catch (final Error boom) {
+              state.failedManager = manager;
+              throw boom;
             }
           }
         }
@@ -144,42 +483,194 @@ public class DBRule implements TestRule {
     }
   }
 
-  protected void inject() throws Exception {
-    this.failedManager = null;
-    if (this.managers != null && !this.managers.isEmpty()) {
-      for (final DBManager manager : this.managers) {
-        if (manager != null) {
-          try {
-            manager.inject();
-          } catch (final Throwable boom) {
-            this.failedManager = manager;
-            if (boom instanceof Exception) {
-              throw (Exception)boom;
+  private static final void runManagersConcurrently(final Executor executor, final List<? extends DBManager> managers, final Phase phase, final boolean compensate, final Scope scope, final boolean classScoped, final State state) throws Exception {
+    assert executor != null;
+    assert managers != null;
+    assert phase != null;
+    assert scope != null;
+    assert state != null;
+    final int size = managers.size();
+    final boolean[] runs = new boolean[size];
+    int remaining = 0;
+    for (int i = 0; i < size; i++) {
+      final DBManager manager = managers.get(i);
+      runs[i] = manager != null && runs(manager, phase, scope, classScoped);
+      if (runs[i]) {
+        remaining++;
+      }
+    }
+
+    // waitingFor.get(i) holds the indices of the managers that must
+    // finish before the manager at index i may start.  When
+    // compensating, the dependency edges are reversed.
+    final List<Set<Integer>> waitingFor = new ArrayList<Set<Integer>>(size);
+    for (int i = 0; i < size; i++) {
+      waitingFor.add(new HashSet<Integer>());
+    }
+    for (int i = 0; i < size; i++) {
+      if (runs[i]) {
+        final Collection<? extends DBManager> dependencies = managers.get(i).getDependencies();
+        for (int j = 0; j < size; j++) {
+          if (j != i && runs[j] && (dependencies == null ? j < i : containsIdentical(dependencies, managers.get(j)))) {
+            if (compensate) {
+              waitingFor.get(j).add(Integer.valueOf(i));
             } else {
-              throw (Error)boom;
+              waitingFor.get(i).add(Integer.valueOf(j));
             }
           }
         }
       }
     }
 
+    final Description description = state.description;
+    final Throwable[] failures = new Throwable[size];
+    final boolean[] started = new boolean[size];
+    final CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(executor);
+    boolean failed = false;
+    int running = 0;
+    while (true) {
+      if (!failed) {
+        for (int k = 0; k < size; k++) {
+          final int i = compensate ? size - k - 1 : k;
+          if (runs[i] && !started[i] && waitingFor.get(i).isEmpty()) {
+            started[i] = true;
+            running++;
+            final DBManager manager = managers.get(i);
+            completionService.submit(new Callable<Integer>() {
+                @Override
+                public final Integer call() {
+                  try {
+                    runManager(manager, phase, compensate, description);
+                  } catch (final Throwable boom) {
+                    failures[i] = boom;
+                  }
+                  return Integer.valueOf(i);
+                }
+              });
+          }
+        }
+      }
+      if (running <= 0) {
+        break;
+      }
+      final Integer finished = completionService.take().get();
+      running--;
+      remaining--;
+      if (failures[finished.intValue()] == null) {
+        for (final Set<Integer> w : waitingFor) {
+          w.remove(finished);
+        }
+      } else {
+        failed = true;
+      }
+    }
+
+    if (failed) {
+      ThrowableChain chain = null;
+      Throwable failure = null;
+      for (int k = 0; k < size; k++) {
+        final int i = compensate ? size - k - 1 : k;
+        if (failures[i] != null) {
+          if (failure == null) {
+            failure = failures[i];
+            state.failedManager = managers.get(i);
+          } else {
+            if (chain == null) {
+              chain = new ThrowableChain();
+              chain.add(failure);
+            }
+            chain.add(failures[i]);
+          }
+        }
+      }
+      if (chain != null) {
+        throw chain;
+      } else if (failure instanceof Exception) {
+        throw (Exception)failure;
+      } else {
+        throw (Error)failure;
+      }
+    } else if (remaining > 0) {
+      throw new IllegalStateException("Circular dependencies among DBManagers: " + managers);
+    }
   }
 
-  public void connectFailed(final Throwable connectFailed) throws Exception {
-    if (this.failedManager != null) {
-      this.failedManager.connectFailed(connectFailed);
+  private static final void runManager(final DBManager manager, final Phase phase, final boolean compensate, final Description description) throws Exception {
+    assert manager != null;
+    assert phase != null;
+    final long start = phaseTimingListeners.isEmpty() ? 0L : System.nanoTime();
+    try {
+      switch (phase) {
+      case CREATE:
+        if (compensate) {
+          manager.destroy();
+        } else {
+          manager.create();
+        }
+        break;
+      case CONNECT:
+        if (compensate) {
+          manager.disconnect();
+        } else {
+          manager.connect();
+        }
+        break;
+      case INITIALIZE:
+        if (compensate) {
+          manager.reset();
+        } else {
+          manager.initialize();
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unexpected phase: " + phase);
+      }
+      phaseCompleted(manager, getPhaseName(phase, compensate), description, start, null);
+    } catch (final Exception boom) {
+      phaseCompleted(manager, getPhaseName(phase, compensate), description, start, boom);
+      throw boom;
+    } catch (final Error boom) {
+      phaseCompleted(manager, getPhaseName(phase, compensate), description, start, boom);
+      throw boom;
     }
   }
 
-  public void initialize() throws Exception {
-    this.failedManager = null;
-    if (this.managers != null && !this.managers.isEmpty()) {
-      for (final DBManager manager : this.managers) {
+  private static final boolean containsIdentical(final Collection<?> c, final Object o) {
+    boolean returnValue = false;
+    if (c != null) {
+      for (final Object element : c) {
+        if (element == o) {
+          returnValue = true;
+          break;
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private static final boolean runs(final DBManager manager, final Phase phase, final Scope scope, final boolean classScoped) {
+    final boolean returnValue;
+    if (Scope.CLASS.equals(scope)) {
+      returnValue = Scope.CLASS.equals(getScope(manager, phase));
+    } else {
+      returnValue = !classScoped || Scope.METHOD.equals(getScope(manager, phase));
+    }
+    return returnValue;
+  }
+
+  private static final void inject(final List<? extends DBManager> managers, final State state) throws Exception {
+    assert state != null;
+    state.failedManager = null;
+    if (managers != null && !managers.isEmpty()) {
+      for (final DBManager manager : managers) {
         if (manager != null) {
+          final long start = phaseTimingListeners.isEmpty() ? 0L : System.nanoTime();
           try {
-            manager.initialize();
+            manager.inject();
+            phaseCompleted(manager, "inject", state.description, start, null);
           } catch (final Throwable boom) {
-            this.failedManager = manager;
+            phaseCompleted(manager, "inject", state.description, start, boom);
+            state.failedManager = manager;
             if (boom instanceof Exception) {
               throw (Exception)boom;
             } else {
@@ -191,23 +682,21 @@ public class DBRule implements TestRule {
     }
   }
 
-  public void initializeFailed(final Throwable initializeFailed) throws Exception {
-    if (this.failedManager != null) {
-      this.failedManager.initializeFailed(initializeFailed);
-    }
-  }
-
-  public void evaluateSucceeded() throws Exception {
-    this.failedManager = null;
-    if (this.managers != null && !this.managers.isEmpty()) {
-      final int size = this.managers.size();
+  private static final void evaluateSucceeded(final List<? extends DBManager> managers, final State state) throws Exception {
+    assert state != null;
+    state.failedManager = null;
+    if (managers != null && !managers.isEmpty()) {
+      final int size = managers.size();
       for (int i = size - 1; i >= 0; i--) {
-        final DBManager manager = this.managers.get(i);
+        final DBManager manager = managers.get(i);
         if (manager != null) {
+          final long start = phaseTimingListeners.isEmpty() ? 0L : System.nanoTime();
           try {
             manager.evaluateSucceeded();
+            phaseCompleted(manager, "evaluateSucceeded", state.description, start, null);
           } catch (final Throwable boom) {
-            this.failedManager = manager;
+            phaseCompleted(manager, "evaluateSucceeded", state.description, start, boom);
+            state.failedManager = manager;
             if (boom instanceof Exception) {
               throw (Exception)boom;
             } else {
@@ -219,248 +708,955 @@ public class DBRule implements TestRule {
     }
   }
 
-  public void evaluateFailed(final Throwable evaluateFailed) throws Exception {
-    if (this.failedManager != null) {
-      this.failedManager.evaluateFailed(evaluateFailed);
+  /**
+   * Notifies the supplied {@link DBManager} that the supplied {@link
+   * Phase}, or the phase that compensates for it, failed.
+   */
+  private static final void failed(final DBManager manager, final Phase phase, final boolean compensate, final Throwable failure) throws Exception {
+    assert manager != null;
+    assert phase != null;
+    switch (phase) {
+    case CREATE:
+      if (compensate) {
+        manager.destroyFailed(failure);
+      } else {
+        manager.createFailed(failure);
+      }
+      break;
+    case CONNECT:
+      if (compensate) {
+        manager.disconnectFailed(failure);
+      } else {
+        manager.connectFailed(failure);
+      }
+      break;
+    case INITIALIZE:
+      if (compensate) {
+        manager.resetFailed(failure);
+      } else {
+        manager.initializeFailed(failure);
+      }
+      break;
+    default:
+      throw new IllegalStateException("Unexpected phase: " + phase);
     }
   }
 
-  public void reset() throws Exception {
-    this.failedManager = null;
-    if (this.managers != null && !this.managers.isEmpty()) {
-      final int size = this.managers.size();
-      for (int i = size - 1; i >= 0; i--) {
-        final DBManager manager = this.managers.get(i);
-        if (manager != null) {
+  /**
+   * Runs every {@link Phase} that the supplied {@link DBManager}s
+   * undergo in the supplied {@link Scope}, in order, or, if {@code
+   * compensate} is {@code true}, every phase that compensates for
+   * one, in reverse order, exactly as a {@link DBRule} does around a
+   * test class or a test.
+   *
+   * <p>This method is for test frameworks other than JUnit 4 that
+   * need to drive {@link DBManager}s themselves.  As with a {@link
+   * DBRule}, {@link DBManager#getDependencies() dependencies} are
+   * honored, {@linkplain #addPhaseTimingListener(PhaseTimingListener)
+   * phase timing listeners} are notified, and, at {@linkplain
+   * Scope#METHOD method scope}, {@link DBManager#inject()} is called
+   * once every {@link DBManager} has been initialized.  If a phase
+   * fails, the {@link DBManager} that failed is notified and, when
+   * setting up, the phases that had completed are compensated for;
+   * when compensating, the remaining phases are still run.  Every
+   * failure is added to the supplied {@link ThrowableChain}.</p>
+   *
+   * @param managers the {@link DBManager}s; must not be {@code null}
+   *
+   * @param scope the {@link Scope} whose phases are to be run; must
+   * not be {@code null}
+   *
+   * @param compensate whether to run the phases that compensate for
+   * the {@link Phase}s instead of the {@link Phase}s themselves
+   *
+   * @param classScoped whether the {@link DBManager}s' {@linkplain
+   * Scope#CLASS class-scoped} phases are run separately; if {@code
+   * false}, running {@link Scope#METHOD} runs every phase
+   *
+   * @param description the {@link Description} reported to {@link
+   * PhaseTimingListener}s; may be {@code null}
+   *
+   * @param phaseExecutor the {@link Executor} on which to run
+   * independent {@link DBManager}s concurrently, as described in
+   * {@link #setPhaseExecutor(Executor)}; may be {@code null}
+   *
+   * @param chain the {@link ThrowableChain} to which failures are
+   * added; must not be {@code null}
+   *
+   * @return {@code true} if every phase completed without failure
+   *
+   * @exception IllegalArgumentException if {@code managers}, {@code
+   * scope} or {@code chain} is {@code null}
+   */
+  public static final boolean runPhases(final List<? extends DBManager> managers, final Scope scope, final boolean compensate, final boolean classScoped, final Description description, final Executor phaseExecutor, final ThrowableChain chain) {
+    if (managers == null) {
+      throw new IllegalArgumentException("managers", new NullPointerException("managers == null"));
+    }
+    if (scope == null) {
+      throw new IllegalArgumentException("scope", new NullPointerException("scope == null"));
+    }
+    if (chain == null) {
+      throw new IllegalArgumentException("chain", new NullPointerException("chain == null"));
+    }
+    final State state = new State();
+    state.description = description;
+    final Phase[] phases = Phase.values();
+    boolean returnValue = true;
+    if (compensate) {
+      for (int i = phases.length - 1; i >= 0; i--) {
+        if (!runPhase(managers, phases[i], true, scope, classScoped, phaseExecutor, state, chain)) {
+          returnValue = false;
+        }
+      }
+    } else {
+      int completed = 0;
+      while (completed < phases.length && runPhase(managers, phases[completed], false, scope, classScoped, phaseExecutor, state, chain)) {
+        if (Scope.METHOD.equals(scope) && Phase.INITIALIZE.equals(phases[completed])) {
           try {
-            manager.reset();
-          } catch (final Throwable boom) {
-            this.failedManager = manager;
-            if (boom instanceof Exception) {
-              throw (Exception)boom;
-            } else {
-              throw (Error)boom;
-            }
+            inject(managers, state);
+          } catch (final Throwable injectFailed) {
+            failed(state, Phase.INITIALIZE, false, injectFailed, chain);
+            break;
           }
         }
+        completed++;
+      }
+      returnValue = completed == phases.length;
+      if (!returnValue) {
+        for (int i = completed - 1; i >= 0; i--) {
+          runPhase(managers, phases[i], true, scope, classScoped, phaseExecutor, state, chain); // compensates for phases[i]
+        }
       }
     }
+    return returnValue;
   }
 
-  public void resetFailed(final Throwable resetFailed) throws Exception {
-    if (this.failedManager != null) {
-      this.failedManager.resetFailed(resetFailed);
+  /**
+   * Notifies the supplied {@link DBManager}s that a test succeeded,
+   * exactly as a {@link DBRule} does.  If one of them fails, it is
+   * notified that the test failed instead, and the failures are
+   * added to the supplied {@link ThrowableChain}.
+   *
+   * @param managers the {@link DBManager}s; must not be {@code null}
+   *
+   * @param description the {@link Description} of the test; may be
+   * {@code null}
+   *
+   * @param chain the {@link ThrowableChain} to which failures are
+   * added; must not be {@code null}
+   *
+   * @return {@code true} if no {@link DBManager} failed
+   *
+   * @exception IllegalArgumentException if {@code managers} or {@code
+   * chain} is {@code null}
+   *
+   * @see #runPhases(List, Scope, boolean, boolean, Description,
+   * Executor, ThrowableChain)
+   */
+  public static final boolean runEvaluateSucceeded(final List<? extends DBManager> managers, final Description description, final ThrowableChain chain) {
+    if (managers == null) {
+      throw new IllegalArgumentException("managers", new NullPointerException("managers == null"));
+    }
+    if (chain == null) {
+      throw new IllegalArgumentException("chain", new NullPointerException("chain == null"));
+    }
+    final State state = new State();
+    state.description = description;
+    boolean returnValue = true;
+    try {
+      evaluateSucceeded(managers, state);
+    } catch (final Throwable evaluateFailed) {
+      returnValue = false;
+      chain.add(evaluateFailed);
+      if (state.failedManager != null) {
+        try {
+          state.failedManager.evaluateFailed(evaluateFailed);
+        } catch (final Throwable evaluateFailedFailed) {
+          chain.add(evaluateFailedFailed);
+        }
+      }
     }
+    return returnValue;
   }
 
-  public void disconnect() throws Exception {
-    this.failedManager = null;
-    if (this.managers != null && !this.managers.isEmpty()) {
-      final int size = this.managers.size();
-      for (int i = size - 1; i >= 0; i--) {
-        final DBManager manager = this.managers.get(i);
+  private static final boolean runPhase(final List<? extends DBManager> managers, final Phase phase, final boolean compensate, final Scope scope, final boolean classScoped, final Executor executor, final State state, final ThrowableChain chain) {
+    assert chain != null;
+    boolean returnValue = true;
+    try {
+      runManagers(executor, managers, phase, compensate, scope, classScoped, state);
+    } catch (final Throwable boom) {
+      returnValue = false;
+      failed(state, phase, compensate, boom, chain);
+    }
+    return returnValue;
+  }
+
+  private static final void failed(final State state, final Phase phase, final boolean compensate, final Throwable failure, final ThrowableChain chain) {
+    assert state != null;
+    assert chain != null;
+    chain.add(failure);
+    if (state.failedManager != null) {
+      try {
+        failed(state.failedManager, phase, compensate, failure);
+      } catch (final Throwable failedFailed) {
+        chain.add(failedFailed);
+      }
+    }
+  }
+
+  private static final void setContext(final List<DBManager> managers, final Description description, final Object testInstance) {
+    if (managers != null && !managers.isEmpty()) {
+      for (final DBManager manager : managers) {
         if (manager != null) {
-          try {
-            manager.disconnect();
-          } catch (final Throwable boom) {
-            this.failedManager = manager;
-            if (boom instanceof Exception) {
-              throw (Exception)boom;
-            } else {
-              throw (Error)boom;
-            }
-          }
+          manager.setDescription(description);
+          manager.setTestInstance(testInstance);
         }
       }
     }
   }
 
-  public void disconnectFailed(final Throwable disconnectFailed) throws Exception {
-    if (this.failedManager != null) {
-      this.failedManager.disconnectFailed(disconnectFailed);
+  /**
+   * Returns the {@link Scope} in which the supplied {@link
+   * DBManager} will actually undergo the supplied {@link Phase}.
+   *
+   * <p>A {@link Phase} can only be {@linkplain Scope#CLASS
+   * class-scoped} if the {@link DBManager} undergoes every {@link
+   * Phase} that precedes it at class scope as well; a database cannot
+   * be connected to once per class if it is created anew for every
+   * test, for example.  So if a {@link DBManager} reports that its
+   * {@link Phase#CREATE} phase is {@linkplain Scope#METHOD
+   * method-scoped}, then all of its phases are method-scoped,
+   * regardless of what it reports for them.</p>
+   *
+   * @param manager the {@link DBManager} in question; must not be
+   * {@code null}
+   *
+   * @param phase the {@link Phase} in question; must not be {@code
+   * null}
+   *
+   * @return the effective {@link Scope}; never {@code null}
+   *
+   * @exception IllegalArgumentException if either parameter is {@code
+   * null}
+   */
+  public static final Scope getScope(final DBManager manager, final Phase phase) {
+    if (manager == null) {
+      throw new IllegalArgumentException("manager", new NullPointerException("manager == null"));
+    }
+    if (phase == null) {
+      throw new IllegalArgumentException("phase", new NullPointerException("phase == null"));
+    }
+    Scope scope = Scope.CLASS;
+    final Phase[] phases = Phase.values();
+    for (int i = 0; i <= phase.ordinal() && Scope.CLASS.equals(scope); i++) {
+      if (!Scope.CLASS.equals(manager.getScope(phases[i]))) {
+        scope = Scope.METHOD;
+      }
     }
+    return scope;
   }
 
-  public void destroy() throws Exception {
-    this.failedManager = null;
-    if (this.managers != null && !this.managers.isEmpty()) {
-      final int size = this.managers.size();
-      for (int i = size - 1; i >= 0; i--) {
-        final DBManager manager = this.managers.get(i);
-        if (manager != null) {
-          try {
-            manager.destroy();
-          } catch (final Throwable boom) {
-            this.failedManager = manager;
-            if (boom instanceof Exception) {
-              throw (Exception)boom;
-            } else {
-              throw (Error)boom;
-            }
-          }
+  private static final String getPhaseName(final Phase phase, final boolean compensate) {
+    assert phase != null;
+    final String name;
+    switch (phase) {
+    case CREATE:
+      name = compensate ? "destroy" : "create";
+      break;
+    case CONNECT:
+      name = compensate ? "disconnect" : "connect";
+      break;
+    case INITIALIZE:
+      name = compensate ? "reset" : "initialize";
+      break;
+    default:
+      throw new IllegalStateException("Unexpected phase: " + phase);
+    }
+    return name;
+  }
+
+  private static final void phaseCompleted(final DBManager manager, final String phase, final Description description, final long start, final Throwable failure) {
+    if (!phaseTimingListeners.isEmpty()) {
+      final long nanos = System.nanoTime() - start;
+      for (final PhaseTimingListener listener : phaseTimingListeners) {
+        try {
+          listener.phaseCompleted(manager, phase, description, nanos, failure);
+        } catch (final RuntimeException ignored) {
+          // Timing is diagnostic only; it must never fail a test.
         }
       }
     }
   }
 
-  public void destroyFailed(final Throwable destroyFailed) throws Exception {
-    if (this.failedManager != null) {
-      this.failedManager.destroyFailed(destroyFailed);
+  /**
+   * Registers a {@link PhaseTimingListener} that will be notified of
+   * the time taken by every {@link DBManager} phase run by any {@link
+   * DBRule} in the current JVM.
+   *
+   * @param listener the {@link PhaseTimingListener} to add; must not
+   * be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code listener} is {@code
+   * null}
+   */
+  public static final void addPhaseTimingListener(final PhaseTimingListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("listener", new NullPointerException("listener == null"));
+    }
+    phaseTimingListeners.add(listener);
+  }
+
+  /**
+   * Unregisters a {@link PhaseTimingListener} previously {@linkplain
+   * #addPhaseTimingListener(PhaseTimingListener) registered}.
+   *
+   * @param listener the {@link PhaseTimingListener} to remove; may be
+   * {@code null}
+   */
+  public static final void removePhaseTimingListener(final PhaseTimingListener listener) {
+    if (listener != null) {
+      phaseTimingListeners.remove(listener);
     }
-    this.failedManager = null;
   }
 
+  private static final List<PhaseTimingListener> loadPhaseTimingListeners() {
+    final List<PhaseTimingListener> listeners = new ArrayList<PhaseTimingListener>();
+    for (final PhaseTimingListener listener : ServiceLoader.load(PhaseTimingListener.class)) {
+      if (listener != null) {
+        listeners.add(listener);
+      }
+    }
+    final String timingsFile = System.getProperty(TIMINGS_FILE);
+    if (timingsFile != null && !timingsFile.trim().isEmpty()) {
+      listeners.add(new FilePhaseTimingListener(new File(timingsFile.trim())));
+    }
+    return listeners;
+  }
+
+  /**
+   * Returns an unmodifiable {@link List} of the fields of the supplied
+   * {@link TestClass} that are annotated with the supplied annotation
+   * type, whose types are assignable to the supplied field type and are accepted
+   * by the supplied {@link FieldFilter}.
+   *
+   * <p>The result is computed once for each distinct combination of
+   * test class, annotation type, field type and {@code key}, and
+   * cached alongside the test class' {@link TestClass} (see {@link
+   * #getTestClass(Description)}); the {@link FieldFilter} is
+   * consulted only the first time.  The {@code key} must therefore
+   * capture everything the {@link FieldFilter}'s decisions depend on.
+   * The returned {@link Field}s have already been made {@linkplain
+   * Field#setAccessible(boolean) accessible}, so callers can simply
+   * {@linkplain Field#set(Object, Object) set} them.</p>
+   *
+   * @param testClass the {@link TestClass} whose fields should be
+   * returned; must not be {@code null}
+   *
+   * @param annotationType the annotation type the fields must bear;
+   * must not be {@code null}
+   *
+   * @param fieldType the type of value that will be assigned to the
+   * fields; must not be {@code null}
+   *
+   * @param key a {@link List} identifying the {@link FieldFilter}'s
+   * criteria; may be {@code null}
+   *
+   * @param filter the {@link FieldFilter} to consult; may be {@code
+   * null} in which case all otherwise eligible fields are returned
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of {@link
+   * Field}s
+   *
+   * @exception IllegalArgumentException if {@code testClass}, {@code
+   * annotationType} or {@code fieldType} is {@code null}
+   */
+  public static final List<Field> getInjectableFields(final TestClass testClass, final Class<? extends Annotation> annotationType, final Class<?> fieldType, final List<?> key, final FieldFilter filter) {
+    if (testClass == null) {
+      throw new IllegalArgumentException("testClass", new NullPointerException("testClass == null"));
+    }
+    if (annotationType == null) {
+      throw new IllegalArgumentException("annotationType", new NullPointerException("annotationType == null"));
+    }
+    if (fieldType == null) {
+      throw new IllegalArgumentException("fieldType", new NullPointerException("fieldType == null"));
+    }
+    final Class<?> javaClass = testClass.getJavaClass();
+    final ConcurrentMap<List<Object>, List<Field>> injectableFields;
+    if (javaClass == null) {
+      injectableFields = new ConcurrentHashMap<List<Object>, List<Field>>();
+    } else {
+      injectableFields = getTestClassInfo(javaClass).injectableFields;
+    }
+    final List<Object> cacheKey = Arrays.<Object>asList(annotationType, fieldType, key);
+    List<Field> fields = injectableFields.get(cacheKey);
+    if (fields == null) {
+      final List<FrameworkField> annotatedFields = testClass.getAnnotatedFields(annotationType);
+      assertNotNull(annotatedFields);
+      final List<Field> newFields = new ArrayList<Field>(annotatedFields.size());
+      for (final FrameworkField ff : annotatedFields) {
+        if (ff != null) {
+          final Field f = ff.getField();
+          if (f != null && fieldType.isAssignableFrom(f.getType()) && (filter == null || filter.accept(f))) {
+            f.setAccessible(true);
+            newFields.add(f);
+          }
+        }
+      }
+      fields = injectableFields.putIfAbsent(cacheKey, Collections.unmodifiableList(newFields));
+      if (fields == null) {
+        fields = injectableFields.get(cacheKey);
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Returns a {@link TestClass} for the {@linkplain
+   * Description#getTestClass() test class} of the supplied {@link
+   * Description}, or {@code null} if there is no such class.
+   *
+   * <p>{@link TestClass} instances are expensive to create, so they
+   * are cached.  Lookups do not block one another, and a given test
+   * class' {@link TestClass} is created at most once while it remains
+   * cached.  The cache holds test classes only {@linkplain
+   * WeakReference weakly} and their {@link TestClass}es only
+   * {@linkplain SoftReference softly}, so it never prevents a test
+   * class' {@link ClassLoader} from being garbage collected.</p>
+   *
+   * @param description the {@link Description} in question; may be
+   * {@code null} in which case {@code null} will be returned
+   *
+   * @return a {@link TestClass}, or {@code null}
+   */
   public static final TestClass getTestClass(final Description description) {
     TestClass testClass = null;
     if (description != null) {
       final Class<?> c = description.getTestClass();
       if (c != null) {
-        testClass = testClasses.get(c);
-        if (testClass == null) {
-          testClass = new TestClass(c);
-          testClasses.put(c, testClass);
-        }
+        testClass = getTestClassInfo(c).testClass;
       }
     }
     return testClass;
   }
 
+  private static final TestClassInfo getTestClassInfo(final Class<?> c) {
+    assert c != null;
+    Reference<? extends Class<?>> stale;
+    while ((stale = staleClasses.poll()) != null) {
+      testClasses.remove(stale);
+    }
+    TestClassHolder holder = testClasses.get(new ClassKey(c, null));
+    if (holder == null) {
+      final TestClassHolder newHolder = new TestClassHolder();
+      holder = testClasses.putIfAbsent(new ClassKey(c, staleClasses), newHolder);
+      if (holder == null) {
+        holder = newHolder;
+      }
+    }
+    return holder.get(c);
+  }
+
+  /**
+   * Returns a {@link Statement} that runs this {@link DBRule}'s
+   * {@link DBManager}s around the supplied {@link Statement}.
+   *
+   * <p>When this {@link DBRule} is used as a {@link Rule}, the
+   * supplied {@link Description} {@linkplain Description#isTest()
+   * describes a test}, and each {@link DBManager} runs those of its
+   * phases that are {@linkplain #getScope(DBRule.DBManager,
+   * DBRule.Phase) method-scoped} around it.  When this {@link DBRule}
+   * is used as a {@link ClassRule}, the supplied {@link Description}
+   * {@linkplain Description#isSuite() describes a test class or a
+   * suite}, and each {@link DBManager} runs those of its phases that
+   * are class-scoped around all of the tests within it.  A {@link
+   * DBRule} that is never applied as a {@link ClassRule} runs all
+   * phases of all of its {@link DBManager}s around each test.</p>
+   *
+   * <p>A {@link TestRule} is not told which test instance it is
+   * running against, so when this {@link DBRule} is used as a {@link
+   * Rule} it has to search the supplied {@link Statement} for it.
+   * The preferred way to run a {@link DBRule} around each test is
+   * therefore to apply its {@linkplain #asMethodRule() <code>MethodRule</code>
+   * view} instead.  Because JUnit does not permit a static field to
+   * be annotated with {@link Rule}, the usual idiom for a {@link
+   * DBRule} with class-scoped {@link DBManager}s is:</p>
+   *
+   * <blockquote><pre>&#64;ClassRule
+   *public static final DBRule classRule = new DBRule(managers);
+   *
+   *&#64;Rule
+   *public final MethodRule rule = classRule.asMethodRule();</pre></blockquote>
+   *
+   * @param base the {@link Statement} to wrap; may be {@code null}
+   *
+   * @param description a {@link Description} of what {@code base}
+   * will run; may be {@code null}
+   *
+   * @return a {@link Statement}, or {@code null} if {@code base} is
+   * {@code null}
+   */
   @Override
   public Statement apply(final Statement base, final Description description) {
     final Statement returnValue;
-    if (base == null || description == null || !description.isTest()) {
+    if (base == null || description == null) {
       returnValue = base;
-    } else {
+    } else if (description.isTest()) {
       returnValue = new Statement() {
-
           @Override
           public final void evaluate() throws ThrowableChain {
-            DBRule.this.description = description;
-            testClass = getTestClass(description);
-            assertNotNull("testClass == null", testClass);
-            final ThrowableChain chain = new ThrowableChain();
-            assert chain.size() == 1;
-            try {
-              testInstance = getTest(base);
-
-              create();
+            evaluateTest(base, description, null);
+          }
+        };
+    } else {
+      returnValue = new Statement() {
+          @Override
+          public final void evaluate() throws Throwable {
+            if (classDescription != null) {
+              // We're already running at class scope (e.g. for a suite).
+              base.evaluate();
+            } else {
+              evaluateClass(base, description);
+            }
+          }
+        };
+    }
+    return returnValue;
+  }
 
-              try {
-                connect();
+  private final void evaluateTest(final Statement base, final Description description, final Object testInstance) throws ThrowableChain {
+    assert base != null;
+    assert description != null;
+    final State state = this.state.get();
+    state.description = description;
+    state.testClass = getTestClass(description);
+    assertNotNull("testClass == null", state.testClass);
+    final ThrowableChain chain = new ThrowableChain();
+    assert chain.size() == 1;
+    List<DBManager> managers = null;
+    try {
+      if (testInstance == null) {
+        state.testInstance = getTest(base, state.testClass.getJavaClass());
+        if (state.testInstance == null) {
+          throw new IllegalStateException("Could not find the " + state.testClass.getName() + " instance that a " + base.getClass().getName() + " will run against; apply DBRule#asMethodRule() as a @Rule instead");
+        }
+      } else {
+        state.testInstance = testInstance;
+      }
+      managers = this.getManagers(state);
+      assertNotNull(managers);
+      setContext(managers, description, state.testInstance);
+
+      boolean classScoped = this.classDescription == null || this.classScopedManagers.contains(managers);
+      if (!classScoped) {
+        // This thread's managers have not yet undergone their
+        // class-scoped phases.
+        classScoped = this.setUp(managers, Scope.CLASS, chain);
+        if (classScoped) {
+          this.classScopedManagers.add(managers);
+        }
+      }
 
-                try {
-                  initialize();
-                  inject();
+      if (classScoped && this.setUp(managers, Scope.METHOD, chain)) {
+        try {
+          base.evaluate();
+          this.evaluateSucceeded();
+        } catch (final Throwable evaluateFailed) {
+          chain.add(evaluateFailed);
+          try {
+            this.evaluateFailed(evaluateFailed);
+          } catch (final Throwable evaluateFailedFailed) {
+            chain.add(evaluateFailedFailed);
+          }
+        }
+        this.tearDown(managers, Scope.METHOD, Phase.values().length, chain);
+      }
 
-                  try {
-                    base.evaluate();
-                    evaluateSucceeded();
-                  } catch (final Throwable evaluateFailed) {
-                    chain.add(evaluateFailed);
-                    try {
-                      evaluateFailed(evaluateFailed);
-                    } catch (final Throwable evaluateFailedFailed) {
-                      chain.add(evaluateFailedFailed);
-                    }
-                  }
+    } catch (final Throwable setUpFailed) {
+      chain.add(setUpFailed);
+    } finally {
+      state.testInstance = null;
+      final Description classDescription = this.classDescription;
+      if (classDescription == null) {
+        state.description = null;
+        state.testClass = null;
+      } else {
+        state.description = classDescription;
+        state.testClass = getTestClass(classDescription);
+      }
+      setContext(managers, state.description, null);
+      if (chain.getCause() != null || chain.size() > 1) {
+        throw chain;
+      }
+    }
+  }
 
-                  try {
-                    reset(); // compensates for initialize()
-                  } catch (final Throwable resetFailed) {
-                    chain.add(resetFailed);
-                    try {
-                      resetFailed(resetFailed);
-                    } catch (final Throwable resetFailedFailed) {
-                      chain.add(resetFailedFailed);
-                    }
-                  }
+  private final void evaluateClass(final Statement base, final Description description) throws ThrowableChain {
+    assert base != null;
+    assert description != null;
+    final State state = this.state.get();
+    state.description = description;
+    state.testClass = getTestClass(description);
+    assertNotNull("testClass == null", state.testClass);
+    final ThrowableChain chain = new ThrowableChain();
+    assert chain.size() == 1;
+    this.classDescription = description;
+    try {
+      boolean classScoped = true;
+      if (this.managerFactory == null) {
+        // Without a factory all threads share the same managers, so
+        // they can undergo their class-scoped phases right away.
+        setContext(this.managers, description, null);
+        classScoped = this.setUp(this.managers, Scope.CLASS, chain);
+        if (classScoped) {
+          this.classScopedManagers.add(this.managers);
+        }
+      }
+      if (classScoped) {
+        try {
+          base.evaluate();
+        } catch (final Throwable evaluateFailed) {
+          chain.add(evaluateFailed);
+        }
+      }
+    } finally {
+      final List<List<DBManager>> classScopedManagers;
+      synchronized (this.classScopedManagers) {
+        classScopedManagers = new ArrayList<List<DBManager>>(this.classScopedManagers);
+        this.classScopedManagers.clear();
+      }
+      for (final List<DBManager> managers : classScopedManagers) {
+        setContext(managers, description, null);
+        this.tearDown(managers, Scope.CLASS, Phase.values().length, chain);
+        setContext(managers, null, null);
+      }
+      this.classDescription = null;
+      state.description = null;
+      state.testClass = null;
+      if (chain.getCause() != null || chain.size() > 1) {
+        throw chain;
+      }
+    }
+  }
 
-                } catch (final Throwable initializeFailed) {
-                  chain.add(initializeFailed);
-                  try {
-                    initializeFailed(initializeFailed);
-                  } catch (final Throwable initializeFailedFailed) {
-                    chain.add(initializeFailedFailed);
-                  }
-                }
+  /**
+   * Returns the instance of the supplied test class that the supplied
+   * {@link Statement} will ultimately run a test method against.
+   *
+   * <p>This method exists only to support using a {@link DBRule} as
+   * a {@link Rule}; {@link #asMethodRule()} is given the test
+   * instance directly and should be preferred.  Because JUnit offers
+   * no supported way for a {@link TestRule} to discover its test
+   * instance, this method follows the fields of the supplied {@link
+   * Statement}, and of the {@link Statement}s it wraps, until it
+   * finds one whose value is an instance of the supplied test class.
+   * Fields are selected by their values, not by their names, and are
+   * looked up once per {@link Statement} class.  Fields that cannot
+   * be made accessible are skipped.</p>
+   *
+   * @param statement the {@link Statement} to inspect; may be {@code
+   * null} in which case {@code null} will be returned
+   *
+   * @param testClass the class of the test instance; may be {@code
+   * null} in which case {@code null} will be returned
+   *
+   * @return the test instance, or {@code null} if it could not be
+   * found
+   *
+   * @exception IllegalAccessException if a field could not be read
+   */
+  private static final Object getTest(final Statement statement, final Class<?> testClass) throws IllegalAccessException {
+    Object test = null;
+    if (statement != null && testClass != null) {
+      final Set<Statement> visited = Collections.newSetFromMap(new IdentityHashMap<Statement, Boolean>());
+      final List<Statement> statements = new ArrayList<Statement>();
+      statements.add(statement);
+      while (test == null && !statements.isEmpty()) {
+        final Statement s = statements.remove(statements.size() - 1);
+        if (visited.add(s)) {
+          for (final Field f : getStatementAccessor(s.getClass()).fields) {
+            final Object value = f.get(s);
+            if (value instanceof Statement) {
+              statements.add((Statement)value);
+            } else if (testClass.isInstance(value)) {
+              test = value;
+              break;
+            }
+          }
+        }
+      }
+    }
+    return test;
+  }
 
-                try {
-                  disconnect(); // compensates for connect()
-                } catch (final Throwable disconnectFailed) {
-                  chain.add(disconnectFailed);
-                  try {
-                    disconnectFailed(disconnectFailed);
-                  } catch (final Throwable disconnectFailedFailed) {
-                    chain.add(disconnectFailedFailed);
-                  }
-                }
+  private static final StatementAccessor getStatementAccessor(final Class<?> c) {
+    assert c != null;
+    Reference<? extends Class<?>> stale;
+    while ((stale = staleStatementClasses.poll()) != null) {
+      statementAccessors.remove(stale);
+    }
+    final SoftReference<StatementAccessor> ref = statementAccessors.get(new ClassKey(c, null));
+    StatementAccessor accessor = ref == null ? null : ref.get();
+    if (accessor == null) {
+      // Building an accessor twice is harmless, so there is no need
+      // to lock here.
+      accessor = new StatementAccessor(c);
+      statementAccessors.put(new ClassKey(c, staleStatementClasses), new SoftReference<StatementAccessor>(accessor));
+    }
+    return accessor;
+  }
 
-              } catch (final Throwable connectFailed) {
-                chain.add(connectFailed);
-                try {
-                  connectFailed(connectFailed);
-                } catch (final Throwable connectFailedFailed) {
-                  chain.add(connectFailedFailed);
-                }
+  /**
+   * Returns a {@link MethodRule} that runs this {@link DBRule}'s
+   * {@link DBManager}s around each test exactly as {@linkplain
+   * #apply(Statement, Description) applying this <code>DBRule</code>
+   * to a test} would, but that is handed the test instance by JUnit
+   * rather than having to discover it.
+   *
+   * <p>Usage is as follows:</p>
+   *
+   * <blockquote><pre>&#64;ClassRule
+   *public static final DBRule classRule = new DBRule(managers);
+   *
+   *&#64;Rule
+   *public final MethodRule rule = classRule.asMethodRule();</pre></blockquote>
+   *
+   * @return a non-{@code null} {@link MethodRule}
+   */
+  public MethodRule asMethodRule() {
+    return new MethodRule() {
+      @Override
+      public final Statement apply(final Statement base, final FrameworkMethod method, final Object target) {
+        final Statement returnValue;
+        if (base == null || method == null) {
+          returnValue = base;
+        } else {
+          final Class<?> testClass = target == null ? method.getMethod().getDeclaringClass() : target.getClass();
+          final Description description = Description.createTestDescription(testClass, method.getName(), method.getAnnotations());
+          returnValue = new Statement() {
+              @Override
+              public final void evaluate() throws ThrowableChain {
+                evaluateTest(base, description, target);
               }
+            };
+        }
+        return returnValue;
+      }
+    };
+  }
 
-              try {
-                destroy(); // compensates for create()
-              } catch (final Throwable destroyFailed) {
-                chain.add(destroyFailed);
-                try {
-                  destroyFailed(destroyFailed);
-                } catch (final Throwable destroyFailedFailed) {
-                  chain.add(destroyFailedFailed);
-                }
-              }
+  /**
+   * The phases a {@link DBManager} undergoes whose {@link Scope} it
+   * may choose, listed in the order in which they happen.  Each
+   * phase also governs the phase that compensates for it: {@link
+   * DBManager#destroy()} for {@link #CREATE}, {@link
+   * DBManager#disconnect()} for {@link #CONNECT}, and {@link
+   * DBManager#reset()} for {@link #INITIALIZE}.  Injection and
+   * evaluation callbacks always happen once per test.
+   */
+  public static enum Phase {
+    CREATE, CONNECT, INITIALIZE
+  }
 
-            } catch (final Throwable createFailed) {
-              chain.add(createFailed);
-              try {
-                createFailed(createFailed);
-              } catch (final Throwable createFailedFailed) {
-                chain.add(createFailedFailed);
-              }
-            } finally {
-              testInstance = null;
-              testClass = null;
-              DBRule.this.description = null;
-              if (chain.getCause() != null || chain.size() > 1) {
-                throw chain;
-              }
+  /**
+   * How often a {@link DBManager} undergoes a given {@link Phase}.
+   */
+  public static enum Scope {
+
+    /**
+     * Once around all of the tests in the test class or suite to
+     * which a {@link DBRule} has been applied as a {@link ClassRule}.
+     */
+    CLASS,
+
+    /**
+     * Once around each test.
+     */
+    METHOD
+
+  }
+
+  /**
+   * Supplies the {@link DBManager}s that a {@link DBRule} will use
+   * for one thread.
+   *
+   * @see DBRule#DBRule(DBRule.DBManagerFactory)
+   */
+  public static interface DBManagerFactory {
+
+    /**
+     * Returns a new {@link List} of new {@link DBManager}s that will
+     * be used only by the calling thread.
+     *
+     * <p>{@link DBManager}s returned by different invocations of this
+     * method must not share mutable state, and should use different
+     * databases; see for example {@code H2Manager}'s support for
+     * per-instance catalogs.</p>
+     *
+     * @return a {@link List} of {@link DBManager}s, or {@code null}
+     *
+     * @exception Exception if the {@link DBManager}s could not be
+     * created
+     */
+    public List<? extends DBManager> createManagers() throws Exception;
+
+  }
+
+  /**
+   * Decides whether a given annotated field should be the target of
+   * an injection.
+   *
+   * @see DBRule#getInjectableFields(TestClass, Class, Class, List,
+   * DBRule.FieldFilter)
+   */
+  public static interface FieldFilter {
+
+    public boolean accept(final Field field);
+
+  }
+
+  /**
+   * The accessible, non-static, non-primitive fields of a {@link
+   * Statement} class that {@link #getTest(Statement, Class)}
+   * consults.
+   */
+  private static final class StatementAccessor {
+
+    private final List<Field> fields;
+
+    private StatementAccessor(final Class<?> statementClass) {
+      super();
+      final List<Field> fields = new ArrayList<Field>();
+      for (Class<?> c = statementClass; c != null && c != Statement.class && c != Object.class; c = c.getSuperclass()) {
+        for (final Field f : c.getDeclaredFields()) {
+          if (f != null && !Modifier.isStatic(f.getModifiers()) && !f.getType().isPrimitive()) {
+            try {
+              f.setAccessible(true);
+              fields.add(f);
+            } catch (final RuntimeException inaccessible) {
+              // e.g. a SecurityException, or a module that does not
+              // open the Statement's package; skip it
             }
           }
-        };
+        }
+      }
+      this.fields = fields;
     }
-    return returnValue;
+
   }
 
-  private static final Object getTest(Statement statement) throws Exception {
-    Object test = null;
-    if (statement != null) {
-      if (statement instanceof ExpectException) {
-        final Field fNext = ExpectException.class.getDeclaredField("fNext");
-        assertNotNull(fNext);
-        fNext.setAccessible(true);
-        statement = (Statement)fNext.get(statement);
-        fNext.setAccessible(false);
+  /**
+   * A {@link WeakReference} to a {@link Class} that is suitable for
+   * use as a key in a {@link Map}; two {@link ClassKey}s are equal if
+   * they refer to the same {@link Class}.
+   */
+  private static final class ClassKey extends WeakReference<Class<?>> {
+
+    private final int hashCode;
+
+    private ClassKey(final Class<?> c, final ReferenceQueue<? super Class<?>> queue) {
+      super(c, queue);
+      this.hashCode = System.identityHashCode(c);
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      boolean returnValue = false;
+      if (other == this) {
+        returnValue = true;
+      } else if (other instanceof ClassKey) {
+        final Class<?> c = this.get();
+        returnValue = c != null && c == ((ClassKey)other).get();
       }
-      try {
-        final Field fTarget = statement.getClass().getDeclaredField("fTarget");
-        assertNotNull(fTarget);
-        fTarget.setAccessible(true);
-        test = fTarget.get(statement);
-        fTarget.setAccessible(false);
-      } catch (final Exception ohWell) {
+      return returnValue;
+    }
+
+  }
 
+  /**
+   * Holds the (softly referenced) {@link TestClassInfo} for a test
+   * class, creating it at most once while it remains reachable.
+   */
+  private static final class TestClassHolder {
+
+    private volatile SoftReference<TestClassInfo> info;
+
+    private TestClassHolder() {
+      super();
+    }
+
+    private final TestClassInfo get(final Class<?> c) {
+      SoftReference<TestClassInfo> ref = this.info;
+      TestClassInfo returnValue = ref == null ? null : ref.get();
+      if (returnValue == null) {
+        synchronized (this) {
+          ref = this.info;
+          returnValue = ref == null ? null : ref.get();
+          if (returnValue == null) {
+            returnValue = new TestClassInfo(new TestClass(c));
+            this.info = new SoftReference<TestClassInfo>(returnValue);
+          }
+        }
       }
+      return returnValue;
     }
-    return test;
+
+  }
+
+  private static final class TestClassInfo {
+
+    private final TestClass testClass;
+
+    private final ConcurrentMap<List<Object>, List<Field>> injectableFields;
+
+    private TestClassInfo(final TestClass testClass) {
+      super();
+      this.testClass = testClass;
+      this.injectableFields = new ConcurrentHashMap<List<Object>, List<Field>>();
+    }
+
+  }
+
+  private static final class State {
+
+    private TestClass testClass;
+
+    private Object testInstance;
+
+    private Description description;
+
+    private List<DBManager> managers;
+
+    private DBManager failedManager;
+
   }
 
   public static interface DBManager {
 
+    public Scope getScope(final Phase phase);
+
+    /**
+     * Returns the {@link DBManager}s that must complete each of their
+     * phases before this {@link DBManager} undergoes the same phase,
+     * and that must not undergo the phases that compensate for them
+     * until this {@link DBManager} has.
+     *
+     * <p>Only {@link DBManager}s belonging to the same {@link DBRule}
+     * are considered.  A return value of {@code null} means that this
+     * {@link DBManager} depends on all of the {@link DBManager}s that
+     * precede it in its {@link DBRule}.  Dependencies are only
+     * significant when a {@link DBRule} has a {@linkplain
+     * DBRule#setPhaseExecutor(Executor) phase executor}.</p>
+     *
+     * @return a {@link Collection} of {@link DBManager}s, or {@code
+     * null}
+     */
+    public Collection<? extends DBManager> getDependencies();
+
     public void setDescription(final Description description);
 
     public void setTestInstance(final Object testInstance);
@@ -503,8 +1699,63 @@ public class DBRule implements TestRule {
 
     private Object testInstance;
 
+    private final Map<Phase, Scope> scopes;
+
+    private Collection<? extends DBManager> dependencies;
+
     public AbstractDBManager() {
       super();
+      this.scopes = new EnumMap<Phase, Scope>(Phase.class);
+    }
+
+    @Override
+    public Collection<? extends DBManager> getDependencies() {
+      return this.dependencies;
+    }
+
+    /**
+     * Sets the {@link DBManager}s on which this {@link
+     * AbstractDBManager} depends.
+     *
+     * @param dependencies the {@link DBManager}s in question; may be
+     * {@code null} in which case this {@link AbstractDBManager} will
+     * depend on all {@link DBManager}s that precede it in its {@link
+     * DBRule}
+     *
+     * @see DBManager#getDependencies()
+     */
+    public void setDependencies(final Collection<? extends DBManager> dependencies) {
+      if (dependencies == null) {
+        this.dependencies = null;
+      } else {
+        this.dependencies = Collections.unmodifiableList(new ArrayList<DBManager>(dependencies));
+      }
+    }
+
+    @Override
+    public Scope getScope(final Phase phase) {
+      Scope scope = this.scopes.get(phase);
+      if (scope == null) {
+        scope = Scope.METHOD;
+      }
+      return scope;
+    }
+
+    public void setScope(final Phase phase, final Scope scope) {
+      if (phase == null) {
+        throw new IllegalArgumentException("phase", new NullPointerException("phase == null"));
+      }
+      if (scope == null) {
+        this.scopes.remove(phase);
+      } else {
+        this.scopes.put(phase, scope);
+      }
+    }
+
+    public void setScope(final Scope scope) {
+      for (final Phase phase : Phase.values()) {
+        this.setScope(phase, scope);
+      }
     }
 
     public Description getDescription() {
@@ -622,6 +1873,12 @@ public class DBRule implements TestRule {
 
     private Connection connection;
 
+    private boolean rollbackIsolation;
+
+    private transient Savepoint savepoint;
+
+    private transient boolean autoCommit;
+
     public SingleDBManager(final ConnectionDescriptor cd) {
       super();
       if (cd == null) {
@@ -638,6 +1895,49 @@ public class DBRule implements TestRule {
       return this.connection;
     }
 
+    /**
+     * Returns {@code true} if this {@link SingleDBManager} isolates
+     * tests from one another by rolling back whatever they did to its
+     * {@linkplain #getAllocatedConnection() allocated
+     * <tt>Connection</tt>}.
+     *
+     * @return {@code true} if rollback isolation is enabled; {@code
+     * false} otherwise
+     *
+     * @see #setRollbackIsolation(boolean)
+     */
+    public boolean isRollbackIsolation() {
+      return this.rollbackIsolation;
+    }
+
+    /**
+     * Sets whether this {@link SingleDBManager} isolates tests from
+     * one another by rolling back whatever they did to its
+     * {@linkplain #getAllocatedConnection() allocated
+     * <tt>Connection</tt>}.
+     *
+     * <p>When rollback isolation is enabled, {@link #inject()}&mdash;which
+     * runs after every {@link DBManager} has been {@linkplain
+     * #initialize() initialized}&mdash;turns off auto-commit on the
+     * allocated {@link Connection} and sets a {@link Savepoint}.
+     * {@link #reset()} then rolls back to that {@link Savepoint} and
+     * restores the {@link Connection}'s auto-commit mode, so undoing a
+     * test's changes costs a single rollback instead of rewriting
+     * every seeded table.  If {@link #reset()} is {@linkplain
+     * DBRule.Scope#CLASS class-scoped}, the rollback happens instead
+     * at the next {@link #inject()} or at {@link #disconnect()}.</p>
+     *
+     * <p>Only changes made through the allocated {@link Connection}
+     * are rolled back.  Tests that commit, or that issue statements
+     * (such as DDL) that the database commits implicitly, will defeat
+     * this isolation.</p>
+     *
+     * @param rollbackIsolation whether rollback isolation is enabled
+     */
+    public void setRollbackIsolation(final boolean rollbackIsolation) {
+      this.rollbackIsolation = rollbackIsolation;
+    }
+
     @Override
     public void connect() throws Exception {
       Connection c = this.getAllocatedConnection();
@@ -649,126 +1949,119 @@ public class DBRule implements TestRule {
 
     @Override
     public void inject() throws Exception {
-      final Object testInstance = this.getTestInstance();
-      if (testInstance != null) {
-        final TestClass testClass = DBRule.getTestClass(this.getDescription());
-        assertNotNull(testClass);
-        
-        final List<FrameworkField> annotatedFields = testClass.getAnnotatedFields(DBConnection.class);
-        assertNotNull(annotatedFields);
-        
-        if (!annotatedFields.isEmpty()) {
-          final ConnectionDescriptor cd = this.getConnectionDescriptor();
-          if (cd != null) {
-            final Connection connection = this.getAllocatedConnection();
-            final String cdCatalog = cd.getCatalog();
-            final String cdSchema = cd.getSchema();
-            final String cdUrl = cd.getConnectionURL();
-            for (final FrameworkField ff : annotatedFields) {
-              if (ff != null) {
-                final Field f = ff.getField();
-                if (f != null && Connection.class.isAssignableFrom(f.getType())) {
-                  final DBConnection dbConnection = f.getAnnotation(DBConnection.class);
-                  assertNotNull(dbConnection);
-                  final String catalog = dbConnection.catalog();
-                  final String schema = dbConnection.schema();
-                  final String url = dbConnection.url();
-
-                  boolean inject = false;
-                  if (url == null || url.isEmpty()) {
-                    if (catalog == null || catalog.isEmpty()) {
-                      if (schema == null || schema.isEmpty() || schema.equals(cdSchema)) {
-                        // Just this schema, please
-                        inject = true;
-                      }
-                    } else if (catalog.equals(cdCatalog)) {
-                      if (schema == null || schema.isEmpty() || schema.equals(cdSchema)) {
-                        inject = true;
-                      }
-                    }
-                  } else if (url.equals(cdUrl)) {
-                    inject = true;
-                  }
+      this.rollback();
+      if (this.isRollbackIsolation()) {
+        final Connection c = this.getAllocatedConnection();
+        if (!isClosed(c)) {
+          this.autoCommit = c.getAutoCommit();
+          if (this.autoCommit) {
+            c.setAutoCommit(false);
+          }
+          this.savepoint = c.setSavepoint();
+        }
+      }
+      this.inject(this.getAllocatedConnection());
+    }
 
-                  if (inject) {
-                    final boolean accessible = f.isAccessible();
-                    f.setAccessible(true);
-                    try {
-                      f.set(testInstance, connection);
-                    } finally {
-                      f.setAccessible(accessible);
-                    }
-                  }
+    @Override
+    public void disconnect() throws Exception {
+      this.inject(null);
+      this.rollback();
+      Connection c = this.getAllocatedConnection();
+      if (!isClosed(c)) {
+        c.close();
+      }
+    }
 
-                }
-              }
+    @Override
+    public void reset() throws Exception {
+      super.reset();
+      this.rollback();
+    }
+
+    /**
+     * Returns {@code true} if the {@link Connection} this {@link
+     * SingleDBManager} allocates should be injected into a field or
+     * parameter annotated with the supplied {@link DBConnection}
+     * annotation.
+     *
+     * <p>A {@link DBConnection} that names a {@linkplain
+     * DBConnection#url() URL} matches only a {@link SingleDBManager}
+     * whose {@link ConnectionDescriptor} has that URL.  Otherwise its
+     * {@linkplain DBConnection#catalog() catalog} and {@linkplain
+     * DBConnection#schema() schema}, where supplied, must match those
+     * of the {@link ConnectionDescriptor}.</p>
+     *
+     * @param dbConnection the {@link DBConnection} in question; may
+     * be {@code null} in which case it is treated as though all of
+     * its elements had their default values
+     *
+     * @return {@code true} if the supplied {@link DBConnection}
+     * designates this {@link SingleDBManager}'s {@link Connection};
+     * {@code false} otherwise
+     */
+    public boolean isTargetOf(final DBConnection dbConnection) {
+      boolean returnValue = false;
+      final ConnectionDescriptor cd = this.getConnectionDescriptor();
+      if (cd != null) {
+        final String catalog = dbConnection == null ? null : dbConnection.catalog();
+        final String schema = dbConnection == null ? null : dbConnection.schema();
+        final String url = dbConnection == null ? null : dbConnection.url();
+        final String cdSchema = cd.getSchema();
+        if (url == null || url.isEmpty()) {
+          if (catalog == null || catalog.isEmpty()) {
+            if (schema == null || schema.isEmpty() || schema.equals(cdSchema)) {
+              // Just this schema, please
+              returnValue = true;
+            }
+          } else if (catalog.equals(cd.getCatalog())) {
+            if (schema == null || schema.isEmpty() || schema.equals(cdSchema)) {
+              returnValue = true;
             }
           }
+        } else if (url.equals(cd.getConnectionURL())) {
+          returnValue = true;
         }
       }
+      return returnValue;
     }
 
-    @Override
-    public void disconnect() throws Exception {
+    private final void inject(final Connection connection) throws IllegalAccessException {
       final Object testInstance = this.getTestInstance();
       if (testInstance != null) {
         final TestClass testClass = DBRule.getTestClass(this.getDescription());
         assertNotNull(testClass);
-        
-        final List<FrameworkField> annotatedFields = testClass.getAnnotatedFields(DBConnection.class);
-        assertNotNull(annotatedFields);
-        
-        if (!annotatedFields.isEmpty()) {
-          final ConnectionDescriptor cd = this.getConnectionDescriptor();
-          if (cd != null) {
-            final String cdCatalog = cd.getCatalog();
-            final String cdSchema = cd.getSchema();
-            final String cdUrl = cd.getConnectionURL();
-            for (final FrameworkField ff : annotatedFields) {
-              if (ff != null) {
-                final Field f = ff.getField();
-                if (f != null && Connection.class.isAssignableFrom(f.getType())) {
-                  final DBConnection dbConnection = f.getAnnotation(DBConnection.class);
-                  assertNotNull(dbConnection);
-                  final String catalog = dbConnection.catalog();
-                  final String schema = dbConnection.schema();
-                  final String url = dbConnection.url();
-
-                  boolean inject = false;
-                  if (url == null || url.isEmpty()) {
-                    if (catalog == null || catalog.isEmpty()) {
-                      if (schema == null || schema.isEmpty() || schema.equals(cdSchema)) {
-                        // Just this schema, please
-                        inject = true;
-                      }
-                    } else if (catalog.equals(cdCatalog)) {
-                      if (schema == null || schema.isEmpty() || schema.equals(cdSchema)) {
-                        inject = true;
-                      }
-                    }
-                  } else if (url.equals(cdUrl)) {
-                    inject = true;
-                  }
-
-                  if (inject) {
-                    final boolean accessible = f.isAccessible();
-                    f.setAccessible(true);
-                    try {
-                      f.set(testInstance, null);
-                    } finally {
-                      f.setAccessible(accessible);
-                    }
-                  }
-
-                }
+        final ConnectionDescriptor cd = this.getConnectionDescriptor();
+        if (cd != null) {
+          final List<Field> fields = getInjectableFields(testClass, DBConnection.class, Connection.class, Arrays.asList(cd.getCatalog(), cd.getSchema(), cd.getConnectionURL()), new FieldFilter() {
+              @Override
+              public final boolean accept(final Field f) {
+                final DBConnection dbConnection = f.getAnnotation(DBConnection.class);
+                assertNotNull(dbConnection);
+                return isTargetOf(dbConnection);
               }
-            }
+            });
+          for (final Field f : fields) {
+            f.set(testInstance, connection);
           }
         }
       }
-      Connection c = this.getAllocatedConnection();
-      if (!isClosed(c)) {
-        c.close();
+    }
+
+    private final void rollback() throws SQLException {
+      final Savepoint savepoint = this.savepoint;
+      if (savepoint != null) {
+        this.savepoint = null;
+        final Connection c = this.getAllocatedConnection();
+        if (!isClosed(c)) {
+          try {
+            c.rollback(savepoint);
+          } finally {
+            if (this.autoCommit) {
+              c.setAutoCommit(true);
+            }
+          }
+        }
       }
     }
 
@@ -0,0 +1,113 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link PhaseTimingRegistry} that writes its summary to a file
+ * when the JVM exits.
+ *
+ * <p>If the file's name ends with <tt>.json</tt> the summary is
+ * {@linkplain #writeJson(Appendable) written as JSON}; otherwise it
+ * is {@linkplain #writeCsv(Appendable) written as comma-separated
+ * values}.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DBRule#TIMINGS_FILE
+ */
+public class FilePhaseTimingListener extends PhaseTimingRegistry {
+
+  private final File file;
+
+  /**
+   * Creates a new {@link FilePhaseTimingListener} and arranges for it
+   * to {@linkplain #write() write} its summary when the JVM exits.
+   *
+   * @param file the {@link File} to write to; must not be {@code
+   * null}
+   *
+   * @exception IllegalArgumentException if {@code file} is {@code
+   * null}
+   */
+  public FilePhaseTimingListener(final File file) {
+    super();
+    if (file == null) {
+      throw new IllegalArgumentException("file", new NullPointerException("file == null"));
+    }
+    this.file = file;
+    Runtime.getRuntime().addShutdownHook(new Thread(this.getClass().getName()) {
+        @Override
+        public final void run() {
+          try {
+            write();
+          } catch (final IOException ohWell) {
+            Logger.getLogger(FilePhaseTimingListener.class.getName()).logp(Level.WARNING, FilePhaseTimingListener.class.getName(), "run", "Could not write timings to " + file, ohWell);
+          }
+        }
+      });
+  }
+
+  public File getFile() {
+    return this.file;
+  }
+
+  /**
+   * Writes the summary of all timings recorded so far to the {@link
+   * File} supplied at construction time, replacing its contents.
+   *
+   * @exception IOException if an error occurs while writing
+   */
+  public void write() throws IOException {
+    final File parent = this.file.getAbsoluteFile().getParentFile();
+    if (parent != null) {
+      parent.mkdirs();
+    }
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file), "UTF-8"));
+    try {
+      if (this.file.getName().endsWith(".json")) {
+        this.writeJson(writer);
+      } else {
+        this.writeCsv(writer);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.runner.Description;
+
+/**
+ * A {@link PhaseTimingListener} that logs every timing it receives to
+ * a {@link Logger} named after this class.
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+public class LoggingPhaseTimingListener implements PhaseTimingListener {
+
+  private final Logger logger;
+
+  private final Level level;
+
+  /**
+   * Creates a new {@link LoggingPhaseTimingListener} that logs at
+   * {@link Level#FINE}.
+   */
+  public LoggingPhaseTimingListener() {
+    this(Level.FINE);
+  }
+
+  /**
+   * Creates a new {@link LoggingPhaseTimingListener}.
+   *
+   * @param level the {@link Level} at which to log; if {@code null},
+   * {@link Level#FINE} will be used instead
+   */
+  public LoggingPhaseTimingListener(final Level level) {
+    super();
+    this.logger = Logger.getLogger(this.getClass().getName());
+    if (level == null) {
+      this.level = Level.FINE;
+    } else {
+      this.level = level;
+    }
+  }
+
+  @Override
+  public void phaseCompleted(final DBRule.DBManager manager, final String phase, final Description description, final long nanos, final Throwable failure) {
+    if (this.logger.isLoggable(this.level)) {
+      if (failure == null) {
+        this.logger.logp(this.level, this.getClass().getName(), "phaseCompleted", "{0}.{1} took {2} ns ({3})", new Object[] { manager, phase, Long.valueOf(nanos), description });
+      } else {
+        this.logger.logp(this.level, this.getClass().getName(), "phaseCompleted", String.format("%s.%s failed after %d ns (%s)", manager, phase, nanos, description), failure);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,208 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+/**
+ * A compact histogram of nanosecond timings in the spirit of <a
+ * href="http://hdrhistogram.github.io/HdrHistogram/">HdrHistogram</a>.
+ *
+ * <p>Values are counted in buckets whose width grows with the
+ * magnitude of the values they hold, so that any value, however
+ * large, is recorded with a relative error of less than 1/64th
+ * (about 1.6%) in constant space and time.</p>
+ *
+ * <p>Instances of this class are safe for use by multiple
+ * threads.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see PhaseTimingRegistry
+ */
+public class PhaseTimingHistogram {
+
+  /**
+   * The number of linearly-spaced buckets per power of two.
+   */
+  private static final int SUB_BUCKET_COUNT = 64;
+
+  /**
+   * The number of bits needed to index a sub-bucket.
+   */
+  private static final int SUB_BUCKET_BITS = 6;
+
+  private final long[] counts;
+
+  private long count;
+
+  private long failureCount;
+
+  private long totalNanos;
+
+  private long minNanos;
+
+  private long maxNanos;
+
+  public PhaseTimingHistogram() {
+    super();
+    this.counts = new long[2 * SUB_BUCKET_COUNT + (Long.SIZE - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT];
+    this.minNanos = Long.MAX_VALUE;
+  }
+
+  /**
+   * Records a timing.
+   *
+   * @param nanos the timing in nanoseconds; negative values are
+   * treated as {@code 0}
+   *
+   * @param failed whether the timed operation failed
+   */
+  public synchronized void record(long nanos, final boolean failed) {
+    if (nanos < 0L) {
+      nanos = 0L;
+    }
+    this.counts[indexOf(nanos)]++;
+    this.count++;
+    if (failed) {
+      this.failureCount++;
+    }
+    this.totalNanos += nanos;
+    if (nanos < this.minNanos) {
+      this.minNanos = nanos;
+    }
+    if (nanos > this.maxNanos) {
+      this.maxNanos = nanos;
+    }
+  }
+
+  public synchronized long getCount() {
+    return this.count;
+  }
+
+  public synchronized long getFailureCount() {
+    return this.failureCount;
+  }
+
+  public synchronized long getTotalNanos() {
+    return this.totalNanos;
+  }
+
+  public synchronized long getMinNanos() {
+    final long returnValue;
+    if (this.count == 0L) {
+      returnValue = 0L;
+    } else {
+      returnValue = this.minNanos;
+    }
+    return returnValue;
+  }
+
+  public synchronized long getMaxNanos() {
+    return this.maxNanos;
+  }
+
+  public synchronized double getMeanNanos() {
+    final double returnValue;
+    if (this.count == 0L) {
+      returnValue = 0.0D;
+    } else {
+      returnValue = (double)this.totalNanos / (double)this.count;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the smallest recorded value that is greater than or equal
+   * to the supplied percentage of all recorded values, to within the
+   * precision of this {@link PhaseTimingHistogram}.
+   *
+   * @param percentile a number between {@code 0.0} and {@code 100.0}
+   *
+   * @return the value at the supplied percentile, or {@code 0} if no
+   * values have been recorded
+   *
+   * @exception IllegalArgumentException if {@code percentile} is not
+   * between {@code 0.0} and {@code 100.0}
+   */
+  public synchronized long getValueAtPercentile(final double percentile) {
+    if (percentile < 0.0D || percentile > 100.0D) {
+      throw new IllegalArgumentException("percentile: " + percentile);
+    }
+    long returnValue = 0L;
+    if (this.count > 0L) {
+      final long target = Math.max(1L, (long)Math.ceil(percentile / 100.0D * this.count));
+      long seen = 0L;
+      int i = 0;
+      while (seen < target && i < this.counts.length) {
+        seen += this.counts[i];
+        i++;
+      }
+      returnValue = Math.min(this.maxNanos, Math.max(this.minNanos, highestEquivalentValue(i - 1)));
+    }
+    return returnValue;
+  }
+
+  private static final int indexOf(final long value) {
+    assert value >= 0L;
+    final int index;
+    if (value < 2 * SUB_BUCKET_COUNT) {
+      index = (int)value;
+    } else {
+      final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+      assert shift >= 1;
+      index = 2 * SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_COUNT + (int)((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+    return index;
+  }
+
+  private static final long highestEquivalentValue(final int index) {
+    final long value;
+    if (index < 2 * SUB_BUCKET_COUNT) {
+      value = index;
+    } else {
+      final int shift = (index - 2 * SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + 1;
+      final long subBucket = (index - 2 * SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+      value = ((subBucket + 1L) << shift) - 1L;
+    }
+    return value;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("count=%d, failures=%d, mean=%.0fns, min=%dns, p50=%dns, p90=%dns, p99=%dns, max=%dns",
+                         this.count,
+                         this.failureCount,
+                         this.getMeanNanos(),
+                         this.getMinNanos(),
+                         this.getValueAtPercentile(50.0D),
+                         this.getValueAtPercentile(90.0D),
+                         this.getValueAtPercentile(99.0D),
+                         this.maxNanos);
+  }
+
+}
@@ -0,0 +1,81 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.util.ServiceLoader; // for javadoc only
+
+import org.junit.runner.Description;
+
+/**
+ * Receives the time taken by each {@link DBRule.DBManager} to
+ * complete each of its phases.
+ *
+ * <p>{@link PhaseTimingListener}s are registered for the whole JVM
+ * with {@link DBRule#addPhaseTimingListener(PhaseTimingListener)}.
+ * Implementations named in a
+ * <tt>META-INF/services/com.edugility.junit.db.PhaseTimingListener</tt>
+ * resource are {@linkplain ServiceLoader loaded} and registered
+ * automatically, as is a {@link FilePhaseTimingListener} if the
+ * {@link DBRule#TIMINGS_FILE} system property is set.</p>
+ *
+ * <p>Implementations must be safe for use by multiple threads and
+ * should return quickly.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see PhaseTimingRegistry
+ *
+ * @see LoggingPhaseTimingListener
+ *
+ * @see FilePhaseTimingListener
+ */
+public interface PhaseTimingListener {
+
+  /**
+   * Called after a {@link DBRule.DBManager} has completed, or failed
+   * to complete, one of its phases.
+   *
+   * @param manager the {@link DBRule.DBManager} in question; never
+   * {@code null}
+   *
+   * @param phase the name of the phase, which is also the name of the
+   * {@link DBRule.DBManager} method that implements it, such as
+   * <tt>connect</tt> or <tt>reset</tt>; never {@code null}
+   *
+   * @param description the {@link Description} of the test or test
+   * class in effect; may be {@code null}
+   *
+   * @param nanos the time taken, in nanoseconds
+   *
+   * @param failure the {@link Throwable} the phase failed with, or
+   * {@code null} if it succeeded
+   */
+  public void phaseCompleted(final DBRule.DBManager manager, final String phase, final Description description, final long nanos, final Throwable failure);
+
+}
@@ -0,0 +1,237 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.runner.Description;
+
+/**
+ * A {@link PhaseTimingListener} that aggregates timings in memory,
+ * by {@link DBRule.DBManager} class and phase, into {@link
+ * PhaseTimingHistogram}s that can be queried at any time.
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+public class PhaseTimingRegistry implements PhaseTimingListener {
+
+  private final ConcurrentMap<List<String>, PhaseTimingHistogram> histograms;
+
+  public PhaseTimingRegistry() {
+    super();
+    this.histograms = new ConcurrentHashMap<List<String>, PhaseTimingHistogram>();
+  }
+
+  @Override
+  public void phaseCompleted(final DBRule.DBManager manager, final String phase, final Description description, final long nanos, final Throwable failure) {
+    if (manager != null && phase != null) {
+      final List<String> key = Arrays.asList(manager.getClass().getName(), phase);
+      PhaseTimingHistogram histogram = this.histograms.get(key);
+      if (histogram == null) {
+        final PhaseTimingHistogram newHistogram = new PhaseTimingHistogram();
+        histogram = this.histograms.putIfAbsent(key, newHistogram);
+        if (histogram == null) {
+          histogram = newHistogram;
+        }
+      }
+      histogram.record(nanos, failure != null);
+    }
+  }
+
+  /**
+   * Returns the {@link PhaseTimingHistogram} for the supplied {@link
+   * DBRule.DBManager} class and phase, or {@code null} if no timings
+   * have been recorded for them.
+   *
+   * @param managerClass the {@link DBRule.DBManager} class; may be
+   * {@code null}
+   *
+   * @param phase the phase name, such as <tt>connect</tt>; may be
+   * {@code null}
+   *
+   * @return a {@link PhaseTimingHistogram}, or {@code null}
+   */
+  public PhaseTimingHistogram getHistogram(final Class<?> managerClass, final String phase) {
+    PhaseTimingHistogram histogram = null;
+    if (managerClass != null && phase != null) {
+      histogram = this.histograms.get(Arrays.asList(managerClass.getName(), phase));
+    }
+    return histogram;
+  }
+
+  /**
+   * Returns a {@link List} of the keys under which timings have been
+   * recorded, each a two-element {@link List} of a {@link
+   * DBRule.DBManager} class name and a phase name, in descending order
+   * of total time spent.  This method never returns {@code null}.
+   *
+   * @return a non-{@code null} {@link List} of keys
+   */
+  public List<List<String>> getKeys() {
+    // Histograms keep recording while this method runs, so their
+    // totals are read once up front; sorting on live values could
+    // violate the Comparator contract.
+    final List<Total> totals = new ArrayList<Total>(this.histograms.size());
+    for (final Map.Entry<List<String>, PhaseTimingHistogram> entry : this.histograms.entrySet()) {
+      totals.add(new Total(entry.getKey(), entry.getValue().getTotalNanos()));
+    }
+    Collections.sort(totals);
+    final List<List<String>> keys = new ArrayList<List<String>>(totals.size());
+    for (final Total total : totals) {
+      keys.add(total.key);
+    }
+    return keys;
+  }
+
+  /**
+   * Discards all recorded timings.
+   */
+  public void clear() {
+    this.histograms.clear();
+  }
+
+  /**
+   * Writes a summary of all recorded timings, one line per {@link
+   * DBRule.DBManager} class and phase, as comma-separated values with
+   * a header line.
+   *
+   * @param out the {@link Appendable} to write to; must not be {@code
+   * null}
+   *
+   * @exception IOException if an error occurs while writing
+   */
+  public void writeCsv(final Appendable out) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("out", new NullPointerException("out == null"));
+    }
+    out.append(String.format("manager,phase,count,failures,totalNanos,meanNanos,minNanos,p50Nanos,p90Nanos,p99Nanos,maxNanos%n"));
+    for (final List<String> key : this.getKeys()) {
+      final PhaseTimingHistogram h = this.histograms.get(key);
+      if (h != null) {
+        out.append(String.format("%s,%s,%d,%d,%d,%.0f,%d,%d,%d,%d,%d%n",
+                                 key.get(0),
+                                 key.get(1),
+                                 h.getCount(),
+                                 h.getFailureCount(),
+                                 h.getTotalNanos(),
+                                 h.getMeanNanos(),
+                                 h.getMinNanos(),
+                                 h.getValueAtPercentile(50.0D),
+                                 h.getValueAtPercentile(90.0D),
+                                 h.getValueAtPercentile(99.0D),
+                                 h.getMaxNanos()));
+      }
+    }
+  }
+
+  /**
+   * Writes a summary of all recorded timings as a JSON array with one
+   * object per {@link DBRule.DBManager} class and phase.
+   *
+   * @param out the {@link Appendable} to write to; must not be {@code
+   * null}
+   *
+   * @exception IOException if an error occurs while writing
+   */
+  public void writeJson(final Appendable out) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("out", new NullPointerException("out == null"));
+    }
+    out.append("[");
+    boolean first = true;
+    for (final List<String> key : this.getKeys()) {
+      final PhaseTimingHistogram h = this.histograms.get(key);
+      if (h != null) {
+        if (!first) {
+          out.append(",");
+        }
+        first = false;
+        out.append(String.format("%n  {\"manager\": \"%s\", \"phase\": \"%s\", \"count\": %d, \"failures\": %d, \"totalNanos\": %d, \"meanNanos\": %.0f, \"minNanos\": %d, \"p50Nanos\": %d, \"p90Nanos\": %d, \"p99Nanos\": %d, \"maxNanos\": %d}",
+                                 key.get(0),
+                                 key.get(1),
+                                 h.getCount(),
+                                 h.getFailureCount(),
+                                 h.getTotalNanos(),
+                                 h.getMeanNanos(),
+                                 h.getMinNanos(),
+                                 h.getValueAtPercentile(50.0D),
+                                 h.getValueAtPercentile(90.0D),
+                                 h.getValueAtPercentile(99.0D),
+                                 h.getMaxNanos()));
+      }
+    }
+    out.append(String.format("%n]%n"));
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    for (final List<String> key : this.getKeys()) {
+      final PhaseTimingHistogram h = this.histograms.get(key);
+      if (h != null) {
+        sb.append(String.format("%s.%s: %s%n", key.get(0), key.get(1), h));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A key paired with the total time recorded under it at a single
+   * moment, ordered by descending total.
+   */
+  private static final class Total implements Comparable<Total> {
+
+    private final List<String> key;
+
+    private final long nanos;
+
+    private Total(final List<String> key, final long nanos) {
+      super();
+      assert key != null;
+      this.key = key;
+      this.nanos = nanos;
+    }
+
+    @Override
+    public final int compareTo(final Total other) {
+      return this.nanos < other.nanos ? 1 : (this.nanos == other.nanos ? 0 : -1);
+    }
+
+  }
+
+}
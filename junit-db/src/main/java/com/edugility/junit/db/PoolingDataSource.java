@@ -0,0 +1,642 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.io.PrintWriter;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * A {@link DataSource} that keeps a bounded pool of idle {@link
+ * Connection}s obtained from another {@link DataSource}, so that
+ * tests that repeatedly connect and disconnect do not pay for a
+ * physical connection each time.
+ *
+ * <p>{@link Connection}s handed out by a {@link PoolingDataSource}
+ * are {@linkplain #isValid(Connection) validated} when they are
+ * borrowed.  When they are {@linkplain Connection#close() closed}
+ * any open transaction is rolled back and their auto-commit mode,
+ * transaction isolation level, read-only flag, catalog and (on
+ * runtimes that support it) schema are restored to the values they
+ * had when they were first allocated, and any {@link Statement}s
+ * created through them that are still open are closed; they are then
+ * returned to the pool, or physically closed if the pool already
+ * holds {@linkplain #getMaxIdle() the maximum number of idle
+ * connections}.</p>
+ *
+ * <p>The {@link Statement}s, {@link ResultSet}s and {@link
+ * DatabaseMetaData} obtained from a pooled {@link Connection} are
+ * wrapped so that their {@code getConnection()} methods return that
+ * {@link Connection} rather than the physical one beneath it.</p>
+ *
+ * <p>A {@link ConnectionDescriptor} can be told to use a {@link
+ * PoolingDataSource} by setting its {@link ConnectionDescriptor#POOLED}
+ * property to {@code true}.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see ConnectionDescriptor#getDataSource()
+ */
+public class PoolingDataSource implements DataSource {
+
+  /**
+   * The default maximum number of idle {@link Connection}s that a
+   * {@link PoolingDataSource} will retain per set of credentials.
+   */
+  public static final int DEFAULT_MAX_IDLE = 4;
+
+  /**
+   * The number of seconds that {@link #isValid(Connection)} will
+   * wait for a {@link Connection} to validate itself.
+   */
+  private static final int VALIDATION_TIMEOUT_IN_SECONDS = 1;
+
+  /**
+   * The {@link Connection#getSchema()} method, or {@code null} if the
+   * runtime does not support it.
+   */
+  private static final Method getSchemaMethod = findConnectionMethod("getSchema");
+
+  /**
+   * The {@link Connection#setSchema(String)} method, or {@code null}
+   * if the runtime does not support it.
+   */
+  private static final Method setSchemaMethod = findConnectionMethod("setSchema", String.class);
+
+  /**
+   * The {@link DataSource} from which physical {@link Connection}s
+   * are obtained.  This field is never {@code null}.
+   */
+  private final DataSource delegate;
+
+  /**
+   * The maximum number of idle {@link Connection}s retained per set
+   * of credentials.
+   */
+  private final int maxIdle;
+
+  /**
+   * Idle {@link Connection}s indexed by the user name and password
+   * used to obtain them.  This field is never {@code null}.
+   */
+  private final ConcurrentMap<List<String>, BlockingDeque<PooledConnection>> pools;
+
+  /**
+   * Creates a new {@link PoolingDataSource} that will retain up to
+   * {@link #DEFAULT_MAX_IDLE} idle {@link Connection}s.
+   *
+   * @param delegate the {@link DataSource} from which physical
+   * {@link Connection}s will be obtained; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code delegate} is {@code
+   * null}
+   */
+  public PoolingDataSource(final DataSource delegate) {
+    this(delegate, DEFAULT_MAX_IDLE);
+  }
+
+  /**
+   * Creates a new {@link PoolingDataSource}.
+   *
+   * @param delegate the {@link DataSource} from which physical
+   * {@link Connection}s will be obtained; must not be {@code null}
+   *
+   * @param maxIdle the maximum number of idle {@link Connection}s to
+   * retain per set of credentials; if less than {@code 0}, {@code 0}
+   * will be used instead, which effectively disables pooling
+   *
+   * @exception IllegalArgumentException if {@code delegate} is {@code
+   * null}
+   */
+  public PoolingDataSource(final DataSource delegate, final int maxIdle) {
+    super();
+    if (delegate == null) {
+      throw new IllegalArgumentException("delegate", new NullPointerException("delegate == null"));
+    }
+    this.delegate = delegate;
+    this.maxIdle = Math.max(0, maxIdle);
+    this.pools = new ConcurrentHashMap<List<String>, BlockingDeque<PooledConnection>>();
+  }
+
+  /**
+   * Returns the {@link DataSource} from which physical {@link
+   * Connection}s are obtained.  This method never returns {@code
+   * null}.
+   *
+   * @return the {@link DataSource} from which physical {@link
+   * Connection}s are obtained; never {@code null}
+   */
+  public DataSource getDelegate() {
+    return this.delegate;
+  }
+
+  /**
+   * Returns the maximum number of idle {@link Connection}s that this
+   * {@link PoolingDataSource} will retain per set of credentials.
+   *
+   * @return the maximum number of idle {@link Connection}s; never
+   * less than {@code 0}
+   */
+  public int getMaxIdle() {
+    return this.maxIdle;
+  }
+
+  /**
+   * Returns a pooled {@link Connection} obtained with no explicit
+   * credentials.
+   *
+   * @return a non-{@code null} {@link Connection}
+   *
+   * @exception SQLException if a {@link Connection} could not be
+   * allocated
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    return this.getConnection(null, null, false);
+  }
+
+  /**
+   * Returns a pooled {@link Connection} obtained with the supplied
+   * credentials.
+   *
+   * @param username the user name; may be {@code null}
+   *
+   * @param password the password; may be {@code null}
+   *
+   * @return a non-{@code null} {@link Connection}
+   *
+   * @exception SQLException if a {@link Connection} could not be
+   * allocated
+   */
+  @Override
+  public Connection getConnection(final String username, final String password) throws SQLException {
+    return this.getConnection(username, password, true);
+  }
+
+  private final Connection getConnection(final String username, final String password, final boolean useCredentials) throws SQLException {
+    final List<String> key;
+    if (useCredentials) {
+      key = Arrays.asList(username, password);
+    } else {
+      key = Collections.emptyList();
+    }
+    BlockingDeque<PooledConnection> pool = this.pools.get(key);
+    if (pool == null) {
+      final BlockingDeque<PooledConnection> newPool = new LinkedBlockingDeque<PooledConnection>();
+      pool = this.pools.putIfAbsent(key, newPool);
+      if (pool == null) {
+        pool = newPool;
+      }
+    }
+    PooledConnection pooledConnection = pool.pollFirst();
+    while (pooledConnection != null && !this.isValid(pooledConnection.physicalConnection)) {
+      pooledConnection.closePhysicalConnection();
+      pooledConnection = pool.pollFirst();
+    }
+    if (pooledConnection == null) {
+      final Connection physicalConnection;
+      if (useCredentials) {
+        physicalConnection = this.delegate.getConnection(username, password);
+      } else {
+        physicalConnection = this.delegate.getConnection();
+      }
+      if (physicalConnection == null) {
+        throw new SQLException("getDelegate().getConnection() == null");
+      }
+      pooledConnection = new PooledConnection(pool, physicalConnection);
+    }
+    return pooledConnection.borrow();
+  }
+
+  /**
+   * Returns {@code true} if the supplied idle {@link Connection} may
+   * be handed out again.
+   *
+   * <p>This implementation returns the result of calling {@link
+   * Connection#isValid(int)}, treating any {@link SQLException} as a
+   * sign that the {@link Connection} is not valid.</p>
+   *
+   * @param connection the {@link Connection} to validate; may be
+   * {@code null} in which case {@code false} will be returned
+   *
+   * @return {@code true} if the supplied {@link Connection} is
+   * usable; {@code false} otherwise
+   */
+  protected boolean isValid(final Connection connection) {
+    boolean valid = false;
+    if (connection != null) {
+      try {
+        valid = !connection.isClosed() && connection.isValid(VALIDATION_TIMEOUT_IN_SECONDS);
+      } catch (final SQLException invalid) {
+        valid = false;
+      }
+    }
+    return valid;
+  }
+
+  /**
+   * Physically closes all idle {@link Connection}s held by this
+   * {@link PoolingDataSource}.  {@link Connection}s that are
+   * currently borrowed will be returned to the pool as usual when
+   * they are closed.
+   */
+  public void close() {
+    for (final BlockingDeque<PooledConnection> pool : this.pools.values()) {
+      if (pool != null) {
+        PooledConnection pooledConnection = pool.pollFirst();
+        while (pooledConnection != null) {
+          pooledConnection.closePhysicalConnection();
+          pooledConnection = pool.pollFirst();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the return value of invoking the {@link
+   * DataSource#getLoginTimeout()} method on the {@linkplain
+   * #getDelegate() delegate <tt>DataSource</tt>}.
+   *
+   * @return the login timeout
+   *
+   * @exception SQLException if the delegate throws one
+   */
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return this.delegate.getLoginTimeout();
+  }
+
+  /**
+   * Invokes the {@link DataSource#setLoginTimeout(int)} method on the
+   * {@linkplain #getDelegate() delegate <tt>DataSource</tt>}.
+   *
+   * @param timeout the login timeout
+   *
+   * @exception SQLException if the delegate throws one
+   */
+  @Override
+  public void setLoginTimeout(final int timeout) throws SQLException {
+    this.delegate.setLoginTimeout(timeout);
+  }
+
+  /**
+   * Returns the return value of invoking the {@link
+   * DataSource#getLogWriter()} method on the {@linkplain
+   * #getDelegate() delegate <tt>DataSource</tt>}.
+   *
+   * @return the log writer, or {@code null}
+   *
+   * @exception SQLException if the delegate throws one
+   */
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return this.delegate.getLogWriter();
+  }
+
+  /**
+   * Invokes the {@link DataSource#setLogWriter(PrintWriter)} method
+   * on the {@linkplain #getDelegate() delegate <tt>DataSource</tt>}.
+   *
+   * @param writer the log writer; may be {@code null}
+   *
+   * @exception SQLException if the delegate throws one
+   */
+  @Override
+  public void setLogWriter(final PrintWriter writer) throws SQLException {
+    this.delegate.setLogWriter(writer);
+  }
+
+  /**
+   * Throws a new {@link SQLFeatureNotSupportedException} if invoked.
+   *
+   * @return nothing
+   *
+   * @exception SQLFeatureNotSupportedException if invoked
+   */
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException("getParentLogger");
+  }
+
+  /**
+   * Returns {@code true} if this {@link PoolingDataSource} is an
+   * instance of the supplied {@link Class}.
+   *
+   * @param cls the {@link Class} in question; may be {@code null}
+   *
+   * @return {@code true} if this {@link PoolingDataSource} is an
+   * instance of the supplied {@link Class}; {@code false} otherwise
+   */
+  @Override
+  public boolean isWrapperFor(final Class<?> cls) {
+    return cls != null && cls.isInstance(this);
+  }
+
+  /**
+   * Returns this {@link PoolingDataSource} cast to the supplied
+   * {@link Class}.
+   *
+   * @param cls the {@link Class} in question; must not be {@code
+   * null}
+   *
+   * @return this {@link PoolingDataSource}
+   *
+   * @exception SQLException if this {@link PoolingDataSource} is not
+   * an instance of the supplied {@link Class}
+   */
+  @Override
+  public <T> T unwrap(final Class<T> cls) throws SQLException {
+    if (!this.isWrapperFor(cls)) {
+      throw new SQLException("Not a wrapper for " + cls);
+    }
+    return cls.cast(this);
+  }
+
+  private static final Method findConnectionMethod(final String name, final Class<?>... parameterTypes) {
+    Method method = null;
+    try {
+      method = Connection.class.getMethod(name, parameterTypes);
+    } catch (final NoSuchMethodException unsupported) {
+      method = null;
+    }
+    return method;
+  }
+
+  /**
+   * A physical {@link Connection} together with the state it had when
+   * it was allocated and the pool it belongs to.
+   */
+  private final class PooledConnection implements InvocationHandler {
+
+    private final BlockingDeque<PooledConnection> pool;
+
+    private final Connection physicalConnection;
+
+    private final boolean autoCommit;
+
+    private final int transactionIsolation;
+
+    private final boolean readOnly;
+
+    private final String catalog;
+
+    private final Object schema;
+
+    /**
+     * The physical {@link Statement}s created through the current
+     * logical {@link Connection} that have not yet been closed.
+     */
+    private final Set<Statement> openStatements;
+
+    private volatile Connection logicalConnection;
+
+    private PooledConnection(final BlockingDeque<PooledConnection> pool, final Connection physicalConnection) throws SQLException {
+      super();
+      assert pool != null;
+      assert physicalConnection != null;
+      this.pool = pool;
+      this.physicalConnection = physicalConnection;
+      this.autoCommit = physicalConnection.getAutoCommit();
+      this.transactionIsolation = physicalConnection.getTransactionIsolation();
+      this.readOnly = physicalConnection.isReadOnly();
+      this.catalog = physicalConnection.getCatalog();
+      this.schema = invokeIfSupported(getSchemaMethod, physicalConnection);
+      this.openStatements = Collections.newSetFromMap(new ConcurrentHashMap<Statement, Boolean>());
+    }
+
+    private final Connection borrow() {
+      final Connection logicalConnection = (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, this);
+      this.logicalConnection = logicalConnection;
+      return logicalConnection;
+    }
+
+    @Override
+    public final Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+      final String name = method.getName();
+      final Object returnValue;
+      if ("equals".equals(name) && args != null && args.length == 1) {
+        returnValue = Boolean.valueOf(proxy == args[0]);
+      } else if ("hashCode".equals(name) && (args == null || args.length == 0)) {
+        returnValue = Integer.valueOf(System.identityHashCode(proxy));
+      } else if ("toString".equals(name) && (args == null || args.length == 0)) {
+        returnValue = "Pooled " + this.physicalConnection;
+      } else if ("isClosed".equals(name) && (args == null || args.length == 0)) {
+        returnValue = Boolean.valueOf(this.logicalConnection != proxy || this.physicalConnection.isClosed());
+      } else if ("close".equals(name) && (args == null || args.length == 0)) {
+        if (this.logicalConnection == proxy) {
+          this.logicalConnection = null;
+          this.release();
+        }
+        returnValue = null;
+      } else if (this.logicalConnection != proxy) {
+        throw new SQLException("Connection is closed");
+      } else if ("unwrap".equals(name) && args != null && args.length == 1 && args[0] instanceof Class && ((Class<?>)args[0]).isInstance(this.physicalConnection)) {
+        returnValue = this.physicalConnection;
+      } else {
+        try {
+          returnValue = this.wrap(method.getReturnType(), method.invoke(this.physicalConnection, args), (Connection)proxy, null);
+        } catch (final InvocationTargetException wrapper) {
+          throw wrapper.getCause();
+        }
+      }
+      return returnValue;
+    }
+
+    /**
+     * Wraps the supplied {@link Statement}, {@link ResultSet} or
+     * {@link DatabaseMetaData} so that it refers back to the supplied
+     * logical {@link Connection}, and starts tracking it if it is a
+     * {@link Statement}; any other object is returned unchanged.
+     */
+    private final Object wrap(final Class<?> type, final Object object, final Connection logicalConnection, final Object parent) {
+      assert type != null;
+      Object returnValue = object;
+      if (object != null && type.isInterface() && (object instanceof Statement || object instanceof ResultSet || object instanceof DatabaseMetaData)) {
+        if (object instanceof Statement) {
+          this.openStatements.add((Statement)object);
+        }
+        returnValue = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new PooledObject(object, logicalConnection, parent));
+      }
+      return returnValue;
+    }
+
+    /**
+     * Restores the physical {@link Connection} to its initial state
+     * and returns it to the pool, or closes it if that is not
+     * possible.
+     */
+    private final void release() {
+      boolean pooled = false;
+      try {
+        for (final Statement statement : this.openStatements) {
+          try {
+            statement.close();
+          } catch (final SQLException ignore) {
+            // ignore
+          }
+        }
+        this.openStatements.clear();
+        if (!this.physicalConnection.isClosed()) {
+          if (!this.physicalConnection.getAutoCommit()) {
+            this.physicalConnection.rollback();
+          }
+          if (this.physicalConnection.getAutoCommit() != this.autoCommit) {
+            this.physicalConnection.setAutoCommit(this.autoCommit);
+          }
+          if (this.physicalConnection.getTransactionIsolation() != this.transactionIsolation) {
+            this.physicalConnection.setTransactionIsolation(this.transactionIsolation);
+          }
+          if (this.physicalConnection.isReadOnly() != this.readOnly) {
+            this.physicalConnection.setReadOnly(this.readOnly);
+          }
+          if (this.catalog != null && !this.catalog.equals(this.physicalConnection.getCatalog())) {
+            this.physicalConnection.setCatalog(this.catalog);
+          }
+          if (this.schema != null && !this.schema.equals(invokeIfSupported(getSchemaMethod, this.physicalConnection))) {
+            invokeIfSupported(setSchemaMethod, this.physicalConnection, this.schema);
+          }
+          this.physicalConnection.clearWarnings();
+          pooled = this.pool.size() < maxIdle && this.pool.offerFirst(this);
+        }
+      } catch (final SQLException resetFailed) {
+        pooled = false;
+      } finally {
+        if (!pooled) {
+          this.closePhysicalConnection();
+        }
+      }
+    }
+
+    private final void closePhysicalConnection() {
+      try {
+        this.physicalConnection.close();
+      } catch (final SQLException ignore) {
+        // ignore
+      }
+    }
+
+    private final Object invokeIfSupported(final Method method, final Connection connection, final Object... args) throws SQLException {
+      Object returnValue = null;
+      if (method != null) {
+        try {
+          returnValue = method.invoke(connection, args);
+        } catch (final IllegalAccessException unsupported) {
+          returnValue = null;
+        } catch (final InvocationTargetException wrapper) {
+          final Throwable cause = wrapper.getCause();
+          if (cause instanceof SQLException) {
+            throw (SQLException)cause;
+          }
+          // AbstractMethodError and friends from pre-JDBC 4.1 drivers
+          returnValue = null;
+        }
+      }
+      return returnValue;
+    }
+
+    /**
+     * An {@link InvocationHandler} for a {@link Statement}, {@link
+     * ResultSet} or {@link DatabaseMetaData} obtained through a
+     * logical {@link Connection}.
+     */
+    private final class PooledObject implements InvocationHandler {
+
+      private final Object target;
+
+      private final Connection logicalConnection;
+
+      private final Object parent;
+
+      private PooledObject(final Object target, final Connection logicalConnection, final Object parent) {
+        super();
+        assert target != null;
+        assert logicalConnection != null;
+        this.target = target;
+        this.logicalConnection = logicalConnection;
+        this.parent = parent;
+      }
+
+      @Override
+      public final Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String name = method.getName();
+        final boolean noArgs = args == null || args.length == 0;
+        final Object returnValue;
+        if ("equals".equals(name) && args != null && args.length == 1) {
+          returnValue = Boolean.valueOf(proxy == args[0]);
+        } else if ("hashCode".equals(name) && noArgs) {
+          returnValue = Integer.valueOf(System.identityHashCode(proxy));
+        } else if ("toString".equals(name) && noArgs) {
+          returnValue = "Pooled " + this.target;
+        } else if ("getConnection".equals(name) && noArgs) {
+          returnValue = this.logicalConnection;
+        } else if ("getStatement".equals(name) && noArgs && this.parent != null) {
+          returnValue = this.parent;
+        } else if (PooledConnection.this.logicalConnection != this.logicalConnection && !("close".equals(name) || "isClosed".equals(name))) {
+          throw new SQLException("Connection is closed");
+        } else {
+          if ("close".equals(name) && noArgs) {
+            openStatements.remove(this.target);
+          }
+          try {
+            returnValue = wrap(method.getReturnType(), method.invoke(this.target, args), this.logicalConnection, this.target instanceof Statement ? proxy : null);
+          } catch (final InvocationTargetException wrapper) {
+            throw wrapper.getCause();
+          }
+        }
+        return returnValue;
+      }
+
+    }
+
+  }
+
+}
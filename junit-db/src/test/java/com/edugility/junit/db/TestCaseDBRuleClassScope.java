@@ -0,0 +1,111 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.util.Arrays;
+
+import org.junit.AfterClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestCaseDBRuleClassScope {
+
+  private static final CountingDBManager classScoped = new CountingDBManager(DBRule.Scope.CLASS);
+
+  private static final CountingDBManager methodScoped = new CountingDBManager(DBRule.Scope.METHOD);
+
+  @ClassRule
+  public static final DBRule classRule = new DBRule(Arrays.<DBRule.DBManager>asList(classScoped, methodScoped));
+
+  @Rule
+  public final DBRule rule = classRule;
+
+  public TestCaseDBRuleClassScope() {
+    super();
+  }
+
+  @Test
+  public void testOne() {
+    this.assertCounts();
+  }
+
+  @Test
+  public void testTwo() {
+    this.assertCounts();
+  }
+
+  private final void assertCounts() {
+    assertEquals(1, classScoped.creates);
+    assertEquals(1, classScoped.initializes);
+    assertEquals(0, classScoped.destroys);
+    assertEquals(methodScoped.destroys + 1, methodScoped.creates);
+    assertEquals(methodScoped.creates, methodScoped.initializes);
+  }
+
+  @AfterClass
+  public static void assertClassScopedPhasesRanOnce() {
+    assertEquals(1, classScoped.creates);
+    assertEquals(0, classScoped.destroys);
+    assertEquals(2, methodScoped.creates);
+    assertEquals(2, methodScoped.destroys);
+  }
+
+  private static final class CountingDBManager extends DBRule.AbstractDBManager {
+
+    private int creates;
+
+    private int initializes;
+
+    private int destroys;
+
+    private CountingDBManager(final DBRule.Scope scope) {
+      super();
+      this.setScope(scope);
+    }
+
+    @Override
+    public void create() {
+      this.creates++;
+    }
+
+    @Override
+    public void initialize() {
+      this.initializes++;
+    }
+
+    @Override
+    public void destroy() {
+      this.destroys++;
+    }
+
+  }
+
+}
@@ -0,0 +1,125 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import com.edugility.throwables.ThrowableChain;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.rules.MethodRule;
+
+import org.junit.runner.Description;
+
+import org.junit.runners.model.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCaseDBRuleMethodRule {
+
+  private final InstanceRecordingDBManager manager = new InstanceRecordingDBManager();
+
+  @Rule
+  public final MethodRule rule = new DBRule(this.manager).asMethodRule();
+
+  public TestCaseDBRuleMethodRule() {
+    super();
+  }
+
+  @Test
+  public void testTestInstanceIsSupplied() {
+    assertSame(this, this.manager.testInstance);
+    assertEquals("testTestInstanceIsSupplied", this.manager.methodName);
+  }
+
+  @Test
+  public void testTestRuleFindsTestInstanceByType() throws Throwable {
+    final InstanceRecordingDBManager manager = new InstanceRecordingDBManager();
+    final Description description = Description.createTestDescription(this.getClass(), "x");
+    new DBRule(manager).apply(new HoldingStatement(this), description).evaluate();
+    assertSame(this, manager.testInstance);
+  }
+
+  @Test
+  public void testTestRuleNamesStatementClassWhenTestInstanceIsHidden() throws Throwable {
+    final Description description = Description.createTestDescription(this.getClass(), "x");
+    final Statement statement = new DBRule(new InstanceRecordingDBManager()).apply(new HoldingStatement(null), description);
+    try {
+      statement.evaluate();
+      fail();
+    } catch (final ThrowableChain expected) {
+      IllegalStateException cause = null;
+      for (final Throwable t : expected) {
+        if (t instanceof IllegalStateException) {
+          cause = (IllegalStateException)t;
+        }
+      }
+      assertNotNull(cause);
+      assertTrue(cause.getMessage().contains(HoldingStatement.class.getName()));
+    }
+  }
+
+  private static final class HoldingStatement extends Statement {
+
+    private final Object payload;
+
+    private HoldingStatement(final Object payload) {
+      super();
+      this.payload = payload;
+    }
+
+    @Override
+    public final void evaluate() {
+
+    }
+
+  }
+
+  private static final class InstanceRecordingDBManager extends DBRule.AbstractDBManager {
+
+    private Object testInstance;
+
+    private String methodName;
+
+    private InstanceRecordingDBManager() {
+      super();
+    }
+
+    @Override
+    public void inject() {
+      this.testInstance = this.getTestInstance();
+      this.methodName = this.getDescription().getMethodName();
+    }
+
+  }
+
+}
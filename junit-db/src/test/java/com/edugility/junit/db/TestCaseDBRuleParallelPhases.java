@@ -0,0 +1,120 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseDBRuleParallelPhases {
+
+  private static final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private static final List<String> events = new CopyOnWriteArrayList<String>();
+
+  private final CyclicBarrier barrier = new CyclicBarrier(2);
+
+  private final EventDBManager first = new EventDBManager("first", this.barrier);
+
+  private final EventDBManager second = new EventDBManager("second", this.barrier);
+
+  private final EventDBManager dependent = new EventDBManager("dependent", null);
+
+  @Rule
+  public final DBRule rule = this.createRule();
+
+  public TestCaseDBRuleParallelPhases() {
+    super();
+  }
+
+  private final DBRule createRule() {
+    this.first.setDependencies(Collections.<DBRule.DBManager>emptySet());
+    this.second.setDependencies(Collections.<DBRule.DBManager>emptySet());
+    this.dependent.setDependencies(Collections.singleton(this.first));
+    final DBRule rule = new DBRule(Arrays.<DBRule.DBManager>asList(this.first, this.second, this.dependent));
+    rule.setPhaseExecutor(executor);
+    return rule;
+  }
+
+  @Test
+  public void testIndependentManagersCreateConcurrently() {
+    // Had first and second been created one after the other, the
+    // barrier would have timed out.
+    assertEquals(3, events.size());
+    assertTrue(events.indexOf("create dependent") > events.indexOf("create first"));
+    events.clear();
+  }
+
+  @AfterClass
+  public static void assertDependentDestroyedFirst() {
+    assertEquals(3, events.size());
+    assertTrue(events.indexOf("destroy first") > events.indexOf("destroy dependent"));
+    executor.shutdown();
+  }
+
+  private static final class EventDBManager extends DBRule.AbstractDBManager {
+
+    private final String name;
+
+    private final CyclicBarrier barrier;
+
+    private EventDBManager(final String name, final CyclicBarrier barrier) {
+      super();
+      this.name = name;
+      this.barrier = barrier;
+    }
+
+    @Override
+    public void create() throws Exception {
+      if (this.barrier != null) {
+        this.barrier.await(10L, TimeUnit.SECONDS);
+      }
+      events.add("create " + this.name);
+    }
+
+    @Override
+    public void destroy() {
+      events.add("destroy " + this.name);
+    }
+
+  }
+
+}
@@ -0,0 +1,94 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.lang.reflect.Field;
+
+import java.sql.Connection;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.junit.runner.Description;
+
+import org.junit.runners.model.TestClass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseInjectableFields {
+
+  @DBConnection
+  private Connection connection;
+
+  @DBConnection(catalog = "other")
+  private Connection otherConnection;
+
+  @DBConnection
+  private String notAConnection;
+
+  public TestCaseInjectableFields() {
+    super();
+  }
+
+  @Test
+  public void testTestClassIsCached() {
+    final Description description = Description.createTestDescription(this.getClass(), "testTestClassIsCached");
+    final TestClass testClass = DBRule.getTestClass(description);
+    assertSame(this.getClass(), testClass.getJavaClass());
+    assertSame(testClass, DBRule.getTestClass(description));
+  }
+
+  @Test
+  public void testInjectableFieldsAreCached() throws Exception {
+    final TestClass testClass = new TestClass(this.getClass());
+    final int[] calls = new int[1];
+    final DBRule.FieldFilter filter = new DBRule.FieldFilter() {
+        @Override
+        public final boolean accept(final Field field) {
+          calls[0]++;
+          return field.getAnnotation(DBConnection.class).catalog().isEmpty();
+        }
+      };
+    final List<Field> fields = DBRule.getInjectableFields(testClass, DBConnection.class, Connection.class, Arrays.asList("test"), filter);
+    assertEquals(1, fields.size());
+    assertEquals("connection", fields.get(0).getName());
+    assertTrue(fields.get(0).isAccessible());
+    assertEquals(2, calls[0]);
+
+    assertSame(fields, DBRule.getInjectableFields(testClass, DBConnection.class, Connection.class, Arrays.asList("test"), filter));
+    assertEquals(2, calls[0]);
+
+    // A different key is a different cache entry.
+    assertEquals(2, DBRule.getInjectableFields(testClass, DBConnection.class, Connection.class, Arrays.asList("all"), null).size());
+  }
+
+}
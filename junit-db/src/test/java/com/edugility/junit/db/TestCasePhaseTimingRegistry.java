@@ -0,0 +1,110 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.io.IOException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCasePhaseTimingRegistry {
+
+  private static final PhaseTimingRegistry registry = new PhaseTimingRegistry();
+
+  @Rule
+  public final DBRule rule = new DBRule(new SleepyDBManager());
+
+  public TestCasePhaseTimingRegistry() {
+    super();
+  }
+
+  @BeforeClass
+  public static void addRegistry() {
+    DBRule.addPhaseTimingListener(registry);
+  }
+
+  @AfterClass
+  public static void removeRegistry() {
+    DBRule.removePhaseTimingListener(registry);
+  }
+
+  @Test
+  public void testTimingsRecorded() throws IOException {
+    // The current test's inject() has been recorded, but its reset()
+    // has not yet run.
+    final PhaseTimingHistogram initialize = registry.getHistogram(SleepyDBManager.class, "initialize");
+    assertNotNull(initialize);
+    final long count = initialize.getCount();
+    assertTrue(count >= 1L);
+    assertTrue(initialize.getMinNanos() >= 5000000L);
+    final PhaseTimingHistogram inject = registry.getHistogram(SleepyDBManager.class, "inject");
+    assertNotNull(inject);
+    assertEquals(count, inject.getCount());
+    final PhaseTimingHistogram reset = registry.getHistogram(SleepyDBManager.class, "reset");
+    assertEquals(count - 1L, reset == null ? 0L : reset.getCount());
+    assertEquals(SleepyDBManager.class.getName(), registry.getKeys().get(0).get(0));
+    assertEquals("initialize", registry.getKeys().get(0).get(1));
+    final StringBuilder csv = new StringBuilder();
+    registry.writeCsv(csv);
+    assertTrue(csv.toString().contains(SleepyDBManager.class.getName() + ",initialize," + count + ",0,"));
+  }
+
+  @Test
+  public void testHistogramPercentiles() {
+    final PhaseTimingHistogram histogram = new PhaseTimingHistogram();
+    for (long i = 1L; i <= 1000L; i++) {
+      histogram.record(i * 1000L, i % 100L == 0L);
+    }
+    assertEquals(1000L, histogram.getCount());
+    assertEquals(10L, histogram.getFailureCount());
+    assertEquals(1000L, histogram.getMinNanos());
+    assertEquals(1000000L, histogram.getMaxNanos());
+    assertEquals(500500.0D, histogram.getMeanNanos(), 0.0D);
+    final long p50 = histogram.getValueAtPercentile(50.0D);
+    assertTrue(String.valueOf(p50), Math.abs(p50 - 500000L) <= 500000L / 64L);
+    final long p99 = histogram.getValueAtPercentile(99.0D);
+    assertTrue(String.valueOf(p99), Math.abs(p99 - 990000L) <= 990000L / 64L);
+    assertEquals(1000000L, histogram.getValueAtPercentile(100.0D));
+  }
+
+  private static final class SleepyDBManager extends DBRule.AbstractDBManager {
+
+    @Override
+    public void initialize() throws InterruptedException {
+      Thread.sleep(5L);
+    }
+
+  }
+
+}
@@ -0,0 +1,142 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.junit.runners.model.FrameworkMethod;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestCasePoolingDataSource {
+
+  private PoolingDataSource dataSource;
+
+  public TestCasePoolingDataSource() {
+    super();
+  }
+
+  @Before
+  public void createDataSource() {
+    final ConnectionDescriptor cd = new ConnectionDescriptor("jdbc:h2:mem:pooling", "sa", "");
+    cd.setProperty(ConnectionDescriptor.POOLED, "true");
+    final Object dataSource = cd.getDataSource();
+    assertTrue(dataSource instanceof PoolingDataSource);
+    this.dataSource = (PoolingDataSource)dataSource;
+  }
+
+  @After
+  public void closeDataSource() {
+    if (this.dataSource != null) {
+      this.dataSource.close();
+    }
+  }
+
+  @Test
+  public void testConnectionReuseAndReset() throws SQLException {
+    final Connection c1 = this.dataSource.getConnection("sa", "");
+    assertNotNull(c1);
+    final Connection physical = c1.unwrap(Connection.class);
+    assertTrue(c1.getAutoCommit());
+    c1.setAutoCommit(false);
+    c1.close();
+    assertTrue(c1.isClosed());
+
+    final Connection c2 = this.dataSource.getConnection("sa", "");
+    assertNotNull(c2);
+    assertNotSame(c1, c2);
+    assertFalse(c2.isClosed());
+    assertSame(physical, c2.unwrap(Connection.class));
+    assertTrue(c2.getAutoCommit());
+    c2.close();
+  }
+
+  @Test(expected = SQLException.class)
+  public void testClosedConnectionIsUnusable() throws SQLException {
+    final Connection c = this.dataSource.getConnection("sa", "");
+    c.close();
+    c.createStatement();
+  }
+
+  @Test
+  public void testMaxIdle() throws SQLException {
+    final PoolingDataSource unpooled = new PoolingDataSource(this.dataSource.getDelegate(), 0);
+    final Connection c = unpooled.getConnection("sa", "");
+    final Connection physical = c.unwrap(Connection.class);
+    c.close();
+    assertTrue(physical.isClosed());
+    assertEquals(0, unpooled.getMaxIdle());
+  }
+
+  @Test
+  public void testStatementsReferToPooledConnectionAndCloseOnReturn() throws SQLException {
+    final Connection c = this.dataSource.getConnection("sa", "");
+    final Statement s = c.createStatement();
+    assertSame(c, s.getConnection());
+    final ResultSet rs = s.executeQuery("SELECT 1");
+    assertSame(s, rs.getStatement());
+    assertSame(c, c.getMetaData().getConnection());
+    c.close();
+    assertTrue(s.isClosed());
+    assertTrue(rs.isClosed());
+  }
+
+  @Test
+  public void testPoolIsSharedByRules() throws Throwable {
+    final FrameworkMethod method = new FrameworkMethod(this.getClass().getMethod("testPoolIsSharedByRules"));
+    final Connection[] physicalConnections = new Connection[2];
+    for (int i = 0; i < physicalConnections.length; i++) {
+      final ConnectionDescriptor cd = new ConnectionDescriptor("jdbc:h2:mem:pooling", "sa", "");
+      cd.setProperty(ConnectionDescriptor.POOLED, "true");
+      final DBRule.SingleDBManager manager = new DBRule.SingleDBManager(cd);
+      final int index = i;
+      new DBRule(manager).asMethodRule().apply(new org.junit.runners.model.Statement() {
+          @Override
+          public final void evaluate() throws SQLException {
+            physicalConnections[index] = manager.getAllocatedConnection().unwrap(Connection.class);
+          }
+        }, method, this).evaluate();
+    }
+    assertNotNull(physicalConnections[0]);
+    assertSame(physicalConnections[0], physicalConnections[1]);
+    assertFalse(physicalConnections[0].isClosed());
+  }
+
+}
@@ -0,0 +1,127 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseSingleDBManagerRollback {
+
+  private static final String URL = "jdbc:h2:mem:rollback;DB_CLOSE_DELAY=-1";
+
+  @Rule
+  public final DBRule rule;
+
+  @DBConnection
+  private Connection c;
+
+  public TestCaseSingleDBManagerRollback() {
+    super();
+    final DBRule.SingleDBManager manager = new DBRule.SingleDBManager(new ConnectionDescriptor(URL, "sa", ""));
+    manager.setRollbackIsolation(true);
+    this.rule = new DBRule(manager);
+  }
+
+  @BeforeClass
+  public static void createTable() throws SQLException {
+    final Connection c = DriverManager.getConnection(URL, "sa", "");
+    try {
+      final Statement s = c.createStatement();
+      s.executeUpdate("CREATE TABLE IF NOT EXISTS ROLLBACK_TEST (ID INT PRIMARY KEY)");
+      s.close();
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testOne() throws SQLException {
+    this.insertAndCount();
+  }
+
+  @Test
+  public void testTwo() throws SQLException {
+    this.insertAndCount();
+  }
+
+  @Test
+  public void testResetRollsBackBeforeDisconnect() throws Exception {
+    final DBRule.SingleDBManager manager = new DBRule.SingleDBManager(new ConnectionDescriptor(URL, "sa", ""));
+    manager.setRollbackIsolation(true);
+    manager.connect();
+    try {
+      manager.inject();
+      final Connection connection = manager.getAllocatedConnection();
+      assertNotNull(connection);
+      final Statement s = connection.createStatement();
+      assertEquals(1, s.executeUpdate("INSERT INTO ROLLBACK_TEST (ID) VALUES (2)"));
+      assertEquals(1, count(connection));
+      s.close();
+      manager.reset();
+      assertFalse(connection.isClosed());
+      assertEquals(0, count(connection));
+    } finally {
+      manager.disconnect();
+    }
+  }
+
+  private final void insertAndCount() throws SQLException {
+    assertNotNull(this.c);
+    final Statement s = this.c.createStatement();
+    assertEquals(1, s.executeUpdate("INSERT INTO ROLLBACK_TEST (ID) VALUES (1)"));
+    s.close();
+    assertEquals(1, count(this.c));
+  }
+
+  private static final int count(final Connection c) throws SQLException {
+    final int count;
+    final Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM ROLLBACK_TEST");
+      assertTrue(rs.next());
+      count = rs.getInt(1);
+      rs.close();
+    } finally {
+      s.close();
+    }
+    return count;
+  }
+
+}
@@ -0,0 +1,492 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.math.BigDecimal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import java.util.Arrays;
+
+import org.dbunit.DatabaseUnitException;
+
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.RowOutOfBoundsException;
+
+import org.dbunit.dataset.datatype.DataType;
+
+import org.dbunit.operation.AbstractOperation;
+import org.dbunit.operation.CompositeOperation;
+import org.dbunit.operation.DatabaseOperation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DatabaseOperation} that inserts the contents of an {@link
+ * IDataSet} using JDBC batches rather than one statement per row.
+ *
+ * <p>Referential integrity checking is switched off for the duration
+ * of the load on databases that allow it (H2, HSQLDB and MySQL), and
+ * the whole load is committed once at the end, or rolled back if it
+ * fails.  On H2 and HSQLDB this setting applies to the whole
+ * database, not just to the loading connection, so while a load runs
+ * foreign keys are not checked for any other connection to the same
+ * database either, such as those of tests running in parallel
+ * against a shared catalog.  When the target
+ * database is an embedded H2 database, each table that contains no
+ * binary data is loaded with a single {@code INSERT ... DIRECT SELECT
+ * ... FROM CSVREAD(...)} statement instead.  This is not done for H2
+ * servers reached via {@code jdbc:h2:tcp:} or {@code jdbc:h2:ssl:}
+ * URLs, which would look for the CSV file on their own
+ * filesystems.</p>
+ *
+ * <p>To use it in place of DbUnit's own {@link
+ * DatabaseOperation#CLEAN_INSERT}:</p>
+ *
+ * <blockquote><pre>manager.setSetUpOperation(BatchInsertOperation.CLEAN_INSERT);</pre></blockquote>
+ *
+ * <p>{@link BatchInsertOperation}s also accept {@linkplain
+ * DataSetLocator#streamDataSet(java.net.URL) streaming datasets}, whose tables
+ * are read once, row by row, as they are inserted.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DbUnitManager#setSetUpOperation(DatabaseOperation)
+ */
+public class BatchInsertOperation extends AbstractOperation {
+
+  /**
+   * The number of rows sent to the database in each batch if no other
+   * batch size is specified.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  /**
+   * A {@link DatabaseOperation} that {@linkplain
+   * DatabaseOperation#DELETE_ALL deletes all rows} from the tables of
+   * an {@link IDataSet} and then inserts its contents with a {@link
+   * BatchInsertOperation}.
+   */
+  public static final DatabaseOperation CLEAN_INSERT = new CompositeOperation(DatabaseOperation.DELETE_ALL, new BatchInsertOperation());
+
+  /**
+   * A {@link BatchInsertOperation} that deletes all rows from each
+   * table of an {@link IDataSet} immediately before inserting that
+   * table's contents.
+   *
+   * <p>Unlike {@link #CLEAN_INSERT}, this operation reads its {@link
+   * IDataSet} only once, forwards, and so can be used with {@linkplain
+   * DataSetLocator#streamDataSet(java.net.URL) streaming datasets}.  On
+   * databases where referential integrity checking cannot be switched
+   * off, the dataset's tables must be ordered so that no deletion
+   * leaves rows behind that refer to deleted ones.</p>
+   *
+   * @see DbUnitManager#setStreaming(boolean)
+   */
+  public static final DatabaseOperation STREAMING_CLEAN_INSERT = new BatchInsertOperation(DEFAULT_BATCH_SIZE, true);
+
+  private static final Logger logger = LoggerFactory.getLogger(BatchInsertOperation.class);
+
+  private final int batchSize;
+
+  private final boolean clean;
+
+  public BatchInsertOperation() {
+    this(DEFAULT_BATCH_SIZE, false);
+  }
+
+  public BatchInsertOperation(final int batchSize) {
+    this(batchSize, false);
+  }
+
+  /**
+   * Creates a new {@link BatchInsertOperation}.
+   *
+   * @param batchSize the number of rows sent to the database in each
+   * batch; must be positive
+   *
+   * @param clean whether all rows should be deleted from each table
+   * immediately before it is loaded
+   *
+   * @exception IllegalArgumentException if {@code batchSize} is less
+   * than {@code 1}
+   *
+   * @see #STREAMING_CLEAN_INSERT
+   */
+  public BatchInsertOperation(final int batchSize, final boolean clean) {
+    super();
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize < 1: " + batchSize);
+    }
+    this.batchSize = batchSize;
+    this.clean = clean;
+  }
+
+  public int getBatchSize() {
+    return this.batchSize;
+  }
+
+  /**
+   * Returns {@code true} if this {@link BatchInsertOperation} deletes
+   * all rows from each table immediately before loading it.
+   *
+   * @return {@code true} if tables are emptied before they are
+   * loaded
+   */
+  public boolean isClean() {
+    return this.clean;
+  }
+
+  @Override
+  public void execute(final IDatabaseConnection connection, final IDataSet dataSet) throws DatabaseUnitException, SQLException {
+    if (connection == null) {
+      throw new IllegalArgumentException("connection", new NullPointerException("connection == null"));
+    }
+    if (dataSet == null) {
+      throw new IllegalArgumentException("dataSet", new NullPointerException("dataSet == null"));
+    }
+    final Connection c = connection.getConnection();
+    final Dialect dialect = Dialect.forConnection(c);
+    final boolean csv = Dialect.H2.equals(dialect) && isEmbedded(c);
+    final IDataSet databaseDataSet = connection.createDataSet();
+    final boolean autoCommit = c.getAutoCommit();
+    if (autoCommit) {
+      c.setAutoCommit(false);
+    }
+    boolean success = false;
+    final boolean integrityDisabled = dialect.setReferentialIntegrity(c, false);
+    try {
+      final ITableIterator tables = dataSet.iterator();
+      while (tables.next()) {
+        final ITable table = tables.getTable();
+        final ITableMetaData metaData = table.getTableMetaData();
+        final Column[] columns = this.getDatabaseColumns(databaseDataSet.getTableMetaData(metaData.getTableName()), metaData.getColumns());
+        final String tableName = this.getQualifiedName(connection.getSchema(), metaData.getTableName(), connection);
+        if (this.isClean()) {
+          this.deleteAll(c, tableName);
+        }
+        if (columns.length > 0) {
+          final int rowCount = getRowCount(table);
+          // A streaming table cannot be reread, so it cannot be
+          // loaded via CSV, which may have to fall back to batched
+          // inserts partway through.
+          if (rowCount < 0 || !csv || !this.csvInsert(c, tableName, table, columns, connection)) {
+            this.batchInsert(c, tableName, table, rowCount, columns, connection);
+          }
+        }
+      }
+      success = true;
+    } finally {
+      try {
+        // H2 commits the open transaction when referential integrity
+        // is switched back on, so the load must be committed or
+        // rolled back first.
+        if (success) {
+          c.commit();
+        } else {
+          c.rollback();
+        }
+      } finally {
+        try {
+          if (integrityDisabled) {
+            dialect.setReferentialIntegrity(c, true);
+          }
+        } finally {
+          if (autoCommit) {
+            c.setAutoCommit(true);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the columns of the supplied database table that
+   * correspond to the supplied dataset columns, so that values can be
+   * converted according to the types the database actually uses.
+   */
+  private final Column[] getDatabaseColumns(final ITableMetaData databaseMetaData, final Column[] dataSetColumns) throws DatabaseUnitException {
+    assert databaseMetaData != null;
+    final Column[] databaseColumns = databaseMetaData.getColumns();
+    final Column[] returnValue = new Column[dataSetColumns == null ? 0 : dataSetColumns.length];
+    for (int i = 0; i < returnValue.length; i++) {
+      returnValue[i] = databaseColumns[databaseMetaData.getColumnIndex(dataSetColumns[i].getColumnName())];
+    }
+    return returnValue;
+  }
+
+  private final void deleteAll(final Connection c, final String tableName) throws SQLException {
+    assert c != null;
+    assert tableName != null;
+    final Statement s = c.createStatement();
+    try {
+      s.executeUpdate("DELETE FROM " + tableName);
+    } finally {
+      s.close();
+    }
+  }
+
+  /**
+   * Returns the number of rows in the supplied {@link ITable}, or
+   * {@code -1} if it is a streaming table that cannot say.
+   */
+  private static final int getRowCount(final ITable table) {
+    assert table != null;
+    int rowCount;
+    try {
+      rowCount = table.getRowCount();
+    } catch (final UnsupportedOperationException streaming) {
+      rowCount = -1;
+    }
+    return rowCount;
+  }
+
+  /**
+   * Returns {@code true} if the supplied streaming {@link ITable} has
+   * a row at the supplied index.
+   */
+  private static final boolean hasRow(final ITable table, final int row, final Column column) throws DatabaseUnitException {
+    assert table != null;
+    assert column != null;
+    boolean returnValue = true;
+    try {
+      table.getValue(row, column.getColumnName());
+    } catch (final RowOutOfBoundsException end) {
+      returnValue = false;
+    }
+    return returnValue;
+  }
+
+  private final void batchInsert(final Connection c, final String tableName, final ITable table, final int rowCount, final Column[] columns, final IDatabaseConnection connection) throws DatabaseUnitException, SQLException {
+    assert c != null;
+    assert tableName != null;
+    assert table != null;
+    assert columns != null;
+    assert columns.length > 0;
+    // A row's columns whose values are ITable.NO_VALUE are left out
+    // of its INSERT statement so that their defaults apply; rows are
+    // batched together for as long as they leave out the same
+    // columns.
+    boolean[] included = null;
+    PreparedStatement ps = null;
+    int batched = 0;
+    try {
+      for (int row = 0; rowCount < 0 || row < rowCount; row++) {
+        if (rowCount < 0 && !hasRow(table, row, columns[0])) {
+          break;
+        }
+        final boolean[] rowIncluded = new boolean[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+          rowIncluded[i] = table.getValue(row, columns[i].getColumnName()) != ITable.NO_VALUE;
+        }
+        if (ps == null || !Arrays.equals(included, rowIncluded)) {
+          if (ps != null) {
+            if (batched > 0) {
+              ps.executeBatch();
+              batched = 0;
+            }
+            ps.close();
+          }
+          included = rowIncluded;
+          ps = c.prepareStatement(this.getInsertStatement(tableName, columns, included, connection));
+        }
+        int parameterIndex = 1;
+        for (int i = 0; i < columns.length; i++) {
+          if (included[i]) {
+            final DataType dataType = columns[i].getDataType();
+            dataType.setSqlValue(dataType.typeCast(table.getValue(row, columns[i].getColumnName())), parameterIndex++, ps);
+          }
+        }
+        ps.addBatch();
+        batched++;
+        if (batched >= this.batchSize) {
+          ps.executeBatch();
+          batched = 0;
+        }
+      }
+      if (ps != null && batched > 0) {
+        ps.executeBatch();
+      }
+    } finally {
+      if (ps != null) {
+        ps.close();
+      }
+    }
+  }
+
+  private final String getInsertStatement(final String tableName, final Column[] columns, final boolean[] included, final IDatabaseConnection connection) {
+    final StringBuilder sb = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+    final StringBuilder values = new StringBuilder(") VALUES (");
+    boolean first = true;
+    for (int i = 0; i < columns.length; i++) {
+      if (included == null || included[i]) {
+        if (!first) {
+          sb.append(", ");
+          values.append(", ");
+        }
+        sb.append(this.getQualifiedName(null, columns[i].getColumnName(), connection));
+        values.append("?");
+        first = false;
+      }
+    }
+    return sb.append(values).append(")").toString();
+  }
+
+  /**
+   * Returns {@code true} if the supplied H2 {@link Connection} is to
+   * a database running in this JVM, and whose {@code CSVREAD}
+   * function therefore reads files from this machine's filesystem.
+   */
+  private static final boolean isEmbedded(final Connection c) throws SQLException {
+    assert c != null;
+    final String url = c.getMetaData().getURL();
+    return url != null && !url.startsWith("jdbc:h2:tcp:") && !url.startsWith("jdbc:h2:ssl:");
+  }
+
+  /**
+   * Loads the supplied {@link ITable} into H2 with a single {@code
+   * INSERT ... DIRECT SELECT ... FROM CSVREAD(...)} statement.
+   *
+   * @return {@code true} if the table was loaded; {@code false} if it
+   * contains values that cannot be expressed in CSV, in which case
+   * nothing was written to the database
+   */
+  private final boolean csvInsert(final Connection c, final String tableName, final ITable table, final Column[] columns, final IDatabaseConnection connection) throws DatabaseUnitException, SQLException {
+    assert c != null;
+    assert tableName != null;
+    assert table != null;
+    assert columns != null;
+    boolean returnValue = true;
+    for (final Column column : columns) {
+      if (isBinary(column.getDataType().getSqlType())) {
+        returnValue = false;
+        break;
+      }
+    }
+    if (returnValue) {
+      File file = null;
+      try {
+        file = File.createTempFile("dbunit", ".csv");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+          returnValue = this.writeCsv(writer, table, columns);
+        } finally {
+          writer.close();
+        }
+        if (returnValue) {
+          final StringBuilder sql = new StringBuilder("INSERT INTO ").append(tableName).append(" (");
+          for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+              sql.append(", ");
+            }
+            sql.append(this.getQualifiedName(null, columns[i].getColumnName(), connection));
+          }
+          sql.append(") DIRECT SELECT * FROM CSVREAD('").append(file.getAbsolutePath().replace("'", "''")).append("', NULL, 'charset=UTF-8')");
+          final Statement s = c.createStatement();
+          try {
+            s.execute(sql.toString());
+          } finally {
+            s.close();
+          }
+        }
+      } catch (final IOException kaboom) {
+        logger.warn("Could not write CSV data for " + tableName + "; falling back to batched inserts", kaboom);
+        returnValue = false;
+      } finally {
+        if (file != null && !file.delete()) {
+          file.deleteOnExit();
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  private final boolean writeCsv(final Writer writer, final ITable table, final Column[] columns) throws DatabaseUnitException, IOException {
+    assert writer != null;
+    assert table != null;
+    assert columns != null;
+    boolean returnValue = true;
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        writer.write(',');
+      }
+      writer.write(quote("C" + i));
+    }
+    writer.write('\n');
+    final int rowCount = table.getRowCount();
+    for (int row = 0; returnValue && row < rowCount; row++) {
+      for (int i = 0; returnValue && i < columns.length; i++) {
+        if (i > 0) {
+          writer.write(',');
+        }
+        final Object value = table.getValue(row, columns[i].getColumnName());
+        if (value == ITable.NO_VALUE) {
+          // Defaults cannot be expressed in CSV.
+          returnValue = false;
+        } else {
+          final Object sqlValue = columns[i].getDataType().typeCast(value);
+          if (sqlValue != null) {
+            // An unquoted empty field is read back as NULL.
+            writer.write(quote(sqlValue instanceof BigDecimal ? ((BigDecimal)sqlValue).toPlainString() : sqlValue.toString()));
+          }
+        }
+      }
+      writer.write('\n');
+    }
+    return returnValue;
+  }
+
+  private static final String quote(final String s) {
+    assert s != null;
+    return "\"" + s.replace("\"", "\"\"") + "\"";
+  }
+
+  private static final boolean isBinary(final int sqlType) {
+    return sqlType == Types.BINARY || sqlType == Types.VARBINARY || sqlType == Types.LONGVARBINARY || sqlType == Types.BLOB || sqlType == Types.OTHER || sqlType == Types.JAVA_OBJECT;
+  }
+
+}
@@ -0,0 +1,513 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.net.URISyntaxException;
+import java.net.URL;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.charset.Charset;
+
+import java.util.Arrays;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTableMetaData;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.RowOutOfBoundsException;
+
+import org.dbunit.dataset.datatype.DataType;
+
+/**
+ * Reads and writes a compact, columnar binary form of a flat XML
+ * dataset.
+ *
+ * <p>A compiled dataset lives next to the flat XML file it was
+ * compiled from and has the same name with {@link #SUFFIX} appended,
+ * so <tt>/datasets/Foo.xml</tt> compiles to
+ * <tt>/datasets/Foo.xml.bin</tt>.  The XML file remains the source of
+ * truth; a compiled dataset is only used when it is at least as new
+ * as its XML file.</p>
+ *
+ * <p>Compiled datasets can be produced at build time, for example
+ * during the <tt>process-test-resources</tt> phase, by running this
+ * class's {@link #main(String[])} method with the output
+ * <tt>datasets</tt> directory as its sole argument.  A {@link
+ * DataSetLocator} that {@linkplain
+ * DataSetLocator#setUseCompiledDataSets(boolean) uses compiled
+ * datasets} will otherwise compile them on first use when the XML
+ * file is an ordinary file.</p>
+ *
+ * <p>Reading a compiled dataset decodes only its table directory.
+ * The values of a given column are decoded the first time any of
+ * them is requested, and compiled datasets that are ordinary files
+ * are memory-mapped rather than read.  As with flat XML, every value
+ * is a {@link String} and every {@link Column} is of type {@link
+ * DataType#UNKNOWN}.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DataSetLocator#setUseCompiledDataSets(boolean)
+ */
+public final class CompiledDataSet {
+
+  /**
+   * The suffix appended to the name of a flat XML dataset to yield
+   * the name of its compiled form.
+   */
+  public static final String SUFFIX = ".bin";
+
+  /**
+   * The first four bytes of every compiled dataset (<tt>DSB1</tt>).
+   */
+  private static final int MAGIC = 0x44534231;
+
+  private static final int NULL_LENGTH = -1;
+
+  private static final int NO_VALUE_LENGTH = -2;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private CompiledDataSet() {
+    super();
+  }
+
+  /**
+   * Writes the supplied {@link IDataSet} in compiled form to the
+   * supplied {@link OutputStream}, which is not closed.
+   *
+   * @param dataSet the {@link IDataSet} to write; must not be {@code
+   * null}
+   *
+   * @param stream the {@link OutputStream} to write to; must not be
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if either parameter is
+   * {@code null}
+   *
+   * @exception DataSetException if the {@link IDataSet} could not be
+   * read
+   *
+   * @exception IOException if the compiled form could not be written
+   */
+  public static final void write(final IDataSet dataSet, final OutputStream stream) throws DataSetException, IOException {
+    if (dataSet == null) {
+      throw new IllegalArgumentException("dataSet", new NullPointerException("dataSet == null"));
+    }
+    if (stream == null) {
+      throw new IllegalArgumentException("stream", new NullPointerException("stream == null"));
+    }
+    final ITable[] tables = dataSet.getTables();
+    assert tables != null;
+    final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    final DataOutputStream dataOut = new DataOutputStream(data);
+    final DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(MAGIC);
+    out.writeInt(tables.length);
+    for (final ITable table : tables) {
+      assert table != null;
+      final ITableMetaData metaData = table.getTableMetaData();
+      assert metaData != null;
+      final Column[] columns = metaData.getColumns();
+      assert columns != null;
+      final int rowCount = table.getRowCount();
+      writeString(out, metaData.getTableName());
+      out.writeInt(columns.length);
+      for (final Column column : columns) {
+        writeString(out, column.getColumnName());
+      }
+      out.writeInt(rowCount);
+      for (final Column column : columns) {
+        out.writeInt(dataOut.size());
+        final String columnName = column.getColumnName();
+        for (int row = 0; row < rowCount; row++) {
+          final Object value = table.getValue(row, columnName);
+          if (value == null) {
+            dataOut.writeInt(NULL_LENGTH);
+          } else if (value == ITable.NO_VALUE) {
+            dataOut.writeInt(NO_VALUE_LENGTH);
+          } else {
+            writeString(dataOut, DataType.asString(value));
+          }
+        }
+      }
+    }
+    dataOut.flush();
+    data.writeTo(out);
+    out.flush();
+  }
+
+  private static final void writeString(final DataOutputStream out, final String s) throws IOException {
+    assert out != null;
+    if (s == null) {
+      out.writeInt(NULL_LENGTH);
+    } else {
+      final byte[] bytes = s.getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * Compiles the supplied flat XML dataset file, which may be
+   * gzip-compressed, writing the result next to it in a file whose
+   * name is the XML file's name with {@link #SUFFIX} appended.
+   *
+   * <p>The compiled form is written to a temporary file that is then
+   * renamed, so concurrent compilations of the same file are
+   * harmless.</p>
+   *
+   * @param xmlFile the flat XML dataset to compile; must not be
+   * {@code null}
+   *
+   * @return the compiled dataset {@link File}; never {@code null}
+   *
+   * @exception IllegalArgumentException if {@code xmlFile} is {@code
+   * null}
+   *
+   * @exception DataSetException if {@code xmlFile} could not be
+   * parsed
+   *
+   * @exception IOException if the compiled dataset could not be
+   * written
+   */
+  public static final File compile(final File xmlFile) throws DataSetException, IOException {
+    if (xmlFile == null) {
+      throw new IllegalArgumentException("xmlFile", new NullPointerException("xmlFile == null"));
+    }
+    final IDataSet dataSet = DataSetLocator.parse(xmlFile.toURI().toURL());
+    final File compiledFile = new File(xmlFile.getPath() + SUFFIX);
+    final File temporaryFile = File.createTempFile(xmlFile.getName(), ".tmp", xmlFile.getAbsoluteFile().getParentFile());
+    boolean renamed = false;
+    try {
+      final OutputStream stream = new BufferedOutputStream(new FileOutputStream(temporaryFile));
+      try {
+        write(dataSet, stream);
+      } finally {
+        stream.close();
+      }
+      renamed = temporaryFile.renameTo(compiledFile);
+      if (!renamed) {
+        compiledFile.delete();
+        renamed = temporaryFile.renameTo(compiledFile);
+        if (!renamed) {
+          throw new IOException("Could not rename " + temporaryFile + " to " + compiledFile);
+        }
+      }
+    } finally {
+      if (!renamed) {
+        temporaryFile.delete();
+      }
+    }
+    return compiledFile;
+  }
+
+  /**
+   * Compiles every file whose name ends with <tt>.xml</tt> or
+   * <tt>.xml.gz</tt> beneath the supplied directory.
+   *
+   * @param datasetsDirectory the directory to search; must not be
+   * {@code null}
+   *
+   * @exception IllegalArgumentException if {@code datasetsDirectory}
+   * is {@code null} or not a directory
+   *
+   * @exception DataSetException if a dataset could not be parsed
+   *
+   * @exception IOException if a compiled dataset could not be written
+   *
+   * @see #compile(File)
+   */
+  public static final void compileAll(final File datasetsDirectory) throws DataSetException, IOException {
+    if (datasetsDirectory == null) {
+      throw new IllegalArgumentException("datasetsDirectory", new NullPointerException("datasetsDirectory == null"));
+    }
+    if (!datasetsDirectory.isDirectory()) {
+      throw new IllegalArgumentException("!datasetsDirectory.isDirectory(): " + datasetsDirectory);
+    }
+    final File[] files = datasetsDirectory.listFiles();
+    if (files != null) {
+      Arrays.sort(files);
+      for (final File file : files) {
+        if (file.isDirectory()) {
+          compileAll(file);
+        } else if (file.getName().endsWith(".xml") || file.getName().endsWith(".xml" + DataSetLocator.GZIP_SUFFIX)) {
+          compile(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Invokes the {@link #compileAll(File)} method for each supplied
+   * directory name.
+   *
+   * @param args the names of directories containing flat XML
+   * datasets
+   *
+   * @exception DataSetException if a dataset could not be parsed
+   *
+   * @exception IOException if a compiled dataset could not be written
+   */
+  public static final void main(final String[] args) throws DataSetException, IOException {
+    if (args != null) {
+      for (final String arg : args) {
+        if (arg != null) {
+          compileAll(new File(arg));
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the compiled dataset located at the supplied {@link URL}
+   * and returns its tables, whose values are decoded lazily.
+   *
+   * <p>If the {@link URL} denotes an ordinary file it is
+   * memory-mapped; otherwise its contents are read into memory.</p>
+   *
+   * @param url the {@link URL} of a compiled dataset; must not be
+   * {@code null}
+   *
+   * @return a non-{@code null} array of read-only {@link ITable}s
+   *
+   * @exception IllegalArgumentException if {@code url} is {@code
+   * null}
+   *
+   * @exception DataSetException if the compiled dataset could not be
+   * read or is malformed
+   */
+  public static final ITable[] read(final URL url) throws DataSetException {
+    if (url == null) {
+      throw new IllegalArgumentException("url", new NullPointerException("url == null"));
+    }
+    final ByteBuffer buffer;
+    try {
+      if ("file".equals(url.getProtocol())) {
+        buffer = map(toFile(url));
+      } else {
+        buffer = load(url);
+      }
+    } catch (final IOException e) {
+      throw new DataSetException("Could not read compiled dataset " + url, e);
+    }
+    try {
+      return read(buffer);
+    } catch (final BufferUnderflowException e) {
+      throw new DataSetException("Truncated compiled dataset: " + url, e);
+    }
+  }
+
+  private static final ITable[] read(final ByteBuffer buffer) throws DataSetException {
+    assert buffer != null;
+    if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+      throw new DataSetException("Not a compiled dataset");
+    }
+    final ITable[] tables = new ITable[buffer.getInt()];
+    final int[][] offsets = new int[tables.length][];
+    final ITableMetaData[] metaData = new ITableMetaData[tables.length];
+    final int[] rowCounts = new int[tables.length];
+    for (int i = 0; i < tables.length; i++) {
+      final String tableName = readString(buffer);
+      final Column[] columns = new Column[buffer.getInt()];
+      for (int j = 0; j < columns.length; j++) {
+        columns[j] = new Column(readString(buffer), DataType.UNKNOWN);
+      }
+      metaData[i] = new DefaultTableMetaData(tableName, columns);
+      rowCounts[i] = buffer.getInt();
+      offsets[i] = new int[columns.length];
+      for (int j = 0; j < columns.length; j++) {
+        offsets[i][j] = buffer.getInt();
+      }
+    }
+    final ByteBuffer data = buffer.slice();
+    for (int i = 0; i < tables.length; i++) {
+      tables[i] = new CompiledTable(metaData[i], rowCounts[i], data, offsets[i]);
+    }
+    return tables;
+  }
+
+  private static final String readString(final ByteBuffer buffer) {
+    assert buffer != null;
+    final String returnValue;
+    final int length = buffer.getInt();
+    if (length < 0) {
+      returnValue = null;
+    } else {
+      final byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      returnValue = new String(bytes, UTF_8);
+    }
+    return returnValue;
+  }
+
+  private static final File toFile(final URL url) {
+    assert url != null;
+    File file;
+    try {
+      file = new File(url.toURI());
+    } catch (final URISyntaxException badUrl) {
+      file = new File(url.getPath());
+    }
+    return file;
+  }
+
+  private static final ByteBuffer map(final File file) throws IOException {
+    assert file != null;
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      assert channel != null;
+      // The mapping remains valid after the channel is closed.
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static final ByteBuffer load(final URL url) throws IOException {
+    assert url != null;
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final InputStream stream = url.openStream();
+    try {
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = stream.read(buffer)) >= 0) {
+        bytes.write(buffer, 0, read);
+      }
+    } finally {
+      stream.close();
+    }
+    return ByteBuffer.wrap(bytes.toByteArray());
+  }
+
+  /**
+   * A read-only {@link ITable} backed by a region of a compiled
+   * dataset whose columns are decoded on first access.
+   */
+  private static final class CompiledTable implements ITable {
+
+    private final ITableMetaData metaData;
+
+    private final int rowCount;
+
+    private final ByteBuffer data;
+
+    private final int[] offsets;
+
+    private final AtomicReferenceArray<Object[]> columns;
+
+    private CompiledTable(final ITableMetaData metaData, final int rowCount, final ByteBuffer data, final int[] offsets) {
+      super();
+      assert metaData != null;
+      assert data != null;
+      assert offsets != null;
+      this.metaData = metaData;
+      this.rowCount = rowCount;
+      this.data = data;
+      this.offsets = offsets;
+      this.columns = new AtomicReferenceArray<Object[]>(offsets.length);
+    }
+
+    @Override
+    public final ITableMetaData getTableMetaData() {
+      return this.metaData;
+    }
+
+    @Override
+    public final int getRowCount() {
+      return this.rowCount;
+    }
+
+    @Override
+    public final Object getValue(final int row, final String column) throws DataSetException {
+      if (row < 0 || row >= this.rowCount) {
+        throw new RowOutOfBoundsException("row: " + row + "; rowCount: " + this.rowCount);
+      }
+      final int columnIndex = this.metaData.getColumnIndex(column);
+      Object[] values = this.columns.get(columnIndex);
+      if (values == null) {
+        this.columns.compareAndSet(columnIndex, null, this.decode(columnIndex));
+        values = this.columns.get(columnIndex);
+      }
+      assert values != null;
+      return values[row];
+    }
+
+    private final Object[] decode(final int columnIndex) throws DataSetException {
+      // Each decoding works on its own view of the shared buffer so
+      // that concurrent readers do not disturb one another's position.
+      final ByteBuffer buffer = this.data.duplicate();
+      final Object[] values = new Object[this.rowCount];
+      try {
+        buffer.position(this.offsets[columnIndex]);
+        for (int row = 0; row < values.length; row++) {
+          final int length = buffer.getInt();
+          if (length == NULL_LENGTH) {
+            values[row] = null;
+          } else if (length == NO_VALUE_LENGTH) {
+            values[row] = ITable.NO_VALUE;
+          } else {
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            values[row] = new String(bytes, UTF_8);
+          }
+        }
+      } catch (final RuntimeException e) {
+        throw new DataSetException("Malformed compiled table " + this.metaData.getTableName(), e);
+      }
+      return values;
+    }
+
+    @Override
+    public final String toString() {
+      return this.metaData.getTableName() + " (" + this.rowCount + " rows)";
+    }
+
+  }
+
+}
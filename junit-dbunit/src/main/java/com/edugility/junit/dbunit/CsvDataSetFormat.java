@@ -0,0 +1,319 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Serializable;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTableMetaData;
+
+import org.dbunit.dataset.datatype.DataType;
+
+import org.dbunit.dataset.stream.DefaultConsumer;
+import org.dbunit.dataset.stream.IDataSetConsumer;
+import org.dbunit.dataset.stream.IDataSetProducer;
+
+/**
+ * The {@link DataSetFormat} for datasets stored as directories of
+ * CSV files.
+ *
+ * <p>A CSV dataset named <tt>/datasets/TestCaseFoo</tt> is a
+ * directory named <tt>/datasets/TestCaseFoo.csv/</tt>.  It contains a
+ * file named {@link #TABLE_ORDERING_FILE_NAME} that lists the names of
+ * its tables, one per line and in the order in which they should be
+ * loaded, and for each table a UTF-8 encoded CSV file named after it,
+ * such as <tt>PERSON.csv</tt>.  This is the same layout DbUnit's own
+ * {@link org.dbunit.dataset.csv.CsvURLDataSet} reads.</p>
+ *
+ * <p>The first record of each table's file names its columns, and
+ * each subsequent record is a row.  Fields are separated by commas
+ * and may be enclosed in double quotes, within which commas, line
+ * breaks and doubled double quotes may appear.  An unquoted field
+ * consisting of the word <tt>null</tt> denotes a SQL {@code NULL};
+ * every other field is a {@link String}.</p>
+ *
+ * <p>Files are read through a single reusable character buffer,
+ * so the only objects created per field are the {@link String}s that
+ * hold its value.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+public class CsvDataSetFormat implements DataSetFormat, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The name of the file within a CSV dataset directory that lists
+   * its tables in order.
+   */
+  public static final String TABLE_ORDERING_FILE_NAME = "table-ordering.txt";
+
+  private static final String NULL = "null";
+
+  public CsvDataSetFormat() {
+    super();
+  }
+
+  @Override
+  public String getExtension() {
+    return ".csv";
+  }
+
+  @Override
+  public String getResourceName(final String baseName) {
+    return baseName + this.getExtension() + "/" + TABLE_ORDERING_FILE_NAME;
+  }
+
+  @Override
+  public IDataSetProducer getProducer(final URL url) throws DataSetException {
+    if (url == null) {
+      throw new IllegalArgumentException("url", new NullPointerException("url == null"));
+    }
+    return new Producer(url, this.getExtension());
+  }
+
+  /**
+   * An {@link IDataSetProducer} that reads a CSV dataset directory
+   * given the {@link URL} of its table ordering file.
+   */
+  private static final class Producer implements IDataSetProducer {
+
+    private final URL tableOrderingUrl;
+
+    private final String extension;
+
+    private IDataSetConsumer consumer;
+
+    private Producer(final URL tableOrderingUrl, final String extension) {
+      super();
+      assert tableOrderingUrl != null;
+      assert extension != null;
+      this.tableOrderingUrl = tableOrderingUrl;
+      this.extension = extension;
+      this.consumer = new DefaultConsumer();
+    }
+
+    @Override
+    public final void setConsumer(final IDataSetConsumer consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public final void produce() throws DataSetException {
+      final List<String> tableNames = new ArrayList<String>();
+      try {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(this.tableOrderingUrl.openStream(), "UTF-8"));
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+              tableNames.add(line);
+            }
+          }
+        } finally {
+          reader.close();
+        }
+      } catch (final IOException e) {
+        throw new DataSetException("Could not read " + this.tableOrderingUrl, e);
+      }
+      this.consumer.startDataSet();
+      for (final String tableName : tableNames) {
+        URL tableUrl = null;
+        try {
+          tableUrl = new URL(this.tableOrderingUrl, tableName + this.extension);
+        } catch (final MalformedURLException e) {
+          throw new DataSetException("Bad table name in " + this.tableOrderingUrl + ": " + tableName, e);
+        }
+        try {
+          final Reader reader = new InputStreamReader(tableUrl.openStream(), "UTF-8");
+          try {
+            this.produce(tableName, new CsvReader(reader));
+          } finally {
+            reader.close();
+          }
+        } catch (final IOException e) {
+          throw new DataSetException("Could not read " + tableUrl, e);
+        }
+      }
+      this.consumer.endDataSet();
+    }
+
+    private final void produce(final String tableName, final CsvReader reader) throws DataSetException, IOException {
+      assert tableName != null;
+      assert reader != null;
+      final List<String> fields = new ArrayList<String>();
+      if (!reader.readRecord(fields)) {
+        throw new DataSetException("No column names found for table " + tableName);
+      }
+      final Column[] columns = new Column[fields.size()];
+      for (int i = 0; i < columns.length; i++) {
+        final String columnName = fields.get(i);
+        if (columnName == null) {
+          throw new DataSetException("Null column name found for table " + tableName);
+        }
+        columns[i] = new Column(columnName.trim(), DataType.UNKNOWN);
+      }
+      this.consumer.startTable(new DefaultTableMetaData(tableName, columns));
+      int row = 0;
+      while (reader.readRecord(fields)) {
+        row++;
+        if (fields.size() != columns.length) {
+          throw new DataSetException("Row " + row + " of table " + tableName + " has " + fields.size() + " values; expected " + columns.length);
+        }
+        this.consumer.row(fields.toArray());
+      }
+      this.consumer.endTable();
+    }
+
+  }
+
+  /**
+   * A minimal reader of RFC 4180-style CSV records.
+   */
+  private static final class CsvReader {
+
+    private final Reader reader;
+
+    private final char[] buffer;
+
+    private final StringBuilder field;
+
+    private int position;
+
+    private int limit;
+
+    private CsvReader(final Reader reader) {
+      super();
+      assert reader != null;
+      this.reader = reader;
+      this.buffer = new char[8192];
+      this.field = new StringBuilder();
+    }
+
+    private final int read() throws IOException {
+      if (this.position >= this.limit) {
+        this.limit = this.reader.read(this.buffer, 0, this.buffer.length);
+        this.position = 0;
+        if (this.limit <= 0) {
+          this.limit = 0;
+          return -1;
+        }
+      }
+      return this.buffer[this.position++];
+    }
+
+    /**
+     * Reads the next non-blank record into the supplied {@link List},
+     * clearing it first.
+     *
+     * @return {@code false} if there are no more records
+     */
+    private final boolean readRecord(final List<String> fields) throws IOException {
+      assert fields != null;
+      fields.clear();
+      boolean returnValue = false;
+      boolean quoted = false;
+      boolean wasQuoted = false;
+      boolean endOfRecord = false;
+      this.field.setLength(0);
+      while (!endOfRecord) {
+        int c = this.read();
+        if (quoted) {
+          if (c < 0) {
+            throw new IOException("Unterminated quoted field");
+          } else if (c == '"') {
+            c = this.read();
+            if (c == '"') {
+              this.field.append('"');
+            } else {
+              quoted = false;
+              if (c >= 0) {
+                this.position--;
+              }
+            }
+          } else {
+            this.field.append((char)c);
+          }
+        } else if (c == '"' && this.field.length() == 0) {
+          quoted = true;
+          wasQuoted = true;
+          returnValue = true;
+        } else if (c == ',') {
+          fields.add(this.getField(wasQuoted));
+          wasQuoted = false;
+          returnValue = true;
+        } else if (c < 0 || c == '\n' || c == '\r') {
+          if (c == '\r') {
+            c = this.read();
+            if (c >= 0 && c != '\n') {
+              this.position--;
+            }
+          }
+          if (returnValue || this.field.length() > 0) {
+            fields.add(this.getField(wasQuoted));
+            returnValue = true;
+            endOfRecord = true;
+          } else if (c < 0) {
+            endOfRecord = true;
+          }
+          // Otherwise the line was blank; keep reading.
+        } else {
+          this.field.append((char)c);
+          returnValue = true;
+        }
+      }
+      return returnValue;
+    }
+
+    private final String getField(final boolean quoted) {
+      final String returnValue;
+      if (!quoted && this.field.length() == NULL.length() && NULL.contentEquals(this.field)) {
+        returnValue = null;
+      } else {
+        returnValue = this.field.toString();
+      }
+      this.field.setLength(0);
+      return returnValue;
+    }
+
+  }
+
+}
@@ -0,0 +1,96 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.net.URL;
+
+import org.dbunit.dataset.DataSetException;
+
+import org.dbunit.dataset.stream.IDataSetProducer;
+
+/**
+ * A format in which a dataset may be stored as one or more classpath
+ * resources.
+ *
+ * <p>A {@link DataSetLocator} probes its {@linkplain
+ * DataSetLocator#getFormats() formats} in order for each candidate
+ * dataset name and reads the first dataset it finds.  Implementations
+ * listed in a <tt>META-INF/services/com.edugility.junit.dbunit.DataSetFormat</tt>
+ * resource are {@linkplain DataSetLocator#getDefaultFormats()
+ * available by default}, so parsers for further formats can be
+ * plugged in without code changes.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DataSetLocator#setFormats(java.util.List)
+ */
+public interface DataSetFormat {
+
+  /**
+   * Returns the file extension, including its leading period, that
+   * identifies this format, such as <tt>.xml</tt>.  No two formats
+   * used by the same {@link DataSetLocator} may share an extension.
+   *
+   * @return a non-{@code null} file extension
+   */
+  public String getExtension();
+
+  /**
+   * Returns the name of the classpath resource whose presence
+   * indicates that a dataset with the supplied base name exists in
+   * this format.  For single-file formats this is the base name
+   * followed by this format's {@linkplain #getExtension() extension}.
+   *
+   * @param baseName the name of the dataset without any extension,
+   * such as <tt>/datasets/TestCaseFoo</tt>; must not be {@code null}
+   *
+   * @return a non-{@code null} classpath resource name
+   */
+  public String getResourceName(final String baseName);
+
+  /**
+   * Returns a new {@link IDataSetProducer} that will read the
+   * dataset identified by the supplied {@link URL}, which designates
+   * a resource named as {@linkplain #getResourceName(String) this
+   * format dictates}.
+   *
+   * <p>The {@link IDataSetProducer} will be used at most once, either
+   * to populate an in-memory dataset or to {@linkplain
+   * DataSetLocator#streamDataSet(URL) stream} one.</p>
+   *
+   * @param url the {@link URL} of the dataset; must not be {@code
+   * null}
+   *
+   * @return a non-{@code null} {@link IDataSetProducer}
+   *
+   * @exception DataSetException if the dataset could not be opened
+   */
+  public IDataSetProducer getProducer(final URL url) throws DataSetException;
+
+}
@@ -27,15 +27,45 @@
  */
 package com.edugility.junit.dbunit;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Serializable;
 
+import java.lang.ref.SoftReference;
+
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.dbunit.dataset.CachedDataSet;
 import org.dbunit.dataset.DefaultDataSet;
 import org.dbunit.dataset.IDataSet;
 import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableMetaData;
+
+import org.dbunit.dataset.stream.StreamingDataSet;
 
-import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
 
 import org.junit.runner.Description;
 
@@ -46,29 +76,323 @@ public class DataSetLocator implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  /**
+   * The maximum number of parsed {@link IDataSet}s that will be
+   * retained by the {@linkplain #buildDataSet(URL) JVM-wide dataset
+   * cache}.
+   */
+  public static final int MAX_CACHED_DATA_SETS = 64;
+
+  /**
+   * A JVM-wide, least-recently-used cache of parsed {@link
+   * IDataSet}s indexed by the {@linkplain URL#toExternalForm()
+   * external form} of the {@link URL} they were parsed from.  Values
+   * are softly referenced so that the garbage collector may reclaim
+   * them under memory pressure.  All access must be synchronized on
+   * this field.
+   */
+  private static final Map<String, SoftReference<ParsedDataSet>> dataSets = new LinkedHashMap<String, SoftReference<ParsedDataSet>>(16, 0.75F, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected final boolean removeEldestEntry(final Map.Entry<String, SoftReference<ParsedDataSet>> eldest) {
+      return this.size() > MAX_CACHED_DATA_SETS;
+    }
+  };
+
+  /**
+   * The name of the optional classpath resource that lists every
+   * dataset resource under <tt>/datasets/</tt>, one per line,
+   * relative to <tt>/datasets/</tt>.
+   *
+   * <p>When this resource is present, resources under
+   * <tt>/datasets/</tt> that it lists are located by consulting it
+   * rather than by searching the classpath.  Resources that it does
+   * not list, perhaps because it is out of date or because they live
+   * in a different classpath root, are still searched for on the
+   * classpath, and a warning is logged if one is found.  It can be
+   * generated at build time, for
+   * example during the <tt>process-test-resources</tt> phase, by
+   * running this class's {@link #main(String[])} method with the
+   * output <tt>datasets</tt> directory as its sole argument.</p>
+   *
+   * @see #writeIndex(File)
+   */
+  public static final String INDEX_RESOURCE_NAME = "/datasets/index.lst";
+
+  /**
+   * The suffix that, appended to the name of a flat XML dataset
+   * resource, names its gzip-compressed form.  A compressed dataset
+   * is used when its uncompressed form cannot be found.
+   */
+  public static final String GZIP_SUFFIX = ".gz";
+
+  /**
+   * A JVM-wide memo of dataset resolutions.  Keys are {@link List}s
+   * consisting of the name of the {@link DataSetLocator} class, its
+   * class and method templates, and the simple test class and method
+   * names; values record the resource name that was chosen and its
+   * {@link URL}, which may be {@code null} when no dataset was
+   * found.
+   */
+  private static final ConcurrentMap<List<String>, ResolvedDataSet> resolvedDataSets = new ConcurrentHashMap<List<String>, ResolvedDataSet>();
+
+  /**
+   * The contents of the {@linkplain #INDEX_RESOURCE_NAME dataset
+   * index}, or {@link Collections#emptySet()} if there is none, or
+   * {@code null} if it has not yet been loaded.
+   */
+  private static volatile Set<String> index;
+
+  /**
+   * The {@linkplain #getDefaultFormats() default formats}, or {@code
+   * null} if they have not yet been discovered.
+   */
+  private static volatile List<DataSetFormat> defaultFormats;
+
   private final String classTemplate;
 
   private final String methodTemplate;
 
+  private boolean useCompiledDataSets;
+
+  private boolean streaming;
+
+  private List<DataSetFormat> formats;
+
+  /**
+   * Creates a new {@link DataSetLocator} that looks for a dataset
+   * named <tt>/datasets/<i>TestClass</i>/<i>testMethod</i></tt> and
+   * then for one named <tt>/datasets/<i>TestClass</i></tt>, in each
+   * of its {@linkplain #getFormats() formats}.
+   */
   public DataSetLocator() {
-    this("/datasets/%s.xml", "/datasets/%s/%s.xml");
+    this("/datasets/%s", "/datasets/%s/%s");
   }
 
   public DataSetLocator(final String classTemplate) {
-    this(classTemplate, "/datasets/%s/%s.xml");
+    this(classTemplate, "/datasets/%s/%s");
   }
 
+  /**
+   * Creates a new {@link DataSetLocator}.
+   *
+   * <p>Each template is a {@linkplain String#format(String, Object[])
+   * format string} that, given the simple name of a test class and,
+   * for the method template, the name of a test method, yields the
+   * name of a dataset.  If that name ends with the {@linkplain
+   * DataSetFormat#getExtension() extension} of one of this {@link
+   * DataSetLocator}'s {@linkplain #getFormats() formats}, such as
+   * <tt>.xml</tt>, it names a resource in that format; otherwise each
+   * format is probed in turn.</p>
+   *
+   * @param classTemplate the template naming a test class's dataset;
+   * may be {@code null} in which case <tt>/datasets/%s</tt> will be
+   * used
+   *
+   * @param methodTemplate the template naming a test method's
+   * dataset; may be {@code null} in which case only class datasets
+   * will be located
+   */
   public DataSetLocator(final String classTemplate, final String methodTemplate) {
     super();
     if (classTemplate == null) {
-      this.classTemplate = "/datasets/%s.xml";
+      this.classTemplate = "/datasets/%s";
     } else {
       this.classTemplate = classTemplate;
     }
     this.methodTemplate = methodTemplate;
   }
 
+  /**
+   * Returns {@code true} if this {@link DataSetLocator} reads the
+   * {@linkplain CompiledDataSet compiled form} of a flat XML dataset
+   * in preference to the XML itself.
+   *
+   * @return {@code true} if compiled datasets are used
+   *
+   * @see #setUseCompiledDataSets(boolean)
+   */
+  public boolean isUseCompiledDataSets() {
+    return this.useCompiledDataSets;
+  }
+
+  /**
+   * Sets whether this {@link DataSetLocator} reads the {@linkplain
+   * CompiledDataSet compiled form} of a flat XML dataset in
+   * preference to the XML itself.
+   *
+   * <p>When enabled, a compiled dataset is used if it exists and is
+   * at least as new as its XML file.  Otherwise, if the XML file is
+   * an ordinary file, it is compiled on first use next to the XML
+   * file, which for test resources is beneath <tt>target/</tt>.  If
+   * neither is possible the XML is parsed as usual.</p>
+   *
+   * @param useCompiledDataSets whether compiled datasets should be
+   * used
+   *
+   * @see CompiledDataSet
+   */
+  public void setUseCompiledDataSets(final boolean useCompiledDataSets) {
+    this.useCompiledDataSets = useCompiledDataSets;
+  }
+
+  /**
+   * Returns {@code true} if {@link #findDataSet(Description)} returns
+   * {@linkplain #streamDataSet(URL) streaming} {@link IDataSet}s.
+   *
+   * @return {@code true} if this {@link DataSetLocator} streams
+   * datasets
+   *
+   * @see #setStreaming(boolean)
+   */
+  public boolean isStreaming() {
+    return this.streaming;
+  }
+
+  /**
+   * Sets whether {@link #findDataSet(Description)} returns
+   * {@linkplain #streamDataSet(URL) streaming} {@link IDataSet}s
+   * rather than parsed ones.
+   *
+   * @param streaming whether to stream datasets
+   *
+   * @see #streamDataSet(URL)
+   */
+  public void setStreaming(final boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  /**
+   * Returns the {@link DataSetFormat}s this {@link DataSetLocator}
+   * probes for datasets, in priority order.
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of {@link
+   * DataSetFormat}s
+   *
+   * @see #setFormats(List)
+   */
+  public List<DataSetFormat> getFormats() {
+    final List<DataSetFormat> returnValue;
+    if (this.formats == null) {
+      returnValue = getDefaultFormats();
+    } else {
+      returnValue = this.formats;
+    }
+    return returnValue;
+  }
+
+  /**
+   * Sets the {@link DataSetFormat}s this {@link DataSetLocator}
+   * probes for datasets, in priority order.
+   *
+   * @param formats the {@link DataSetFormat}s to use; may be {@code
+   * null} in which case the {@linkplain #getDefaultFormats() default
+   * formats} will be used
+   *
+   * @exception IllegalArgumentException if {@code formats} contains
+   * {@code null} or two formats with the same {@linkplain
+   * DataSetFormat#getExtension() extension}
+   */
+  public void setFormats(final List<? extends DataSetFormat> formats) {
+    if (formats == null) {
+      this.formats = null;
+    } else {
+      final Map<String, DataSetFormat> formatsByExtension = new LinkedHashMap<String, DataSetFormat>();
+      for (final DataSetFormat format : formats) {
+        if (format == null) {
+          throw new IllegalArgumentException("formats", new NullPointerException("format == null"));
+        }
+        if (formatsByExtension.put(format.getExtension(), format) != null) {
+          throw new IllegalArgumentException("Duplicate format extension: " + format.getExtension());
+        }
+      }
+      this.formats = Collections.unmodifiableList(new ArrayList<DataSetFormat>(formatsByExtension.values()));
+    }
+  }
+
+  /**
+   * Returns the {@link DataSetFormat}s used by {@link
+   * DataSetLocator}s whose {@linkplain #setFormats(List) formats have
+   * not been set}.
+   *
+   * <p>These are, in order, a {@link FlatXmlDataSetFormat}, a {@link
+   * CsvDataSetFormat} and any {@link DataSetFormat}s found by a
+   * {@link ServiceLoader}.  A discovered format replaces, in place,
+   * any earlier one with the same {@linkplain
+   * DataSetFormat#getExtension() extension}.</p>
+   *
+   * @return a non-{@code null}, unmodifiable {@link List} of {@link
+   * DataSetFormat}s
+   */
+  public static final List<DataSetFormat> getDefaultFormats() {
+    List<DataSetFormat> formats = defaultFormats;
+    if (formats == null) {
+      final Map<String, DataSetFormat> formatsByExtension = new LinkedHashMap<String, DataSetFormat>();
+      final DataSetFormat flatXml = new FlatXmlDataSetFormat();
+      formatsByExtension.put(flatXml.getExtension(), flatXml);
+      final DataSetFormat csv = new CsvDataSetFormat();
+      formatsByExtension.put(csv.getExtension(), csv);
+      for (final DataSetFormat format : ServiceLoader.load(DataSetFormat.class)) {
+        if (format != null) {
+          formatsByExtension.put(format.getExtension(), format);
+        }
+      }
+      formats = Collections.unmodifiableList(new ArrayList<DataSetFormat>(formatsByExtension.values()));
+      defaultFormats = formats;
+    }
+    return formats;
+  }
+
+  /**
+   * Returns the first of this {@link DataSetLocator}'s {@linkplain
+   * #getFormats() formats} that owns the supplied {@link URL}, which
+   * is to say that the {@link URL}'s path, without any {@link
+   * #GZIP_SUFFIX}, ends as {@linkplain
+   * DataSetFormat#getResourceName(String) that format's resource
+   * names} do, or a {@link FlatXmlDataSetFormat} if there is none.
+   */
+  private final DataSetFormat getFormat(final URL url) {
+    assert url != null;
+    String path = url.getPath();
+    if (path.endsWith(GZIP_SUFFIX)) {
+      path = path.substring(0, path.length() - GZIP_SUFFIX.length());
+    }
+    DataSetFormat returnValue = null;
+    for (final DataSetFormat format : this.getFormats()) {
+      if (path.endsWith(format.getResourceName(""))) {
+        returnValue = format;
+        break;
+      }
+    }
+    if (returnValue == null) {
+      returnValue = new FlatXmlDataSetFormat();
+    }
+    return returnValue;
+  }
+
   public IDataSet findDataSet(final Description description) throws DataSetException {
+    return this.findDataSet(description, this.isStreaming());
+  }
+
+  /**
+   * Locates the dataset for the supplied {@link Description} and
+   * returns it either {@linkplain #buildDataSet(URL) parsed} or
+   * {@linkplain #streamDataSet(URL) streaming}.
+   *
+   * @param description the {@link Description} of the test whose
+   * dataset should be found; must not be {@code null}
+   *
+   * @param streaming whether to return a streaming {@link IDataSet}
+   *
+   * @return a non-{@code null} {@link IDataSet}
+   *
+   * @exception IllegalArgumentException if {@code description} is
+   * {@code null}
+   *
+   * @exception DataSetException if the dataset could not be read
+   */
+  public IDataSet findDataSet(final Description description, final boolean streaming) throws DataSetException {
     final Logger logger = LoggerFactory.getLogger(DataSetLocator.class);
     if (logger != null && logger.isDebugEnabled()) {
       logger.debug("findDataSet() - start"); // we follow the dubious formatting and level choices of DBUnit here
@@ -86,36 +410,493 @@ public class DataSetLocator implements Serializable {
       classname = classname.substring(lastDotIndex + 1);
     }
 
-    String classpathResourceName = null;
-    URL dataSetUrl = null;
     final String methodName = description.getMethodName();
-    if (methodName == null || this.methodTemplate == null) {
-      classpathResourceName = String.format(this.classTemplate, classname);
-      dataSetUrl = this.getClass().getResource(classpathResourceName);
-    } else {
-      classpathResourceName = String.format(this.methodTemplate, classname, methodName);
-      dataSetUrl = this.getClass().getResource(classpathResourceName);
-      if (dataSetUrl == null) {
-        classpathResourceName = String.format(this.classTemplate, classname);
-        dataSetUrl = this.getClass().getResource(classpathResourceName);
-      }
+    final StringBuilder extensions = new StringBuilder();
+    for (final DataSetFormat format : this.getFormats()) {
+      extensions.append(format.getExtension());
+    }
+    final List<String> key = Arrays.asList(this.getClass().getName(), this.classTemplate, this.methodTemplate, classname, methodName, extensions.toString());
+    ResolvedDataSet resolvedDataSet = resolvedDataSets.get(key);
+    if (resolvedDataSet == null) {
+      resolvedDataSet = this.resolve(classname, methodName);
+      assert resolvedDataSet != null;
+      resolvedDataSets.putIfAbsent(key, resolvedDataSet);
     }
+    final String classpathResourceName = resolvedDataSet.resourceName;
+    final URL dataSetUrl = resolvedDataSet.url;
     if (logger != null && logger.isDebugEnabled()) {
       logger.debug("IDataSet URL: {} (from {})", dataSetUrl, classpathResourceName);
     }
 
-    final IDataSet returnValue = this.buildDataSet(dataSetUrl);
+    final IDataSet returnValue;
+    if (streaming) {
+      returnValue = this.streamDataSet(dataSetUrl);
+    } else {
+      returnValue = this.buildDataSet(dataSetUrl);
+    }
+    return returnValue;
+  }
+
+  private final ResolvedDataSet resolve(final String classname, final String methodName) {
+    ResolvedDataSet returnValue = null;
+    if (methodName == null || this.methodTemplate == null) {
+      returnValue = this.resolve(String.format(this.classTemplate, classname));
+    } else {
+      returnValue = this.resolve(String.format(this.methodTemplate, classname, methodName));
+      if (returnValue.url == null) {
+        returnValue = this.resolve(String.format(this.classTemplate, classname));
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Resolves the supplied dataset name, which either ends with the
+   * {@linkplain DataSetFormat#getExtension() extension} of one of
+   * this {@link DataSetLocator}'s {@linkplain #getFormats() formats}
+   * or is probed in each of them in turn.
+   */
+  private final ResolvedDataSet resolve(final String dataSetName) {
+    assert dataSetName != null;
+    ResolvedDataSet returnValue = null;
+    final List<DataSetFormat> formats = this.getFormats();
+    for (final DataSetFormat format : formats) {
+      if (dataSetName.endsWith(format.getExtension())) {
+        returnValue = this.resolveResource(dataSetName);
+        break;
+      }
+    }
+    if (returnValue == null) {
+      for (final DataSetFormat format : formats) {
+        final ResolvedDataSet candidate = this.resolveResource(format.getResourceName(dataSetName));
+        if (returnValue == null || candidate.url != null) {
+          returnValue = candidate;
+        }
+        if (candidate.url != null) {
+          break;
+        }
+      }
+    }
+    if (returnValue == null) {
+      returnValue = new ResolvedDataSet(dataSetName, null);
+    }
     return returnValue;
   }
 
+  private final ResolvedDataSet resolveResource(final String classpathResourceName) {
+    String resourceName = classpathResourceName;
+    URL url = this.getResource(resourceName);
+    if (url == null && resourceName != null) {
+      final String compressedResourceName = resourceName + GZIP_SUFFIX;
+      url = this.getResource(compressedResourceName);
+      if (url != null) {
+        resourceName = compressedResourceName;
+      }
+    }
+    return new ResolvedDataSet(resourceName, url);
+  }
+
+  private final URL getResource(final String classpathResourceName) {
+    URL url = null;
+    if (classpathResourceName != null) {
+      final String indexRoot = INDEX_RESOURCE_NAME.substring(0, INDEX_RESOURCE_NAME.lastIndexOf('/') + 1);
+      final Set<String> index = this.getIndex();
+      if (index.isEmpty() || !classpathResourceName.startsWith(indexRoot)) {
+        url = this.getClass().getResource(classpathResourceName);
+      } else {
+        final String relativeName = classpathResourceName.substring(indexRoot.length());
+        final boolean indexed = index.contains(relativeName);
+        if (indexed) {
+          final URL indexUrl = this.getClass().getResource(INDEX_RESOURCE_NAME);
+          if (indexUrl != null) {
+            try {
+              url = new URL(indexUrl, relativeName);
+            } catch (final MalformedURLException fallBack) {
+              url = null;
+            }
+          }
+        }
+        if (url == null) {
+          // Lookups are memoized, so each unlisted name is searched
+          // for at most once per test method.
+          url = this.getClass().getResource(classpathResourceName);
+          if (url != null && !indexed) {
+            final Logger logger = LoggerFactory.getLogger(DataSetLocator.class);
+            if (logger != null && logger.isWarnEnabled()) {
+              logger.warn("Dataset resource " + classpathResourceName + " is not listed in " + INDEX_RESOURCE_NAME + "; the index may be out of date");
+            }
+          }
+        }
+      }
+    }
+    return url;
+  }
+
+  private final Set<String> getIndex() {
+    Set<String> index = DataSetLocator.index;
+    if (index == null) {
+      index = Collections.emptySet();
+      final URL indexUrl = this.getClass().getResource(INDEX_RESOURCE_NAME);
+      if (indexUrl != null) {
+        final Set<String> entries = new HashSet<String>();
+        try {
+          final BufferedReader reader = new BufferedReader(new InputStreamReader(indexUrl.openStream(), "UTF-8"));
+          try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+              line = line.trim();
+              if (!line.isEmpty() && !line.startsWith("#")) {
+                entries.add(line);
+              }
+            }
+          } finally {
+            reader.close();
+          }
+          index = Collections.unmodifiableSet(entries);
+        } catch (final IOException ignoreIndex) {
+          final Logger logger = LoggerFactory.getLogger(DataSetLocator.class);
+          if (logger != null && logger.isWarnEnabled()) {
+            logger.warn("Could not read dataset index " + indexUrl + "; searching the classpath instead", ignoreIndex);
+          }
+        }
+      }
+      DataSetLocator.index = index;
+    }
+    return index;
+  }
+
+  /**
+   * Writes a {@linkplain #INDEX_RESOURCE_NAME dataset index} listing
+   * every file found beneath the supplied directory into that
+   * directory.
+   *
+   * @param datasetsDirectory the directory that will be available on
+   * the classpath as <tt>/datasets/</tt>; must not be {@code null}
+   *
+   * @exception IllegalArgumentException if {@code datasetsDirectory}
+   * is {@code null} or not a directory
+   *
+   * @exception IOException if the index could not be written
+   */
+  public static final void writeIndex(final File datasetsDirectory) throws IOException {
+    if (datasetsDirectory == null) {
+      throw new IllegalArgumentException("datasetsDirectory", new NullPointerException("datasetsDirectory == null"));
+    }
+    if (!datasetsDirectory.isDirectory()) {
+      throw new IllegalArgumentException("!datasetsDirectory.isDirectory(): " + datasetsDirectory);
+    }
+    final String indexFileName = INDEX_RESOURCE_NAME.substring(INDEX_RESOURCE_NAME.lastIndexOf('/') + 1);
+    final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(datasetsDirectory, indexFileName)), "UTF-8"));
+    try {
+      writeIndex(datasetsDirectory, "", indexFileName, writer);
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static final void writeIndex(final File directory, final String prefix, final String indexFileName, final PrintWriter writer) {
+    final File[] files = directory.listFiles();
+    if (files != null) {
+      Arrays.sort(files);
+      for (final File file : files) {
+        if (file.isDirectory()) {
+          writeIndex(file, prefix + file.getName() + "/", indexFileName, writer);
+        } else if (!(prefix.isEmpty() && indexFileName.equals(file.getName()))) {
+          writer.println(prefix + file.getName());
+        }
+      }
+    }
+  }
+
+  /**
+   * Invokes the {@link #writeIndex(File)} method for each supplied
+   * directory name.
+   *
+   * @param args the names of directories that will be available on
+   * the classpath as <tt>/datasets/</tt>
+   *
+   * @exception IOException if an index could not be written
+   */
+  public static final void main(final String[] args) throws IOException {
+    if (args != null) {
+      for (final String arg : args) {
+        if (arg != null) {
+          writeIndex(new File(arg));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns an {@link IDataSet} representing the dataset located at
+   * the supplied {@link URL}, which is decompressed first if its name
+   * ends with {@link #GZIP_SUFFIX}.  The dataset is read by whichever
+   * of this {@link DataSetLocator}'s {@linkplain #getFormats()
+   * formats} owns the {@link URL}, or as flat XML if none does.
+   *
+   * <p>Parsed datasets are cached for the life of the JVM, subject to
+   * {@linkplain #MAX_CACHED_DATA_SETS a size bound} and to reclamation
+   * by the garbage collector.  A cached dataset is reparsed if the
+   * last-modified time of its {@link URL} changes; a {@linkplain
+   * CsvDataSetFormat CSV dataset} stored in a directory is reparsed if
+   * any file in that directory changes.  Each call returns
+   * a new {@link IDataSet} that shares the cached {@link ITable}s, so
+   * repeated calls neither reparse the XML nor reallocate its rows.
+   * The shared {@link ITable}s are read-only views, so a test cannot
+   * alter the dataset seen by the tests that follow it.</p>
+   *
+   * <p>If this {@link DataSetLocator} {@linkplain
+   * #isUseCompiledDataSets() uses compiled datasets}, the {@linkplain
+   * CompiledDataSet compiled form} of the dataset is read in
+   * preference to the XML.</p>
+   *
+   * @param dataSetURL the {@link URL} of a dataset; may be {@code
+   * null} in which case an empty {@link IDataSet} will be returned
+   *
+   * @return a non-{@code null} {@link IDataSet}
+   *
+   * @exception DataSetException if the dataset could not be parsed
+   */
   public IDataSet buildDataSet(final URL dataSetURL) throws DataSetException {
     final IDataSet returnValue;
     if (dataSetURL == null) {
       returnValue = new DefaultDataSet();
     } else {
-      returnValue = new FlatXmlDataSetBuilder().build(dataSetURL);
+      final String key = dataSetURL.toExternalForm();
+      final DataSetFormat format = this.getFormat(dataSetURL);
+      final long lastModified = getLastModified(format, dataSetURL);
+      ParsedDataSet parsedDataSet = null;
+      synchronized (dataSets) {
+        final SoftReference<ParsedDataSet> ref = dataSets.get(key);
+        if (ref != null) {
+          parsedDataSet = ref.get();
+          if (parsedDataSet == null || parsedDataSet.lastModified != lastModified) {
+            dataSets.remove(key);
+            parsedDataSet = null;
+          }
+        }
+      }
+      if (parsedDataSet == null) {
+        ITable[] tables = null;
+        if (this.isUseCompiledDataSets() && format instanceof FlatXmlDataSetFormat) {
+          tables = getCompiledTables(dataSetURL, lastModified);
+        }
+        if (tables == null) {
+          tables = new CachedDataSet(format.getProducer(dataSetURL)).getTables();
+          for (int i = 0; i < tables.length; i++) {
+            tables[i] = new ReadOnlyTable(tables[i]);
+          }
+        }
+        parsedDataSet = new ParsedDataSet(lastModified, tables);
+        synchronized (dataSets) {
+          dataSets.put(key, new SoftReference<ParsedDataSet>(parsedDataSet));
+        }
+      }
+      returnValue = new DefaultDataSet(parsedDataSet.tables);
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns a streaming {@link IDataSet} representing the dataset
+   * located at the supplied {@link URL}, which is decompressed first
+   * if its name ends with {@link #GZIP_SUFFIX}.  The dataset is read
+   * by whichever of this {@link DataSetLocator}'s {@linkplain
+   * #getFormats() formats} owns the {@link URL}, or as flat XML if
+   * none does.
+   *
+   * <p>The dataset is parsed in the background as the returned {@link
+   * IDataSet} is iterated, and only a bounded number of rows is held
+   * in memory at any one time, so datasets of any size can be loaded.
+   * In exchange, the returned {@link IDataSet} can be iterated only
+   * once, forwards, and its tables can neither be looked up by name
+   * nor report their row counts.  Streaming datasets are not
+   * cached.</p>
+   *
+   * @param dataSetURL the {@link URL} of a dataset; may be {@code
+   * null} in which case an empty {@link IDataSet} will be returned
+   *
+   * @return a non-{@code null} {@link IDataSet}
+   *
+   * @exception DataSetException if the dataset could not be opened
+   *
+   * @see BatchInsertOperation#STREAMING_CLEAN_INSERT
+   */
+  public IDataSet streamDataSet(final URL dataSetURL) throws DataSetException {
+    final IDataSet returnValue;
+    if (dataSetURL == null) {
+      returnValue = new DefaultDataSet();
+    } else {
+      returnValue = new StreamingDataSet(this.getFormat(dataSetURL).getProducer(dataSetURL));
     }
     return returnValue;
   }
 
+  /**
+   * Parses the flat XML dataset located at the supplied {@link URL},
+   * decompressing it first if its name ends with {@link
+   * #GZIP_SUFFIX}.
+   */
+  static final IDataSet parse(final URL dataSetURL) throws DataSetException {
+    assert dataSetURL != null;
+    return new CachedDataSet(new FlatXmlDataSetFormat().getProducer(dataSetURL));
+  }
+
+  /**
+   * Returns the tables of the {@linkplain CompiledDataSet compiled
+   * form} of the flat XML dataset at the supplied {@link URL},
+   * compiling it first if necessary and possible, or {@code null} if
+   * there is no usable compiled form.
+   */
+  private static final ITable[] getCompiledTables(final URL dataSetURL, final long lastModified) throws DataSetException {
+    assert dataSetURL != null;
+    ITable[] tables = null;
+    URL compiledURL = null;
+    try {
+      compiledURL = new URL(dataSetURL.toExternalForm() + CompiledDataSet.SUFFIX);
+    } catch (final MalformedURLException ignore) {
+      compiledURL = null;
+    }
+    if (compiledURL != null) {
+      final long compiledLastModified = getLastModified(compiledURL);
+      if (compiledLastModified > 0L && compiledLastModified >= lastModified) {
+        tables = CompiledDataSet.read(compiledURL);
+      } else if ("file".equals(dataSetURL.getProtocol())) {
+        try {
+          CompiledDataSet.compile(toFile(dataSetURL));
+          tables = CompiledDataSet.read(compiledURL);
+        } catch (final IOException ohWell) {
+          final Logger logger = LoggerFactory.getLogger(DataSetLocator.class);
+          if (logger != null && logger.isWarnEnabled()) {
+            logger.warn("Could not compile dataset " + dataSetURL + "; parsing it instead", ohWell);
+          }
+          tables = null;
+        }
+      }
+    }
+    return tables;
+  }
+
+  private static final File toFile(final URL url) {
+    assert url != null;
+    File file;
+    try {
+      file = new File(url.toURI());
+    } catch (final URISyntaxException badUrl) {
+      file = new File(url.getPath());
+    }
+    return file;
+  }
+
+  private static final long getLastModified(final DataSetFormat format, final URL url) {
+    assert url != null;
+    long lastModified = getLastModified(url);
+    if (format instanceof CsvDataSetFormat && "file".equals(url.getProtocol())) {
+      // The URL designates the table ordering file; the tables
+      // themselves are its siblings and may change independently.
+      final File[] files = toFile(url).getParentFile().listFiles();
+      if (files != null) {
+        for (final File file : files) {
+          if (file != null) {
+            lastModified = Math.max(lastModified, file.lastModified());
+          }
+        }
+      }
+    }
+    return lastModified;
+  }
+
+  private static final long getLastModified(final URL url) {
+    assert url != null;
+    long lastModified = 0L;
+    if ("file".equals(url.getProtocol())) {
+      lastModified = toFile(url).lastModified();
+    } else {
+      try {
+        final URLConnection connection = url.openConnection();
+        assert connection != null;
+        lastModified = connection.getLastModified();
+      } catch (final IOException ohWell) {
+        lastModified = 0L;
+      }
+    }
+    return lastModified;
+  }
+
+  /**
+   * The outcome of resolving a test class and method to a dataset
+   * resource.
+   */
+  private static final class ResolvedDataSet {
+
+    private final String resourceName;
+
+    private final URL url;
+
+    private ResolvedDataSet(final String resourceName, final URL url) {
+      super();
+      this.resourceName = resourceName;
+      this.url = url;
+    }
+
+  }
+
+  /**
+   * A read-only view of a parsed {@link ITable}.  The {@link ITable}s
+   * produced by {@link CachedDataSet} are mutable {@link
+   * org.dbunit.dataset.DefaultTable}s; wrapping them keeps the cached
+   * copies from being modified through the {@link IDataSet}s that
+   * share them.
+   */
+  private static final class ReadOnlyTable implements ITable {
+
+    private final ITable delegate;
+
+    private ReadOnlyTable(final ITable delegate) {
+      super();
+      assert delegate != null;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public final ITableMetaData getTableMetaData() {
+      return this.delegate.getTableMetaData();
+    }
+
+    @Override
+    public final int getRowCount() {
+      return this.delegate.getRowCount();
+    }
+
+    @Override
+    public final Object getValue(final int row, final String columnName) throws DataSetException {
+      return this.delegate.getValue(row, columnName);
+    }
+
+    @Override
+    public final String toString() {
+      return this.delegate.toString();
+    }
+
+  }
+
+  /**
+   * The parsed or compiled tables of a flat XML dataset together with
+   * the last-modified time of the {@link URL} they were parsed from.
+   */
+  private static final class ParsedDataSet {
+
+    private final long lastModified;
+
+    private final ITable[] tables;
+
+    private ParsedDataSet(final long lastModified, final ITable[] tables) {
+      super();
+      assert tables != null;
+      this.lastModified = lastModified;
+      this.tables = tables;
+    }
+
+  }
+
 }
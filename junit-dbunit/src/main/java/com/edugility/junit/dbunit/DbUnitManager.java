@@ -27,16 +27,33 @@
  */
 package com.edugility.junit.dbunit;
 
+import java.lang.ref.WeakReference;
+
 import java.lang.reflect.Field;
 
 import java.sql.Connection;
-
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.edugility.junit.db.ConnectionDescriptor;
 import com.edugility.junit.db.DBRule;
 import com.edugility.junit.db.DBRule.AbstractDBManager;
+import com.edugility.junit.db.DBRule.FieldFilter;
 
 import org.dbunit.AbstractDatabaseTester;
 import org.dbunit.IDatabaseTester;
@@ -48,23 +65,43 @@ import org.dbunit.PropertiesBasedJdbcDatabaseTester;
 import org.dbunit.database.DatabaseConnection;
 import org.dbunit.database.IDatabaseConnection;
 
+import org.dbunit.dataset.FilteredDataSet;
 import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+
+import org.dbunit.dataset.stream.StreamingDataSet;
 
 import org.dbunit.operation.DatabaseOperation;
 
 import org.junit.runner.Description;
 
-import org.junit.runners.model.FrameworkField;
 import org.junit.runners.model.TestClass;
 
 import static org.junit.Assert.assertNotNull;
 
 public class DbUnitManager extends AbstractDBManager implements IDatabaseTester {
 
+  /**
+   * A JVM-wide record of the state in which a {@link DbUnitManager}
+   * with {@linkplain #isDirtyTableTracking() dirty table tracking}
+   * enabled last left each table it set up.  Keys are {@link List}s
+   * consisting of the database URL, the user name and the schema;
+   * values are indexed by upper-case table name.
+   */
+  private static final ConcurrentMap<List<String>, ConcurrentMap<String, TableState>> tableStates = new ConcurrentHashMap<List<String>, ConcurrentMap<String, TableState>>();
+
   public final IDatabaseTester delegate;
 
   private transient boolean dataSetWasNull;
 
+  private boolean dirtyTableTracking;
+
+  private boolean streaming;
+
+  private DatabaseOperation setUpOperation = DatabaseOperation.CLEAN_INSERT;
+
+  private DatabaseOperation tearDownOperation = DatabaseOperation.NONE;
+
   private DataSetLocator locator;
 
   private final Object id;
@@ -185,12 +222,96 @@ public class DbUnitManager extends AbstractDBManager implements IDatabaseTester
     this.locator = locator;
   }
 
+  /**
+   * Returns {@code true} if this {@link DbUnitManager} applies its
+   * setup and teardown operations only to those tables of its {@link
+   * IDataSet} that have been modified since it last set them up.
+   *
+   * @return {@code true} if dirty table tracking is enabled
+   *
+   * @see #setDirtyTableTracking(boolean)
+   */
+  public boolean isDirtyTableTracking() {
+    return this.dirtyTableTracking;
+  }
+
+  /**
+   * Sets whether this {@link DbUnitManager} applies its setup and
+   * teardown operations only to those tables of its {@link IDataSet}
+   * that have been modified since it last set them up.
+   *
+   * <p>Dirty table tracking is currently supported only for H2
+   * databases, whose {@code INFORMATION_SCHEMA.TABLES} view records
+   * when each table was last modified; on other databases this
+   * setting has no effect.  A table is considered dirty if it has
+   * been modified by anyone, its row count has changed, or it was
+   * last set up from a different {@link ITable}, since any {@link
+   * DbUnitManager} with dirty table tracking enabled last set it up
+   * in the same database.  This record is kept for the life of the
+   * JVM, so it survives from one test's {@link DbUnitManager} to the
+   * next.</p>
+   *
+   * <p>Dirty table tracking relies on knowing this {@link
+   * DbUnitManager}'s setup and teardown operations, so they must have
+   * been set via {@link #setSetUpOperation(DatabaseOperation)} and
+   * {@link #setTearDownOperation(DatabaseOperation)} if they differ
+   * from DbUnit's defaults.</p>
+   *
+   * @param dirtyTableTracking whether to enable dirty table tracking
+   */
+  public void setDirtyTableTracking(final boolean dirtyTableTracking) {
+    this.dirtyTableTracking = dirtyTableTracking;
+  }
+
+  /**
+   * Returns {@code true} if this {@link DbUnitManager} streams the
+   * datasets it {@linkplain #findDataSet() finds} into the database
+   * rather than parsing them into memory first.
+   *
+   * @return {@code true} if datasets are streamed
+   *
+   * @see #setStreaming(boolean)
+   */
+  public boolean isStreaming() {
+    return this.streaming;
+  }
+
+  /**
+   * Sets whether this {@link DbUnitManager} streams the datasets it
+   * {@linkplain #findDataSet() finds} into the database rather than
+   * parsing them into memory first, so that fixtures of any size can
+   * be loaded in constant memory.
+   *
+   * <p>A {@linkplain DataSetLocator#streamDataSet(java.net.URL)
+   * streaming dataset} can be read only once, forwards, so the setup
+   * operation must be one that can cope with that.  If the setup
+   * operation is DbUnit's default {@link
+   * DatabaseOperation#CLEAN_INSERT}, enabling streaming replaces it
+   * with {@link BatchInsertOperation#STREAMING_CLEAN_INSERT}, and
+   * disabling streaming again restores it.  Any {@link IDataSet}
+   * {@linkplain DataSet injected} into the test will already have been
+   * read, teardown operations other than {@link
+   * DatabaseOperation#NONE} cannot be used, and {@linkplain
+   * #setDirtyTableTracking(boolean) dirty table tracking} has no
+   * effect.</p>
+   *
+   * @param streaming whether to stream datasets
+   */
+  public void setStreaming(final boolean streaming) {
+    this.streaming = streaming;
+    if (streaming && this.setUpOperation == DatabaseOperation.CLEAN_INSERT) {
+      this.setSetUpOperation(BatchInsertOperation.STREAMING_CLEAN_INSERT);
+    } else if (!streaming && this.setUpOperation == BatchInsertOperation.STREAMING_CLEAN_INSERT) {
+      this.setSetUpOperation(DatabaseOperation.CLEAN_INSERT);
+    }
+  }
+
   public IDataSet findDataSet() throws Exception {
     DataSetLocator locator = this.getDataSetLocator();
     if (locator == null) {
       locator = new DataSetLocator();
     }
-    return locator.findDataSet(this.getDescription());
+    return locator.findDataSet(this.getDescription(), this.isStreaming() || locator.isStreaming());
   }
 
 
@@ -229,11 +350,13 @@ public class DbUnitManager extends AbstractDBManager implements IDatabaseTester
   @Override
   public final void setSetUpOperation(final DatabaseOperation setUpOperation) {
     this.delegate.setSetUpOperation(setUpOperation);
+    this.setUpOperation = setUpOperation;
   }
 
   @Override
   public final void setTearDownOperation(final DatabaseOperation tearDownOperation) {
     this.delegate.setTearDownOperation(tearDownOperation);
+    this.tearDownOperation = tearDownOperation;
   }
 
   @Override
@@ -263,7 +386,9 @@ public class DbUnitManager extends AbstractDBManager implements IDatabaseTester
     if (this.dataSetWasNull) {
       this.setDataSet(this.findDataSet());
     }
-    this.onSetup();
+    if (!this.isDirtyTableTracking() || !this.executeOnDirtyTables(this.setUpOperation, true)) {
+      this.onSetup();
+    }
   }
 
   @Override
@@ -276,58 +401,232 @@ public class DbUnitManager extends AbstractDBManager implements IDatabaseTester
     this.inject(null);
   }
 
+  /**
+   * Returns {@code true} if the {@link IDataSet} this {@link
+   * DbUnitManager} loads should be injected into a field or parameter
+   * annotated with the supplied {@link DataSet} annotation.
+   *
+   * <p>A {@link DataSet} whose {@linkplain DataSet#value() value} is
+   * empty designates the {@link IDataSet} of a {@link DbUnitManager}
+   * with no {@linkplain #getId() identifier}; otherwise the value
+   * must equal this {@link DbUnitManager}'s identifier.</p>
+   *
+   * @param dataSet the {@link DataSet} in question; may be {@code
+   * null} in which case it is treated as though its value were empty
+   *
+   * @return {@code true} if the supplied {@link DataSet} designates
+   * this {@link DbUnitManager}'s {@link IDataSet}; {@code false}
+   * otherwise
+   */
+  public boolean isTargetOf(final DataSet dataSet) {
+    boolean returnValue = false;
+    final Object id = this.getId();
+    final String value = dataSet == null ? null : dataSet.value();
+    if (id == null) {
+      if (value == null || value.isEmpty()) {
+        returnValue = true;
+      }
+    } else if (id.equals(value)) {
+      returnValue = true;
+    }
+    return returnValue;
+  }
+
   private final void inject(final IDataSet dataSet) throws Exception {
     final Object testInstance = this.getTestInstance();
     if (testInstance != null) {
       final Description description = this.getDescription();
       final TestClass testClass = DBRule.getTestClass(description);
       assertNotNull(testClass);
-        
-      final List<FrameworkField> annotatedFields = testClass.getAnnotatedFields(DataSet.class);
-      assertNotNull(annotatedFields);
-        
-      if (!annotatedFields.isEmpty()) {
-        for (final FrameworkField ff : annotatedFields) {
-          if (ff != null) {
-            final Field f = ff.getField();
-            if (f != null && IDataSet.class.isAssignableFrom(f.getType())) {
-              final DataSet dataSetAnnotation = f.getAnnotation(DataSet.class);
-              assertNotNull(dataSetAnnotation);
-
-              boolean inject = false;
-              final Object id = this.getId();
-              final String value = dataSetAnnotation.value();
-              if (id == null) {
-                if (value == null || value.isEmpty()) {
-                  inject = true;
+      final List<Field> fields = DBRule.getInjectableFields(testClass, DataSet.class, IDataSet.class, Arrays.asList(this.getId()), new FieldFilter() {
+          @Override
+          public final boolean accept(final Field f) {
+            final DataSet dataSetAnnotation = f.getAnnotation(DataSet.class);
+            assertNotNull(dataSetAnnotation);
+            return isTargetOf(dataSetAnnotation);
+          }
+        });
+      for (final Field f : fields) {
+        f.set(testInstance, dataSet);
+      }
+    }
+  }
+
+  @Override
+  public void reset() throws Exception {
+    if (!this.isDirtyTableTracking() || !this.executeOnDirtyTables(this.tearDownOperation, false)) {
+      this.onTearDown();
+    }
+    if (this.dataSetWasNull) {
+      this.setDataSet(null);
+    }
+  }
+
+
+  /**
+   * Executes the supplied {@link DatabaseOperation} against only those
+   * tables of this {@link DbUnitManager}'s {@link IDataSet} that are
+   * dirty, and, if {@code setUp} is {@code true}, records the state
+   * in which all of them are left.
+   *
+   * @return {@code true} if dirty table tracking was possible; {@code
+   * false} if the caller should fall back to executing the operation
+   * against all tables
+   */
+  private final boolean executeOnDirtyTables(final DatabaseOperation operation, final boolean setUp) throws Exception {
+    boolean returnValue = false;
+    final IDataSet dataSet = this.getDataSet();
+    // A streaming dataset cannot be filtered by table name.
+    if (operation != null && dataSet != null && !(dataSet instanceof StreamingDataSet)) {
+      final IDatabaseConnection connection = this.getConnection();
+      assertNotNull(connection);
+      try {
+        final Connection c = connection.getConnection();
+        if (Dialect.H2.equals(Dialect.forConnection(c))) {
+          returnValue = true;
+          final String schema = connection.getSchema();
+          final DatabaseMetaData metaData = c.getMetaData();
+          final List<String> key = Arrays.asList(metaData.getURL(), metaData.getUserName(), schema);
+          ConcurrentMap<String, TableState> states = tableStates.get(key);
+          if (states == null) {
+            final ConcurrentMap<String, TableState> newStates = new ConcurrentHashMap<String, TableState>();
+            states = tableStates.putIfAbsent(key, newStates);
+            if (states == null) {
+              states = newStates;
+            }
+          }
+
+          final String[] tableNames = dataSet.getTableNames();
+          Map<String, Long> modifications = getLastModifications(c, schema);
+          final Set<String> dirty = new HashSet<String>();
+          for (final String tableName : tableNames) {
+            final TableState state = states.get(tableName.toUpperCase());
+            if (state == null || !state.isCurrent(dataSet.getTable(tableName), modifications.get(tableName.toUpperCase()), getRowCount(c, schema, tableName))) {
+              dirty.add(tableName.toUpperCase());
+            }
+          }
+          if (!dirty.isEmpty()) {
+            // A dirty table cannot be emptied while clean tables still
+            // refer to it, so tables with foreign keys to dirty tables
+            // are dirty too.
+            final Set<String> unexamined = new HashSet<String>(dirty);
+            while (!unexamined.isEmpty()) {
+              final String table = unexamined.iterator().next();
+              unexamined.remove(table);
+              final ResultSet rs = metaData.getExportedKeys(c.getCatalog(), schema, table);
+              try {
+                while (rs.next()) {
+                  final String referencingTable = rs.getString("FKTABLE_NAME").toUpperCase();
+                  if (dirty.add(referencingTable)) {
+                    unexamined.add(referencingTable);
+                  }
                 }
-              } else if (id.equals(value)) {
-                inject = true;
+              } finally {
+                rs.close();
               }
+            }
+          }
+          final List<String> dirtyTableNames = new ArrayList<String>(dirty.size());
+          for (final String tableName : tableNames) {
+            if (dirty.contains(tableName.toUpperCase())) {
+              dirtyTableNames.add(tableName);
+            }
+          }
+          if (!dirtyTableNames.isEmpty() && operation != DatabaseOperation.NONE) {
+            operation.execute(connection, new FilteredDataSet(dirtyTableNames.toArray(new String[dirtyTableNames.size()]), dataSet));
+          }
 
-              if (inject) {
-                final boolean accessible = f.isAccessible();
-                f.setAccessible(true);
-                try {
-                  f.set(testInstance, dataSet);
-                } finally {
-                  f.setAccessible(accessible);
-                }
-                
+          if (setUp) {
+            modifications = getLastModifications(c, schema);
+            for (final String tableName : tableNames) {
+              final Long modification = modifications.get(tableName.toUpperCase());
+              if (modification == null) {
+                states.remove(tableName.toUpperCase());
+              } else {
+                states.put(tableName.toUpperCase(), new TableState(dataSet.getTable(tableName), modification.longValue(), getRowCount(c, schema, tableName)));
               }
             }
           }
         }
+      } finally {
+        connection.close();
+      }
+    }
+    return returnValue;
+  }
+
+  private static final Map<String, Long> getLastModifications(final Connection c, final String schema) throws SQLException {
+    assert c != null;
+    final Map<String, Long> returnValue = new HashMap<String, Long>();
+    final PreparedStatement ps = c.prepareStatement("SELECT TABLE_NAME, LAST_MODIFICATION FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = COALESCE(?, SCHEMA())");
+    try {
+      ps.setString(1, schema);
+      final ResultSet rs = ps.executeQuery();
+      try {
+        while (rs.next()) {
+          returnValue.put(rs.getString(1).toUpperCase(), Long.valueOf(rs.getLong(2)));
+        }
+      } finally {
+        rs.close();
+      }
+    } finally {
+      ps.close();
+    }
+    return returnValue;
+  }
+
+  private static final long getRowCount(final Connection c, final String schema, final String tableName) throws SQLException {
+    assert c != null;
+    assert tableName != null;
+    long returnValue = -1L;
+    final Statement s = c.createStatement();
+    try {
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM " + (schema == null ? tableName : schema + "." + tableName));
+      try {
+        if (rs.next()) {
+          returnValue = rs.getLong(1);
+        }
+      } finally {
+        rs.close();
       }
+    } catch (final SQLException noSuchTable) {
+      returnValue = -1L;
+    } finally {
+      s.close();
     }
+    return returnValue;
   }
 
-  @Override
-  public void reset() throws Exception {
-    this.onTearDown();
-    if (this.dataSetWasNull) {
-      this.setDataSet(null);
+  /**
+   * The state in which a {@link DbUnitManager} left a table after
+   * setting it up: the {@link ITable} it was set up from, H2's
+   * modification identifier for it, and its row count.
+   */
+  private static final class TableState {
+
+    private final WeakReference<ITable> table;
+
+    private final long lastModification;
+
+    private final long rowCount;
+
+    private TableState(final ITable table, final long lastModification, final long rowCount) {
+      super();
+      this.table = new WeakReference<ITable>(table);
+      this.lastModification = lastModification;
+      this.rowCount = rowCount;
+    }
+
+    private final boolean isCurrent(final ITable table, final Long lastModification, final long rowCount) {
+      return
+        table != null &&
+        table == this.table.get() &&
+        lastModification != null &&
+        lastModification.longValue() == this.lastModification &&
+        rowCount >= 0L &&
+        rowCount == this.rowCount;
     }
+
   }
 
 }
@@ -0,0 +1,124 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Database-specific SQL used by this package's {@link
+ * org.dbunit.operation.DatabaseOperation}s.
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see BatchInsertOperation
+ *
+ * @see TruncateOperation
+ */
+enum Dialect {
+
+  H2("SET REFERENTIAL_INTEGRITY FALSE", "SET REFERENTIAL_INTEGRITY TRUE"),
+
+  HSQLDB("SET DATABASE REFERENTIAL INTEGRITY FALSE", "SET DATABASE REFERENTIAL INTEGRITY TRUE"),
+
+  MYSQL("SET FOREIGN_KEY_CHECKS = 0", "SET FOREIGN_KEY_CHECKS = 1"),
+
+  POSTGRESQL(null, null),
+
+  OTHER(null, null);
+
+  private static final Logger logger = LoggerFactory.getLogger(Dialect.class);
+
+  private final String disable;
+
+  private final String enable;
+
+  private Dialect(final String disable, final String enable) {
+    this.disable = disable;
+    this.enable = enable;
+  }
+
+  /**
+   * Switches referential integrity checking off or on again, if this
+   * {@link Dialect} supports doing so and the database permits it.
+   *
+   * <p>On H2 and HSQLDB the setting applies to every connection to
+   * the database, and on H2 changing it commits the {@link
+   * Connection}'s current transaction.</p>
+   *
+   * @param c the {@link Connection} to use; must not be {@code null}
+   *
+   * @param enabled whether referential integrity checking should be
+   * enabled
+   *
+   * @return {@code true} if the setting was changed; {@code false}
+   * otherwise
+   */
+  final boolean setReferentialIntegrity(final Connection c, final boolean enabled) {
+    boolean returnValue = false;
+    final String sql = enabled ? this.enable : this.disable;
+    if (sql != null) {
+      try {
+        final Statement s = c.createStatement();
+        try {
+          s.execute(sql);
+          returnValue = true;
+        } finally {
+          s.close();
+        }
+      } catch (final SQLException notPermitted) {
+        logger.debug("Could not execute " + sql, notPermitted);
+      }
+    }
+    return returnValue;
+  }
+
+  static final Dialect forConnection(final Connection c) throws SQLException {
+    Dialect returnValue = OTHER;
+    final String productName = c.getMetaData().getDatabaseProductName();
+    if (productName != null) {
+      final String name = productName.toUpperCase();
+      if (name.startsWith("H2")) {
+        returnValue = H2;
+      } else if (name.startsWith("HSQL")) {
+        returnValue = HSQLDB;
+      } else if (name.startsWith("MYSQL")) {
+        returnValue = MYSQL;
+      } else if (name.startsWith("POSTGRESQL")) {
+        returnValue = POSTGRESQL;
+      }
+    }
+    return returnValue;
+  }
+
+}
@@ -0,0 +1,99 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+import java.net.URL;
+
+import java.util.zip.GZIPInputStream;
+
+import org.dbunit.dataset.DataSetException;
+
+import org.dbunit.dataset.stream.IDataSetProducer;
+
+import org.dbunit.dataset.xml.FlatXmlProducer;
+
+import org.xml.sax.InputSource;
+
+/**
+ * The {@link DataSetFormat} for DbUnit's flat XML datasets, which are
+ * decompressed first if their names end with {@link
+ * DataSetLocator#GZIP_SUFFIX}.
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ */
+public class FlatXmlDataSetFormat implements DataSetFormat, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public FlatXmlDataSetFormat() {
+    super();
+  }
+
+  @Override
+  public String getExtension() {
+    return ".xml";
+  }
+
+  @Override
+  public String getResourceName(final String baseName) {
+    return baseName + this.getExtension();
+  }
+
+  @Override
+  public IDataSetProducer getProducer(final URL url) throws DataSetException {
+    if (url == null) {
+      throw new IllegalArgumentException("url", new NullPointerException("url == null"));
+    }
+    InputStream stream = null;
+    try {
+      stream = url.openStream();
+      if (url.getPath().endsWith(DataSetLocator.GZIP_SUFFIX)) {
+        stream = new GZIPInputStream(stream);
+      }
+    } catch (final IOException e) {
+      if (stream != null) {
+        try {
+          stream.close();
+        } catch (final IOException ignore) {
+
+        }
+      }
+      throw new DataSetException("Could not open dataset " + url, e);
+    }
+    final InputSource source = new InputSource(stream);
+    // Allow relative DTD references to be resolved.
+    source.setSystemId(url.toExternalForm());
+    return new FlatXmlProducer(source);
+  }
+
+}
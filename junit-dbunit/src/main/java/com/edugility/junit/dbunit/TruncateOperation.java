@@ -0,0 +1,256 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.dbunit.DatabaseUnitException;
+
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.IDataSet;
+
+import org.dbunit.operation.AbstractOperation;
+import org.dbunit.operation.DatabaseOperation;
+
+/**
+ * A {@link DatabaseOperation} that empties the tables of an {@link
+ * IDataSet} with {@code TRUNCATE} statements, sent to the database
+ * as a single batch, so that tearing a dataset down costs time
+ * proportional to the number of its tables rather than the number of
+ * its rows.
+ *
+ * <p>Tables are emptied in foreign key order, children first.  That
+ * order is computed from {@link DatabaseMetaData} once per database
+ * schema and cached for the life of the JVM; it is recomputed only if
+ * an {@link IDataSet} names a table the cached order does not
+ * contain.  Referential integrity checking is switched off while the
+ * tables are emptied on databases that allow it (H2, HSQLDB and
+ * MySQL); PostgreSQL empties all of the tables with one {@code
+ * TRUNCATE} statement; other databases, which generally refuse to
+ * truncate tables that are referenced by foreign keys, fall back to
+ * {@code DELETE} statements.</p>
+ *
+ * <p>On H2 and HSQLDB the referential integrity setting applies to
+ * the whole database, so while the tables are emptied foreign keys
+ * are not checked for any other connection to the same database
+ * either, such as those of tests running in parallel against a
+ * shared catalog.</p>
+ *
+ * <p>To use it in place of DbUnit's own {@link
+ * DatabaseOperation#DELETE_ALL}:</p>
+ *
+ * <blockquote><pre>manager.setTearDownOperation(new TruncateOperation());</pre></blockquote>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see DbUnitManager#setTearDownOperation(DatabaseOperation)
+ */
+public class TruncateOperation extends AbstractOperation {
+
+  /**
+   * A JVM-wide cache of the names of all tables in a database schema,
+   * in the order in which they may safely be emptied.  Keys are
+   * {@link List}s consisting of the database URL, the user name, the
+   * catalog and the schema; table names are stored in upper case.
+   */
+  private static final ConcurrentMap<List<String>, List<String>> tableOrders = new ConcurrentHashMap<List<String>, List<String>>();
+
+  public TruncateOperation() {
+    super();
+  }
+
+  @Override
+  public void execute(final IDatabaseConnection connection, final IDataSet dataSet) throws DatabaseUnitException, SQLException {
+    if (connection == null) {
+      throw new IllegalArgumentException("connection", new NullPointerException("connection == null"));
+    }
+    if (dataSet == null) {
+      throw new IllegalArgumentException("dataSet", new NullPointerException("dataSet == null"));
+    }
+    final String[] tableNames = dataSet.getTableNames();
+    if (tableNames != null && tableNames.length > 0) {
+      final Connection c = connection.getConnection();
+      final List<String> tables = getOrderedTableNames(c, connection.getSchema(), tableNames);
+      final Dialect dialect = Dialect.forConnection(c);
+      final boolean integrityDisabled = dialect.setReferentialIntegrity(c, false);
+      try {
+        final Statement s = c.createStatement();
+        try {
+          if (Dialect.POSTGRESQL.equals(dialect)) {
+            final StringBuilder sql = new StringBuilder("TRUNCATE TABLE ");
+            for (int i = 0; i < tables.size(); i++) {
+              if (i > 0) {
+                sql.append(", ");
+              }
+              sql.append(this.getQualifiedName(connection.getSchema(), tables.get(i), connection));
+            }
+            s.addBatch(sql.toString());
+          } else {
+            final String prefix = integrityDisabled ? "TRUNCATE TABLE " : "DELETE FROM ";
+            for (final String table : tables) {
+              s.addBatch(prefix + this.getQualifiedName(connection.getSchema(), table, connection));
+            }
+          }
+          s.executeBatch();
+        } finally {
+          s.close();
+        }
+      } finally {
+        if (integrityDisabled) {
+          dialect.setReferentialIntegrity(c, true);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the supplied table names in the order in which their
+   * tables may safely be emptied, using the JVM-wide cache of schema
+   * table orders.
+   */
+  private static final List<String> getOrderedTableNames(final Connection c, final String schema, final String[] tableNames) throws SQLException {
+    assert c != null;
+    assert tableNames != null;
+    final DatabaseMetaData metaData = c.getMetaData();
+    final String catalog = c.getCatalog();
+    final List<String> key = Arrays.asList(metaData.getURL(), metaData.getUserName(), catalog, schema);
+    List<String> order = tableOrders.get(key);
+    if (order == null || !containsAll(order, tableNames)) {
+      order = computeTableOrder(metaData, catalog, schema);
+      tableOrders.put(key, order);
+    }
+
+    // Tables the database does not know about are left to fail
+    // loudly at the end.
+    final Map<String, String> requested = new LinkedHashMap<String, String>();
+    for (final String tableName : tableNames) {
+      requested.put(tableName.toUpperCase(), tableName);
+    }
+    final List<String> returnValue = new ArrayList<String>(tableNames.length);
+    for (final String table : order) {
+      final String tableName = requested.remove(table);
+      if (tableName != null) {
+        returnValue.add(tableName);
+      }
+    }
+    returnValue.addAll(requested.values());
+    return returnValue;
+  }
+
+  private static final boolean containsAll(final List<String> order, final String[] tableNames) {
+    assert order != null;
+    assert tableNames != null;
+    boolean returnValue = true;
+    final Set<String> tables = new HashSet<String>(order);
+    for (final String tableName : tableNames) {
+      if (!tables.contains(tableName.toUpperCase())) {
+        returnValue = false;
+        break;
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the names of all tables in the supplied schema, in upper
+   * case, ordered so that every table precedes the tables its foreign
+   * keys refer to.  Tables involved in a cycle of foreign keys are
+   * appended in no particular order.
+   */
+  private static final List<String> computeTableOrder(final DatabaseMetaData metaData, final String catalog, final String schema) throws SQLException {
+    assert metaData != null;
+    final Map<String, String> names = new LinkedHashMap<String, String>();
+    ResultSet rs = metaData.getTables(catalog, schema, "%", new String[] { "TABLE" });
+    try {
+      while (rs.next()) {
+        final String name = rs.getString("TABLE_NAME");
+        names.put(name.toUpperCase(), name);
+      }
+    } finally {
+      rs.close();
+    }
+
+    // referencedBy.get(t) holds the tables with foreign keys to t.
+    final Map<String, Set<String>> referencedBy = new HashMap<String, Set<String>>();
+    for (final Map.Entry<String, String> entry : names.entrySet()) {
+      rs = metaData.getImportedKeys(catalog, schema, entry.getValue());
+      try {
+        while (rs.next()) {
+          final String parent = rs.getString("PKTABLE_NAME").toUpperCase();
+          if (!parent.equals(entry.getKey())) {
+            Set<String> children = referencedBy.get(parent);
+            if (children == null) {
+              children = new HashSet<String>();
+              referencedBy.put(parent, children);
+            }
+            children.add(entry.getKey());
+          }
+        }
+      } finally {
+        rs.close();
+      }
+    }
+
+    final List<String> returnValue = new ArrayList<String>(names.size());
+    final Set<String> remaining = new LinkedHashMap<String, String>(names).keySet();
+    boolean progress = true;
+    while (!remaining.isEmpty() && progress) {
+      progress = false;
+      for (final String table : new ArrayList<String>(remaining)) {
+        final Set<String> children = referencedBy.get(table);
+        if (children == null || Collections.disjoint(children, remaining)) {
+          returnValue.add(table);
+          remaining.remove(table);
+          progress = true;
+        }
+      }
+    }
+    returnValue.addAll(remaining);
+    return Collections.unmodifiableList(returnValue);
+  }
+
+}
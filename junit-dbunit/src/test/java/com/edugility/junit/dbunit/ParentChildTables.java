@@ -0,0 +1,81 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates and drops the <tt>PARENT</tt> and <tt>CHILD</tt> tables,
+ * <tt>CHILD</tt> referring to <tt>PARENT</tt>, that the tests in this
+ * package load, truncate and stream.
+ */
+final class ParentChildTables {
+
+  private ParentChildTables() {
+    super();
+  }
+
+  /**
+   * Opens a {@link Connection} to the H2 database at the supplied URL
+   * and creates <tt>PARENT</tt> and <tt>CHILD</tt> in it.  For an
+   * in-memory database the returned {@link Connection} keeps the
+   * tables alive until it is passed to {@link #drop(Connection)}.
+   */
+  static final Connection create(final String url) throws SQLException {
+    final Connection c = DriverManager.getConnection(url, "sa", "");
+    final Statement s = c.createStatement();
+    try {
+      s.execute("CREATE TABLE PARENT (ID INTEGER PRIMARY KEY, NAME VARCHAR(64), AMOUNT DECIMAL(10, 2))");
+      s.execute("CREATE TABLE CHILD (ID INTEGER PRIMARY KEY, PARENT_ID INTEGER REFERENCES PARENT(ID), DATA BLOB)");
+    } finally {
+      s.close();
+    }
+    return c;
+  }
+
+  /**
+   * Drops everything in the database reachable by the supplied {@link
+   * Connection}, and closes it.
+   */
+  static final void drop(final Connection c) throws SQLException {
+    try {
+      final Statement s = c.createStatement();
+      try {
+        s.execute("DROP ALL OBJECTS");
+      } finally {
+        s.close();
+      }
+    } finally {
+      c.close();
+    }
+  }
+
+}
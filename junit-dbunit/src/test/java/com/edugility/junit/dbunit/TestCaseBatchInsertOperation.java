@@ -0,0 +1,140 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.io.StringReader;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.IDataSet;
+
+import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseBatchInsertOperation {
+
+  private Connection connection;
+
+  public TestCaseBatchInsertOperation() {
+    super();
+  }
+
+  @Before
+  public void createTables() throws Exception {
+    this.connection = ParentChildTables.create("jdbc:h2:mem:batchInsert");
+  }
+
+  @After
+  public void dropTables() throws Exception {
+    ParentChildTables.drop(this.connection);
+  }
+
+  @Test
+  public void testBatchInsert() throws Exception {
+    // CHILD precedes PARENT, so the load only succeeds if referential
+    // integrity is switched off while it runs.
+    final IDataSet dataSet = new FlatXmlDataSetBuilder().build(new StringReader("<dataset>" +
+      "<CHILD ID=\"1\" PARENT_ID=\"2\" DATA=\"AQID\"/>" +
+      "<CHILD ID=\"2\" PARENT_ID=\"2\"/>" +
+      "<CHILD ID=\"3\" PARENT_ID=\"1\" DATA=\"BAUG\"/>" +
+      "<PARENT ID=\"1\" NAME=\"one, &quot;quoted&quot;\" AMOUNT=\"1000.50\"/>" +
+      "<PARENT ID=\"2\" NAME=\"\"/>" +
+      "<PARENT ID=\"3\"/>" +
+      "</dataset>"));
+    final IDatabaseConnection dbc = new DatabaseConnection(this.connection);
+    new BatchInsertOperation(2).execute(dbc, dataSet);
+    assertEquals(3, dbc.getRowCount("CHILD"));
+    assertEquals(3, dbc.getRowCount("PARENT"));
+
+    final Statement s = this.connection.createStatement();
+    ResultSet rs = s.executeQuery("SELECT NAME, AMOUNT FROM PARENT ORDER BY ID");
+    assertTrue(rs.next());
+    assertEquals("one, \"quoted\"", rs.getString(1));
+    assertEquals("1000.50", rs.getBigDecimal(2).toPlainString());
+    assertTrue(rs.next());
+    assertEquals("", rs.getString(1));
+    assertTrue(rs.next());
+    assertNull(rs.getString(1));
+    rs.close();
+    rs = s.executeQuery("SELECT DATA FROM CHILD WHERE ID = 3");
+    assertTrue(rs.next());
+    assertEquals(3, rs.getBytes(1).length);
+    rs.close();
+
+    // Referential integrity is back on.
+    try {
+      s.execute("INSERT INTO CHILD (ID, PARENT_ID) VALUES (4, 42)");
+      throw new AssertionError("Referential integrity was not restored");
+    } catch (final java.sql.SQLException expected) {
+
+    }
+    s.close();
+  }
+
+  @Test
+  public void testFailedLoadLeavesTablesUnchanged() throws Exception {
+    final Statement s = this.connection.createStatement();
+    s.execute("INSERT INTO PARENT (ID, NAME) VALUES (9, 'before')");
+    // The second CHILD row repeats the first one's primary key.
+    final IDataSet dataSet = new FlatXmlDataSetBuilder().build(new StringReader("<dataset>" +
+      "<PARENT ID=\"1\" NAME=\"one\"/>" +
+      "<CHILD ID=\"1\" PARENT_ID=\"1\"/>" +
+      "<CHILD ID=\"1\" PARENT_ID=\"1\"/>" +
+      "</dataset>"));
+    final IDatabaseConnection dbc = new DatabaseConnection(this.connection);
+    try {
+      BatchInsertOperation.STREAMING_CLEAN_INSERT.execute(dbc, dataSet);
+      throw new AssertionError("The load did not fail");
+    } catch (final java.sql.SQLException expected) {
+
+    }
+    assertTrue(this.connection.getAutoCommit());
+    assertEquals(0, dbc.getRowCount("CHILD"));
+    final ResultSet rs = s.executeQuery("SELECT ID, NAME FROM PARENT");
+    assertTrue(rs.next());
+    assertEquals(9, rs.getInt(1));
+    assertEquals("before", rs.getString(2));
+    assertFalse(rs.next());
+    rs.close();
+    s.close();
+  }
+
+}
@@ -0,0 +1,110 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseCompiledDataSet {
+
+  private File xmlFile;
+
+  public TestCaseCompiledDataSet() {
+    super();
+  }
+
+  @Before
+  public void writeDataSet() throws Exception {
+    this.xmlFile = File.createTempFile("TestCaseCompiledDataSet", ".xml");
+    this.write("<dataset><A ID=\"1\" NAME=\"caf\u00e9\"/><A ID=\"2\"/><B ID=\"3\"/></dataset>");
+  }
+
+  @After
+  public void deleteDataSet() {
+    new File(this.xmlFile.getPath() + CompiledDataSet.SUFFIX).delete();
+    this.xmlFile.delete();
+  }
+
+  @Test
+  public void testCompileAndRead() throws Exception {
+    final File compiledFile = CompiledDataSet.compile(this.xmlFile);
+    assertTrue(compiledFile.isFile());
+    final ITable[] tables = CompiledDataSet.read(compiledFile.toURI().toURL());
+    assertEquals(2, tables.length);
+    assertEquals("A", tables[0].getTableMetaData().getTableName());
+    assertEquals(2, tables[0].getTableMetaData().getColumns().length);
+    assertEquals(2, tables[0].getRowCount());
+    assertEquals("1", tables[0].getValue(0, "ID"));
+    assertEquals("caf\u00e9", tables[0].getValue(0, "NAME"));
+    assertEquals("2", tables[0].getValue(1, "ID"));
+    assertNull(tables[0].getValue(1, "NAME"));
+    assertEquals("B", tables[1].getTableMetaData().getTableName());
+    assertEquals("3", tables[1].getValue(0, "ID"));
+  }
+
+  @Test
+  public void testLocatorCompilesOnFirstUse() throws Exception {
+    final DataSetLocator locator = new DataSetLocator();
+    locator.setUseCompiledDataSets(true);
+    IDataSet dataSet = locator.buildDataSet(this.xmlFile.toURI().toURL());
+    final File compiledFile = new File(this.xmlFile.getPath() + CompiledDataSet.SUFFIX);
+    assertTrue(compiledFile.isFile());
+    assertEquals(2, dataSet.getTable("A").getRowCount());
+
+    // The XML remains the source of truth.
+    this.write("<dataset><A ID=\"4\"/></dataset>");
+    this.xmlFile.setLastModified(compiledFile.lastModified() + 2000L);
+    dataSet = locator.buildDataSet(this.xmlFile.toURI().toURL());
+    assertEquals(1, dataSet.getTableNames().length);
+    assertEquals("4", dataSet.getTable("A").getValue(0, "ID"));
+  }
+
+  private final void write(final String xml) throws Exception {
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(this.xmlFile), "UTF-8");
+    try {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      writer.write(xml);
+    } finally {
+      writer.close();
+    }
+  }
+
+}
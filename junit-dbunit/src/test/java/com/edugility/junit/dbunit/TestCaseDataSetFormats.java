@@ -0,0 +1,113 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+
+import org.junit.Test;
+
+import org.junit.runner.Description;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseDataSetFormats {
+
+  public TestCaseDataSetFormats() {
+    super();
+  }
+
+  @Test
+  public void testDefaultFormats() {
+    assertTrue(DataSetLocator.getDefaultFormats().get(0) instanceof FlatXmlDataSetFormat);
+    assertTrue(DataSetLocator.getDefaultFormats().get(1) instanceof CsvDataSetFormat);
+  }
+
+  @Test
+  public void testCsvDataSet() throws Exception {
+    final IDataSet dataSet = new DataSetLocator().findDataSet(Description.createTestDescription(this.getClass(), "testCsvDataSet"));
+    assertEquals(Arrays.asList("PARENT", "CHILD"), Arrays.asList(dataSet.getTableNames()));
+    final ITable parent = dataSet.getTable("PARENT");
+    assertEquals(4, parent.getRowCount());
+    assertEquals("Smith, John", parent.getValue(0, "NAME"));
+    assertEquals("say \"hi\"\nbye", parent.getValue(1, "NAME"));
+    assertNull(parent.getValue(2, "NAME"));
+    assertEquals("null", parent.getValue(3, "NAME"));
+    final ITable child = dataSet.getTable("CHILD");
+    assertEquals(2, child.getRowCount());
+    assertEquals("2", child.getValue(1, "PARENT_ID"));
+  }
+
+  @Test
+  public void testFormatPriority() throws Exception {
+    final DataSetLocator locator = new DataSetLocator();
+    locator.setFormats(Collections.singletonList(new FlatXmlDataSetFormat()));
+    final IDataSet dataSet = locator.findDataSet(Description.createTestDescription(this.getClass(), "testFormatPriority"));
+    assertEquals(0, dataSet.getTableNames().length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateExtensions() {
+    new DataSetLocator().setFormats(Arrays.asList(new CsvDataSetFormat(), new CsvDataSetFormat()));
+  }
+
+  @Test
+  public void testStreamingCsvDataSet() throws Exception {
+    final Connection c = DriverManager.getConnection("jdbc:h2:mem:formats", "sa", "");
+    try {
+      final Statement s = c.createStatement();
+      s.execute("CREATE TABLE PARENT (ID INTEGER PRIMARY KEY, NAME VARCHAR(64))");
+      s.execute("CREATE TABLE CHILD (ID INTEGER PRIMARY KEY, PARENT_ID INTEGER REFERENCES PARENT(ID))");
+      s.close();
+      final IDataSet dataSet = new DataSetLocator().findDataSet(Description.createTestDescription(this.getClass(), "testStreamingCsvDataSet"), true);
+      final IDatabaseConnection dbc = new DatabaseConnection(c);
+      BatchInsertOperation.STREAMING_CLEAN_INSERT.execute(dbc, dataSet);
+      assertEquals(4, dbc.getRowCount("PARENT"));
+      assertEquals(1, dbc.getRowCount("PARENT", "WHERE NAME IS NULL"));
+      assertEquals(2, dbc.getRowCount("CHILD"));
+    } finally {
+      final Statement s = c.createStatement();
+      s.execute("DROP ALL OBJECTS");
+      s.close();
+      c.close();
+    }
+  }
+
+}
@@ -0,0 +1,152 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.URL;
+
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.junit.runner.Description;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseDataSetLocator {
+
+  private File file;
+
+  public TestCaseDataSetLocator() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    this.file = File.createTempFile("dataset", ".xml");
+  }
+
+  @After
+  public void tearDown() {
+    if (this.file != null) {
+      this.file.delete();
+    }
+  }
+
+  @Test
+  public void testCachedTablesAreSharedAndReadOnly() throws Exception {
+    write(this.file, "<dataset><PERSON ID=\"1\" NAME=\"a\"/></dataset>");
+    final URL url = this.file.toURI().toURL();
+    final DataSetLocator locator = new DataSetLocator();
+    final IDataSet first = locator.buildDataSet(url);
+    final ITable table = first.getTable("PERSON");
+    assertFalse(table instanceof DefaultTable);
+    assertEquals(1, table.getRowCount());
+    assertEquals("a", table.getValue(0, "NAME"));
+    assertSame(table, locator.buildDataSet(url).getTable("PERSON"));
+  }
+
+  @Test
+  public void testCsvDataSetIsReparsedWhenATableChanges() throws Exception {
+    final File directory = new File(this.file.getPath() + ".csv");
+    assertTrue(directory.mkdir());
+    final File tableOrdering = new File(directory, CsvDataSetFormat.TABLE_ORDERING_FILE_NAME);
+    final File person = new File(directory, "PERSON.csv");
+    try {
+      write(tableOrdering, "PERSON\n");
+      write(person, "ID,NAME\n1,a\n");
+      final long then = tableOrdering.lastModified();
+      assertTrue(person.setLastModified(then));
+      final URL url = tableOrdering.toURI().toURL();
+      final DataSetLocator locator = new DataSetLocator();
+      assertEquals("a", locator.buildDataSet(url).getTable("PERSON").getValue(0, "NAME"));
+      write(person, "ID,NAME\n1,b\n");
+      assertTrue(person.setLastModified(then + 2000L));
+      assertEquals(then, tableOrdering.lastModified());
+      assertEquals("b", locator.buildDataSet(url).getTable("PERSON").getValue(0, "NAME"));
+    } finally {
+      person.delete();
+      tableOrdering.delete();
+      directory.delete();
+    }
+  }
+
+  @Test
+  public void testIndexedDataSet() throws Exception {
+    final IDataSet dataSet = new DataSetLocator().findDataSet(Description.createTestDescription(this.getClass(), "testIndexedDataSet"));
+    assertEquals("indexed", dataSet.getTable("PERSON").getValue(0, "NAME"));
+  }
+
+  @Test
+  public void testUnindexedDataSet() throws Exception {
+    // This dataset is deliberately missing from
+    // /datasets/index.lst, and must still be found.
+    final IDataSet dataSet = new DataSetLocator().findDataSet(Description.createTestDescription(this.getClass(), "testUnindexedDataSet"));
+    assertEquals("unindexed", dataSet.getTable("PERSON").getValue(0, "NAME"));
+  }
+
+  @Test
+  public void testMemoizedMiss() throws Exception {
+    final DataSetLocator locator = new DataSetLocator();
+    final Description description = Description.createTestDescription(this.getClass(), "testMemoizedMiss");
+    assertEquals(0, locator.findDataSet(description).getTableNames().length);
+    assertEquals(0, locator.findDataSet(description).getTableNames().length);
+  }
+
+  @Test
+  public void testMemoIsKeyedByTemplates() throws Exception {
+    final Description description = Description.createTestDescription(this.getClass(), "testIndexedDataSet");
+    final DataSetLocator classOnly = new DataSetLocator("/datasets/%s", null);
+    final DataSetLocator classAndMethod = new DataSetLocator();
+    for (int i = 0; i < 2; i++) {
+      assertEquals(0, classOnly.findDataSet(description).getTableNames().length);
+      assertEquals("indexed", classAndMethod.findDataSet(description).getTable("PERSON").getValue(0, "NAME"));
+    }
+  }
+
+  private static final void write(final File file, final String contents) throws IOException {
+    final OutputStream stream = new FileOutputStream(file);
+    try {
+      stream.write(contents.getBytes("UTF-8"));
+    } finally {
+      stream.close();
+    }
+  }
+
+}
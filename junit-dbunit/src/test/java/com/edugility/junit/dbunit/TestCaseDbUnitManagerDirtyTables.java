@@ -0,0 +1,131 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.io.StringReader;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.edugility.junit.db.ConnectionDescriptor;
+
+import org.dbunit.DatabaseUnitException;
+
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.IDataSet;
+
+import org.dbunit.dataset.xml.FlatXmlDataSetBuilder;
+
+import org.dbunit.operation.DatabaseOperation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestCaseDbUnitManagerDirtyTables {
+
+  private static final String URL = "jdbc:h2:mem:dirtyTables";
+
+  private Connection keeper;
+
+  private IDataSet dataSet;
+
+  private final List<String> loadedTables = new ArrayList<String>();
+
+  public TestCaseDbUnitManagerDirtyTables() {
+    super();
+  }
+
+  @Before
+  public void createTables() throws Exception {
+    this.keeper = ParentChildTables.create(URL);
+    this.execute("CREATE TABLE OTHER (ID INTEGER PRIMARY KEY)");
+    this.dataSet = new FlatXmlDataSetBuilder().build(new StringReader("<dataset>" +
+      "<PARENT ID=\"1\" NAME=\"one\"/>" +
+      "<CHILD ID=\"1\" PARENT_ID=\"1\"/>" +
+      "<OTHER ID=\"1\"/>" +
+      "</dataset>"));
+  }
+
+  @After
+  public void dropTables() throws Exception {
+    ParentChildTables.drop(this.keeper);
+  }
+
+  @Test
+  public void testOnlyDirtyTablesAreReloaded() throws Exception {
+    this.runTest();
+    assertEquals(Arrays.asList("PARENT", "CHILD", "OTHER"), this.loadedTables);
+
+    this.runTest();
+    assertEquals(Arrays.<String>asList(), this.loadedTables);
+
+    this.execute("INSERT INTO OTHER (ID) VALUES (2)");
+    this.runTest();
+    assertEquals(Arrays.asList("OTHER"), this.loadedTables);
+
+    // CHILD refers to PARENT, so it has to be reloaded as well.
+    this.execute("UPDATE PARENT SET NAME = 'uno'");
+    this.runTest();
+    assertEquals(Arrays.asList("PARENT", "CHILD"), this.loadedTables);
+  }
+
+  private final void runTest() throws Exception {
+    this.loadedTables.clear();
+    final DbUnitManager manager = new DbUnitManager(new ConnectionDescriptor(URL, "sa", ""));
+    manager.setDirtyTableTracking(true);
+    manager.setSetUpOperation(new DatabaseOperation() {
+        @Override
+        public final void execute(final IDatabaseConnection connection, final IDataSet dataSet) throws DatabaseUnitException, SQLException {
+          loadedTables.addAll(Arrays.asList(dataSet.getTableNames()));
+          DatabaseOperation.CLEAN_INSERT.execute(connection, dataSet);
+        }
+      });
+    manager.setDataSet(this.dataSet);
+    manager.initialize();
+    manager.reset();
+  }
+
+  private final void execute(final String sql) throws SQLException {
+    final Statement s = this.keeper.createStatement();
+    try {
+      s.execute(sql);
+    } finally {
+      s.close();
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.net.URL;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import java.util.zip.GZIPOutputStream;
+
+import com.edugility.junit.db.ConnectionDescriptor;
+
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.IDataSet;
+
+import org.dbunit.dataset.stream.StreamingDataSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseStreamingDataSet {
+
+  private static final String URL = "jdbc:h2:mem:streaming";
+
+  private static final int ROWS = 5000;
+
+  private Connection connection;
+
+  private File xmlFile;
+
+  public TestCaseStreamingDataSet() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    this.connection = ParentChildTables.create(URL);
+    final Statement s = this.connection.createStatement();
+    s.execute("INSERT INTO PARENT (ID) VALUES (-1)");
+    s.close();
+
+    this.xmlFile = File.createTempFile("TestCaseStreamingDataSet", ".xml" + DataSetLocator.GZIP_SUFFIX);
+    final Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(this.xmlFile)), "UTF-8");
+    try {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><dataset>");
+      // CHILD comes first, which only works because referential
+      // integrity is off for the duration of the load.
+      for (int i = 0; i < ROWS; i++) {
+        writer.write("<CHILD ID=\"" + i + "\" PARENT_ID=\"" + i + "\"/>");
+      }
+      for (int i = 0; i < ROWS; i++) {
+        writer.write("<PARENT ID=\"" + i + "\"/>");
+      }
+      writer.write("</dataset>");
+    } finally {
+      writer.close();
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.xmlFile.delete();
+    ParentChildTables.drop(this.connection);
+  }
+
+  @Test
+  public void testStreamingCleanInsert() throws Exception {
+    final URL url = this.xmlFile.toURI().toURL();
+    final IDataSet dataSet = new DataSetLocator().streamDataSet(url);
+    assertTrue(dataSet instanceof StreamingDataSet);
+    final IDatabaseConnection dbc = new DatabaseConnection(this.connection);
+    BatchInsertOperation.STREAMING_CLEAN_INSERT.execute(dbc, dataSet);
+    assertEquals(ROWS, dbc.getRowCount("CHILD"));
+    assertEquals(ROWS, dbc.getRowCount("PARENT"));
+    assertEquals(0, dbc.getRowCount("PARENT", "WHERE ID = -1"));
+  }
+
+  @Test
+  public void testCompressedDataSetIsParsed() throws Exception {
+    final IDataSet dataSet = new DataSetLocator().buildDataSet(this.xmlFile.toURI().toURL());
+    assertEquals(ROWS, dataSet.getTable("PARENT").getRowCount());
+  }
+
+  @Test
+  public void testStreamingManager() throws Exception {
+    final DbUnitManager manager = new DbUnitManager(new ConnectionDescriptor(URL, "sa", ""));
+    manager.setStreaming(true);
+    manager.setDataSet(new DataSetLocator().streamDataSet(this.xmlFile.toURI().toURL()));
+    manager.initialize();
+    manager.reset();
+    final IDatabaseConnection dbc = new DatabaseConnection(this.connection);
+    assertEquals(ROWS, dbc.getRowCount("CHILD"));
+  }
+
+}
@@ -0,0 +1,91 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.dbunit;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.ITable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TestCaseTruncateOperation {
+
+  private Connection connection;
+
+  public TestCaseTruncateOperation() {
+    super();
+  }
+
+  @Before
+  public void createTables() throws Exception {
+    this.connection = ParentChildTables.create("jdbc:h2:mem:truncate");
+    final Statement s = this.connection.createStatement();
+    s.execute("INSERT INTO PARENT (ID) VALUES (1)");
+    s.execute("INSERT INTO CHILD (ID, PARENT_ID) VALUES (1, 1)");
+    s.close();
+  }
+
+  @After
+  public void dropTables() throws Exception {
+    ParentChildTables.drop(this.connection);
+  }
+
+  @Test
+  public void testTruncate() throws Exception {
+    // PARENT precedes CHILD here, which is the wrong order in which
+    // to empty them.
+    final DefaultDataSet dataSet = new DefaultDataSet(new ITable[] { new DefaultTable("parent"), new DefaultTable("child") });
+    final IDatabaseConnection dbc = new DatabaseConnection(this.connection);
+    new TruncateOperation().execute(dbc, dataSet);
+    assertEquals(0, dbc.getRowCount("PARENT"));
+    assertEquals(0, dbc.getRowCount("CHILD"));
+
+    final Statement s = this.connection.createStatement();
+    try {
+      s.execute("INSERT INTO CHILD (ID, PARENT_ID) VALUES (2, 42)");
+      fail("Referential integrity was not restored");
+    } catch (final SQLException expected) {
+
+    } finally {
+      s.close();
+    }
+  }
+
+}
@@ -27,15 +27,37 @@
  */
 package com.edugility.junit.h2;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
 import java.sql.Connection;
 import java.sql.Statement;
 import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.edugility.junit.db.ConnectionDescriptor;
+import com.edugility.junit.db.DBConnection; // for javadoc only
+import com.edugility.junit.db.DBRule; // for javadoc only
 
 import com.edugility.junit.db.DBRule.SingleDBManager;
 
@@ -45,6 +67,16 @@ import static org.junit.Assert.assertTrue;
 
 public class H2Manager extends SingleDBManager {
 
+  /**
+   * The names of the tables whose rows are kept in a {@linkplain
+   * #setTemplateName(String) template} by default: the tables in
+   * which Liquibase, and <tt>junit-liquibase</tt>'s changelog
+   * fingerprints, record what has been applied to a database.
+   *
+   * @see #setTemplateDataTables(Collection)
+   */
+  public static final Collection<String> DEFAULT_TEMPLATE_DATA_TABLES = Collections.unmodifiableList(Arrays.asList("DATABASECHANGELOG", "DATABASECHANGELOGLOCK", "DATABASECHANGELOGFINGERPRINT"));
+
   private static final Pattern userPattern = Pattern.compile("user=([^;]+)", Pattern.CASE_INSENSITIVE);
 
   private static final Pattern passwordPattern = Pattern.compile("password=([^;]*)", Pattern.CASE_INSENSITIVE);
@@ -53,6 +85,22 @@ public class H2Manager extends SingleDBManager {
 
   private static final Pattern createSchemaPattern = Pattern.compile(";INIT=.*CREATE\\s+SCHEMA\\s+(?:IF\\s+NOT\\s+EXISTS\\s+:)?(\\W+)", Pattern.CASE_INSENSITIVE);
 
+  private static final AtomicInteger catalogSequence = new AtomicInteger();
+
+  private static final ConcurrentMap<String, File> templates = new ConcurrentHashMap<String, File>();
+
+  /**
+   * The JVM-wide registry of {@linkplain #setSharedCatalog(boolean)
+   * shared catalogs}, indexed by connection URL.
+   */
+  private static final ConcurrentMap<String, SharedCatalog> sharedCatalogs = new ConcurrentHashMap<String, SharedCatalog>();
+
+  /**
+   * Whether the shutdown hook that closes any remaining {@linkplain
+   * #sharedCatalogs shared catalogs} has been registered.
+   */
+  private static final AtomicBoolean sharedCatalogShutdownHookRegistered = new AtomicBoolean();
+
   private final boolean initialShutdownValue;
 
   private final boolean inMemory;
@@ -63,6 +111,16 @@ public class H2Manager extends SingleDBManager {
 
   private transient boolean shutdown;
 
+  private String templateName;
+
+  private Collection<String> templateDataTables;
+
+  private boolean sharedCatalog;
+
+  private transient SharedCatalog acquiredCatalog;
+
+  private transient boolean sharedCatalogCreator;
+
   public H2Manager(final ConnectionDescriptor descriptor) {
     this(descriptor, false);
   }
@@ -77,6 +135,7 @@ public class H2Manager extends SingleDBManager {
     this.inMemory = url == null || url.startsWith("jdbc:h2:mem:");
     this.initialShutdownValue = shutdown;
     this.setShutdown(shutdown);
+    this.setTemplateDataTables(DEFAULT_TEMPLATE_DATA_TABLES);
   }
 
   public H2Manager(final String s) {
@@ -211,15 +270,299 @@ public class H2Manager extends SingleDBManager {
     return cd;
   }
 
+  /**
+   * Returns a copy of the supplied {@link ConnectionDescriptor} whose
+   * connection URL names a catalog that no other invocation of this
+   * method in the current JVM has named, so that concurrently running
+   * tests that each use such a copy do not share a database.
+   *
+   * <p>The new catalog name is derived from the one in the supplied
+   * {@link ConnectionDescriptor}'s connection URL by appending an
+   * underscore and a sequence number, so <tt>jdbc:h2:mem:test</tt>
+   * might become <tt>jdbc:h2:mem:test_3</tt>.  The copy's {@link
+   * ConnectionDescriptor#CATALOG} property is left untouched, so
+   * fields annotated with {@link DBConnection} continue to match on
+   * the configured catalog name.  URLs that do not name a catalog
+   * (such as <tt>jdbc:h2:mem:</tt>, which already denotes a private
+   * database) are left as they are.</p>
+   *
+   * <p>Typical usage, from within a {@link
+   * DBRule.DBManagerFactory}, is:</p>
+   *
+   * <blockquote><pre>final H2Manager h2 = new H2Manager(H2Manager.withUniqueCatalog(cd), true);
+   *final LiquibaseManager liquibase = new LiquibaseManager(h2.getConnectionDescriptor());
+   *liquibase.setChangeLogLockEnabled(!h2.isInMemory());
+   *return Arrays.asList(h2, liquibase);</pre></blockquote>
+   *
+   * @param descriptor the {@link ConnectionDescriptor} to copy; must
+   * not be {@code null}
+   *
+   * @return a new {@link ConnectionDescriptor}; never {@code null}
+   *
+   * @exception IllegalArgumentException if {@code descriptor} is
+   * {@code null}
+   */
+  public static ConnectionDescriptor withUniqueCatalog(final ConnectionDescriptor descriptor) {
+    if (descriptor == null) {
+      throw new IllegalArgumentException("descriptor", new NullPointerException("descriptor"));
+    }
+    final ConnectionDescriptor cd = new ConnectionDescriptor();
+    cd.putAll(descriptor);
+    final String url = descriptor.getConnectionURL();
+    if (url != null) {
+      final Matcher m = catalogPattern.matcher(url);
+      assert m != null;
+      if (m.lookingAt()) {
+        final String catalog = m.group(1);
+        if (catalog != null && !catalog.isEmpty()) {
+          final StringBuilder uniqueUrl = new StringBuilder(url);
+          uniqueUrl.insert(m.end(1), "_" + catalogSequence.incrementAndGet());
+          cd.setProperty(ConnectionDescriptor.CONNECTION_URL, uniqueUrl.toString());
+          if (cd.getCatalog() == null) {
+            cd.setProperty(ConnectionDescriptor.CATALOG, catalog);
+          }
+        }
+      }
+    }
+    return cd;
+  }
+
+  /**
+   * Returns the name of the template from which this {@link
+   * H2Manager} populates empty databases, or {@code null} if
+   * templates are not in use.
+   *
+   * @return the template name, or {@code null}
+   *
+   * @see #setTemplateName(String)
+   */
+  public String getTemplateName() {
+    return this.templateName;
+  }
+
+  /**
+   * Sets the name of the template from which this {@link H2Manager}
+   * populates empty databases, much as PostgreSQL's <tt>CREATE
+   * DATABASE ... TEMPLATE</tt> does.
+   *
+   * <p>Templates are shared by all {@link H2Manager}s in the current
+   * JVM.  The first time an {@link H2Manager} with a given template
+   * name reaches {@link #inject()}&mdash;that is, after every {@link
+   * DBRule.DBManager} in its {@link DBRule} has been
+   * initialized&mdash;and no template by that name exists yet, it
+   * captures its database's schema with <tt>SCRIPT</tt> as that
+   * template.  The template holds no rows except those of the
+   * {@linkplain #getTemplateDataTables() template data tables}, which
+   * by default are Liquibase's bookkeeping tables, so datasets
+   * inserted by {@link DBRule.DBManager}s such as DbUnit's are not
+   * carried over to the databases restored from it.
+   * From then on, whenever an {@link H2Manager} with that template
+   * name {@linkplain #connect() connects} to a database that contains
+   * no tables, it restores the template into it with <tt>RUNSCRIPT
+   * FROM</tt> instead of leaving it to later {@link
+   * DBRule.DBManager}s to build it up from scratch.  Those {@link
+   * DBRule.DBManager}s will then find the work already done; a
+   * Liquibase changelog, for example, will find all of its changesets
+   * already applied.</p>
+   *
+   * <p>This is most useful together with {@link #withUniqueCatalog(ConnectionDescriptor)}
+   * or with {@linkplain #H2Manager(ConnectionDescriptor, boolean)
+   * shutdown} after every test, where each new database would
+   * otherwise have to be migrated anew.</p>
+   *
+   * @param templateName the template name; may be {@code null} in
+   * which case templates will not be used
+   */
+  public void setTemplateName(final String templateName) {
+    this.templateName = templateName;
+  }
+
+  /**
+   * Returns the names of the tables whose rows, and not just whose
+   * definitions, are kept in a {@linkplain #setTemplateName(String)
+   * template}.  This method never returns {@code null}.
+   *
+   * @return a non-{@code null} {@link Collection} of table names
+   *
+   * @see #setTemplateDataTables(Collection)
+   */
+  public Collection<String> getTemplateDataTables() {
+    return this.templateDataTables;
+  }
+
+  /**
+   * Sets the names of the tables whose rows, and not just whose
+   * definitions, are kept in a {@linkplain #setTemplateName(String)
+   * template}.  Table names are matched without regard to case or
+   * schema; tables that do not exist are ignored.
+   *
+   * @param templateDataTables the table names; may be {@code null}
+   * in which case no rows will be kept
+   *
+   * @see #DEFAULT_TEMPLATE_DATA_TABLES
+   */
+  public void setTemplateDataTables(final Collection<String> templateDataTables) {
+    if (templateDataTables == null) {
+      this.templateDataTables = Collections.emptySet();
+    } else {
+      this.templateDataTables = Collections.unmodifiableList(new ArrayList<String>(templateDataTables));
+    }
+  }
+
+  /**
+   * Returns {@code true} if this {@link H2Manager} shares its catalog
+   * with every other {@link H2Manager} in the current JVM that has
+   * the same connection URL.
+   *
+   * @return {@code true} if the catalog is shared
+   *
+   * @see #setSharedCatalog(boolean)
+   */
+  public boolean isSharedCatalog() {
+    return this.sharedCatalog;
+  }
+
+  /**
+   * Sets whether this {@link H2Manager} shares its catalog with every
+   * other {@link H2Manager} in the current JVM that has the same
+   * connection URL, so that test classes can reuse a database instead
+   * of each building it anew.
+   *
+   * <p>The first {@link H2Manager} to be {@linkplain #create()
+   * created} for a given URL opens a private connection that keeps
+   * the database alive and reports that it {@linkplain
+   * #isSharedCatalogCreator() created the catalog}.  The catalog
+   * counts as built once that {@link H2Manager} reaches {@link
+   * #inject()}, that is, once every {@link DBRule.DBManager} in its
+   * {@link DBRule} has been initialized; {@link H2Manager}s created
+   * for the same URL in the meantime wait for it.  If the creator is
+   * instead {@linkplain #destroy() destroyed} first, the next {@link
+   * H2Manager} to be created becomes the creator.  Every later {@link
+   * H2Manager} attaches to the built catalog and sets the {@link
+   * ConnectionDescriptor#ATTACHED} property of its {@link
+   * ConnectionDescriptor} to {@code true}, which tells a {@code
+   * LiquibaseManager} sharing that {@link ConnectionDescriptor} to
+   * skip its migration.</p>
+   *
+   * <p>A shared catalog is kept, across test classes, until the JVM
+   * exits; whether an {@link H2Manager} was constructed to
+   * {@linkplain #H2Manager(ConnectionDescriptor, boolean) shut down}
+   * its database is ignored while its catalog is shared.  Rows
+   * written by one test class remain visible to the next, so data
+   * should be loaded, and cleaned up, per test.</p>
+   *
+   * @param sharedCatalog whether the catalog should be shared
+   */
+  public void setSharedCatalog(final boolean sharedCatalog) {
+    this.sharedCatalog = sharedCatalog;
+  }
+
+  /**
+   * Returns {@code true} if this {@link H2Manager} {@linkplain
+   * #setSharedCatalog(boolean) shares its catalog} and was the first
+   * to attach to it, and so is responsible for building it.
+   *
+   * @return {@code true} if this {@link H2Manager} created its shared
+   * catalog
+   */
+  public boolean isSharedCatalogCreator() {
+    return this.sharedCatalogCreator;
+  }
+
+  @Override
+  public void create() throws Exception {
+    super.create();
+    if (this.isSharedCatalog() && this.acquiredCatalog == null) {
+      final String url = this.cd.getConnectionURL();
+      assertNotNull(url);
+      SharedCatalog catalog = null;
+      int acquired = -1;
+      while (catalog == null) {
+        catalog = sharedCatalogs.get(url);
+        if (catalog == null) {
+          final SharedCatalog newCatalog = new SharedCatalog(url);
+          catalog = sharedCatalogs.putIfAbsent(url, newCatalog);
+          if (catalog == null) {
+            catalog = newCatalog;
+          }
+        }
+        acquired = catalog.acquire(this, this.cd);
+        if (acquired < 0) {
+          // The catalog was shut down after we looked it up.
+          sharedCatalogs.remove(url, catalog);
+          catalog = null;
+        }
+      }
+      this.acquiredCatalog = catalog;
+      this.sharedCatalogCreator = acquired > 0;
+      if (this.sharedCatalogCreator) {
+        this.cd.remove(ConnectionDescriptor.ATTACHED);
+      } else {
+        this.cd.setProperty(ConnectionDescriptor.ATTACHED, "true");
+      }
+      if (sharedCatalogShutdownHookRegistered.compareAndSet(false, true)) {
+        Runtime.getRuntime().addShutdownHook(new Thread("H2Manager shared catalog shutdown") {
+            @Override
+            public final void run() {
+              for (final SharedCatalog c : sharedCatalogs.values()) {
+                c.close();
+              }
+            }
+          });
+      }
+    }
+  }
+
   @Override
   public void connect() throws Exception {
     super.connect();
-    this.validateConnection(this.getAllocatedConnection());
+    final Connection c = this.getAllocatedConnection();
+    this.validateConnection(c);
+    final String templateName = this.getTemplateName();
+    if (templateName != null) {
+      final File template = templates.get(templateName);
+      if (template != null && isEmpty(c)) {
+        final Statement s = c.createStatement();
+        assertNotNull(s);
+        try {
+          s.execute(String.format("RUNSCRIPT FROM '%s' CHARSET 'UTF-8'", quote(template.getAbsolutePath())));
+        } finally {
+          s.close();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void inject() throws Exception {
+    final String templateName = this.getTemplateName();
+    if (templateName != null && !templates.containsKey(templateName)) {
+      final Connection c = this.getAllocatedConnection();
+      if (!isClosed(c)) {
+        final File template = File.createTempFile("h2-template", ".sql");
+        template.deleteOnExit();
+        this.writeTemplate(c, template);
+        if (templates.putIfAbsent(templateName, template) != null) {
+          // Another thread got there first.
+          template.delete();
+        }
+      }
+    }
+    if (this.acquiredCatalog != null && this.sharedCatalogCreator) {
+      this.acquiredCatalog.built(this);
+    }
+    super.inject();
   }
 
   @Override
   public void destroy() throws Exception {
-    if (this.getShutdown()) {
+    final SharedCatalog catalog = this.acquiredCatalog;
+    if (catalog != null) {
+      // Shared catalogs are only shut down when the JVM exits.
+      this.acquiredCatalog = null;
+      this.sharedCatalogCreator = false;
+      catalog.release(this);
+    } else if (this.getShutdown()) {
       Connection connection = this.getAllocatedConnection();
       if (isClosed(connection)) {
         this.connect();
@@ -238,6 +581,10 @@ public class H2Manager extends SingleDBManager {
     super.destroy();
   }
 
+  public boolean isInMemory() {
+    return this.inMemory;
+  }
+
   public boolean isInMemory(final String connectionURL) {
     return connectionURL == null || connectionURL.startsWith("jdbc:h2:mem:");
   }
@@ -256,6 +603,96 @@ public class H2Manager extends SingleDBManager {
     }
   }
 
+  /**
+   * Writes the schema of the database reachable by the supplied
+   * {@link Connection}, and the rows of its {@linkplain
+   * #getTemplateDataTables() template data tables}, to the supplied
+   * {@link File} as a script that <tt>RUNSCRIPT</tt> can replay.
+   */
+  private final void writeTemplate(final Connection c, final File template) throws IOException, SQLException {
+    assertNotNull(c);
+    assertNotNull(template);
+    final List<String> dataTables = new ArrayList<String>();
+    final Collection<String> templateDataTables = this.getTemplateDataTables();
+    if (templateDataTables != null && !templateDataTables.isEmpty()) {
+      final ResultSet tables = c.getMetaData().getTables(null, null, null, new String[] { "TABLE" });
+      assertNotNull(tables);
+      try {
+        while (tables.next()) {
+          final String tableName = tables.getString("TABLE_NAME");
+          for (final String dataTable : templateDataTables) {
+            if (dataTable != null && dataTable.equalsIgnoreCase(tableName)) {
+              dataTables.add(String.format("\"%s\".\"%s\"", tables.getString("TABLE_SCHEM"), tableName));
+              break;
+            }
+          }
+        }
+      } finally {
+        tables.close();
+      }
+    }
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(template), "UTF-8"));
+    try {
+      final Statement s = c.createStatement();
+      assertNotNull(s);
+      try {
+        writeScript(s.executeQuery("SCRIPT NODATA"), writer, false);
+        if (!dataTables.isEmpty()) {
+          final StringBuilder sql = new StringBuilder("SCRIPT TABLE ");
+          for (int i = 0; i < dataTables.size(); i++) {
+            if (i > 0) {
+              sql.append(", ");
+            }
+            sql.append(dataTables.get(i));
+          }
+          // Only the INSERT statements are wanted; the tables
+          // themselves were created above.
+          writeScript(s.executeQuery(sql.toString()), writer, true);
+        }
+      } finally {
+        s.close();
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static final void writeScript(final ResultSet script, final Writer writer, final boolean insertsOnly) throws IOException, SQLException {
+    assertNotNull(script);
+    assertNotNull(writer);
+    try {
+      while (script.next()) {
+        final String statement = script.getString(1);
+        if (statement != null && (!insertsOnly || statement.startsWith("INSERT INTO "))) {
+          writer.write(statement);
+          writer.write(System.getProperty("line.separator"));
+        }
+      }
+    } finally {
+      script.close();
+    }
+  }
+
+  private static final boolean isEmpty(final Connection c) throws SQLException {
+    assertNotNull(c);
+    boolean empty = false;
+    final Statement s = c.createStatement();
+    assertNotNull(s);
+    try {
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA <> 'INFORMATION_SCHEMA'");
+      assertNotNull(rs);
+      empty = rs.next() && rs.getInt(1) == 0;
+      rs.close();
+    } finally {
+      s.close();
+    }
+    return empty;
+  }
+
+  private static final String quote(final String path) {
+    return path.replace("'", "''");
+  }
+
   private final boolean getShutdown() {
     return this.shutdown;
   }
@@ -264,5 +701,115 @@ public class H2Manager extends SingleDBManager {
     this.shutdown = shutdown;
   }
 
+  /**
+   * An H2 catalog shared by all {@link H2Manager}s in the JVM with a
+   * given connection URL, kept alive by a connection of its own.  All
+   * access to its mutable state is synchronized on the instance.
+   */
+  private static final class SharedCatalog {
+
+    private final String url;
+
+    private Connection keeper;
+
+    private H2Manager builder;
+
+    private boolean built;
+
+    private boolean closed;
+
+    private SharedCatalog(final String url) {
+      super();
+      assert url != null;
+      this.url = url;
+    }
+
+    /**
+     * Attaches the supplied {@link H2Manager} to this catalog,
+     * opening its keeper connection if necessary, and waiting while
+     * another {@link H2Manager} is building it.
+     *
+     * @return {@code 1} if the supplied {@link H2Manager} must build
+     * this catalog, {@code 0} if it has already been built, or {@code
+     * -1} if this catalog has been closed
+     */
+    private synchronized final int acquire(final H2Manager manager, final ConnectionDescriptor cd) throws InterruptedException, SQLException {
+      assert manager != null;
+      assert cd != null;
+      while (!this.closed && !this.built && this.builder != null && this.builder != manager) {
+        this.wait();
+      }
+      int returnValue = -1;
+      if (!this.closed) {
+        if (this.keeper == null) {
+          this.keeper = cd.getConnection();
+          assertNotNull(this.keeper);
+        }
+        if (this.built) {
+          returnValue = 0;
+        } else {
+          this.builder = manager;
+          returnValue = 1;
+        }
+      }
+      return returnValue;
+    }
+
+    /**
+     * Records that the supplied {@link H2Manager}, if it is building
+     * this catalog, has finished doing so.
+     */
+    private synchronized final void built(final H2Manager manager) {
+      if (manager != null && manager == this.builder) {
+        this.builder = null;
+        this.built = true;
+        this.notifyAll();
+      }
+    }
+
+    /**
+     * Detaches the supplied {@link H2Manager} from this catalog.  If
+     * it was still building it, the build is abandoned and the next
+     * {@link H2Manager} to {@linkplain #acquire(H2Manager,
+     * ConnectionDescriptor) acquire} this catalog must build it.
+     */
+    private synchronized final void release(final H2Manager manager) {
+      if (manager != null && manager == this.builder) {
+        this.builder = null;
+        this.notifyAll();
+      }
+    }
+
+    private synchronized final void close() {
+      if (!this.closed) {
+        this.closed = true;
+        this.notifyAll();
+        final Connection keeper = this.keeper;
+        this.keeper = null;
+        if (keeper != null) {
+          try {
+            if (!keeper.isClosed()) {
+              final Statement s = keeper.createStatement();
+              try {
+                s.executeUpdate("SHUTDOWN");
+              } finally {
+                s.close();
+              }
+            }
+          } catch (final SQLException ignore) {
+            // The database is going away regardless.
+          } finally {
+            try {
+              keeper.close();
+            } catch (final SQLException ignore) {
+
+            }
+          }
+        }
+      }
+    }
+
+  }
+
 
 }
@@ -0,0 +1,129 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.h2;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.edugility.junit.db.DBConnection;
+import com.edugility.junit.db.DBRule;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.experimental.ParallelComputer;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseH2ManagerParallel {
+
+  private static final ConcurrentMap<Thread, String> urls = new ConcurrentHashMap<Thread, String>();
+
+  @Test
+  public void testPerThreadCatalogs() {
+    urls.clear();
+    final Result result = JUnitCore.runClasses(new ParallelComputer(false, true), ParallelTests.class);
+    assertNotNull(result);
+    assertTrue(String.valueOf(result.getFailures()), result.wasSuccessful());
+    assertEquals(4, result.getRunCount());
+    final Set<String> distinctUrls = new HashSet<String>(urls.values());
+    assertEquals(urls.size(), distinctUrls.size());
+  }
+
+  public static class ParallelTests {
+
+    @ClassRule
+    public static final DBRule classRule = new DBRule(new DBRule.DBManagerFactory() {
+        @Override
+        public final List<H2Manager> createManagers() {
+          final H2Manager manager = new H2Manager(H2Manager.withUniqueCatalog(new H2Manager("jdbc:h2:mem:parallel").getConnectionDescriptor()), true);
+          manager.setScope(DBRule.Scope.CLASS);
+          return Arrays.asList(manager);
+        }
+      });
+
+    @Rule
+    public final DBRule rule = classRule;
+
+    @DBConnection(catalog = "parallel")
+    private Connection connection;
+
+    @Test
+    public void testOne() throws Exception {
+      this.insertAndCount();
+    }
+
+    @Test
+    public void testTwo() throws Exception {
+      this.insertAndCount();
+    }
+
+    @Test
+    public void testThree() throws Exception {
+      this.insertAndCount();
+    }
+
+    @Test
+    public void testFour() throws Exception {
+      this.insertAndCount();
+    }
+
+    private final void insertAndCount() throws SQLException, InterruptedException {
+      assertNotNull(this.connection);
+      urls.put(Thread.currentThread(), this.connection.getMetaData().getURL());
+      final Statement s = this.connection.createStatement();
+      s.executeUpdate("CREATE TABLE IF NOT EXISTS PARALLEL_TEST (ID INT PRIMARY KEY)");
+      assertEquals(1, s.executeUpdate("INSERT INTO PARALLEL_TEST (ID) VALUES (1)"));
+      Thread.sleep(50L);
+      final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM PARALLEL_TEST");
+      assertTrue(rs.next());
+      assertEquals(1, rs.getInt(1));
+      rs.close();
+      s.executeUpdate("DELETE FROM PARALLEL_TEST");
+      s.close();
+    }
+
+  }
+
+}
@@ -0,0 +1,179 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.h2;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseH2ManagerSharedCatalog {
+
+  public TestCaseH2ManagerSharedCatalog() {
+    super();
+  }
+
+  @Test
+  public void testCatalogIgnoresShutdown() throws Exception {
+    final H2Manager first = newManager("sharedShutdown", true);
+    first.create();
+    first.connect();
+    assertTrue(first.isSharedCatalogCreator());
+    assertFalse(first.getConnectionDescriptor().isAttached());
+    execute(first.getAllocatedConnection(), "CREATE TABLE SHARED_TEST (ID INT PRIMARY KEY)");
+    first.inject();
+    first.disconnect();
+    first.destroy();
+
+    final H2Manager second = newManager("sharedShutdown", true);
+    second.create();
+    second.connect();
+    assertFalse(second.isSharedCatalogCreator());
+    assertTrue(second.getConnectionDescriptor().isAttached());
+    assertTrue(hasTable(second.getAllocatedConnection()));
+    second.disconnect();
+    second.destroy();
+
+    // Both managers would ordinarily have shut the database down, but
+    // a shared catalog lasts until the JVM exits.
+    final Connection c = openConnection("sharedShutdown");
+    try {
+      assertTrue(hasTable(c));
+    } finally {
+      c.close();
+    }
+  }
+
+  @Test
+  public void testCatalogOutlivesItsUsers() throws Exception {
+    final H2Manager first = newManager("sharedRetained", false);
+    first.create();
+    first.connect();
+    assertTrue(first.isSharedCatalogCreator());
+    execute(first.getAllocatedConnection(), "CREATE TABLE SHARED_TEST (ID INT PRIMARY KEY)");
+    first.inject();
+    first.disconnect();
+    first.destroy();
+
+    final H2Manager second = newManager("sharedRetained", true);
+    second.create();
+    second.connect();
+    assertFalse(second.isSharedCatalogCreator());
+    assertTrue(hasTable(second.getAllocatedConnection()));
+    second.disconnect();
+    second.destroy();
+  }
+
+  @Test
+  public void testAbandonedBuildPassesToNextManager() throws Exception {
+    final H2Manager first = newManager("sharedAbandoned", false);
+    first.create();
+    assertTrue(first.isSharedCatalogCreator());
+    // Destroyed without ever reaching inject(), as when a DBManager
+    // after it fails to initialize.
+    first.destroy();
+
+    final H2Manager second = newManager("sharedAbandoned", false);
+    second.create();
+    assertTrue(second.isSharedCatalogCreator());
+    assertFalse(second.getConnectionDescriptor().isAttached());
+    second.destroy();
+  }
+
+  @Test
+  public void testAttachWaitsForCreator() throws Exception {
+    final H2Manager first = newManager("sharedWaiting", false);
+    first.create();
+    first.connect();
+    assertTrue(first.isSharedCatalogCreator());
+
+    final H2Manager second = newManager("sharedWaiting", false);
+    final Thread attacher = new Thread() {
+        @Override
+        public final void run() {
+          try {
+            second.create();
+          } catch (final Exception e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+    attacher.start();
+    attacher.join(500L);
+    assertTrue(attacher.isAlive());
+
+    execute(first.getAllocatedConnection(), "CREATE TABLE SHARED_TEST (ID INT PRIMARY KEY)");
+    first.inject();
+    attacher.join(10000L);
+    assertFalse(attacher.isAlive());
+    assertFalse(second.isSharedCatalogCreator());
+    assertTrue(second.getConnectionDescriptor().isAttached());
+
+    first.disconnect();
+    first.destroy();
+    second.destroy();
+  }
+
+  private static final H2Manager newManager(final String catalog, final boolean shutdown) {
+    // No DB_CLOSE_DELAY, so only the shared catalog keeps the
+    // database alive between connections.
+    final H2Manager manager = new H2Manager(true, 0, catalog, null, false, "sa", "", shutdown);
+    manager.setSharedCatalog(true);
+    return manager;
+  }
+
+  private static final Connection openConnection(final String catalog) throws SQLException {
+    return DriverManager.getConnection("jdbc:h2:mem:" + catalog, "sa", "");
+  }
+
+  private static final boolean hasTable(final Connection c) throws SQLException {
+    assertNotNull(c);
+    final ResultSet tables = c.getMetaData().getTables(null, null, "SHARED_TEST", null);
+    final boolean returnValue = tables.next();
+    tables.close();
+    return returnValue;
+  }
+
+  private static final void execute(final Connection c, final String sql) throws SQLException {
+    assertNotNull(c);
+    final Statement s = c.createStatement();
+    try {
+      s.execute(sql);
+    } finally {
+      s.close();
+    }
+  }
+
+}
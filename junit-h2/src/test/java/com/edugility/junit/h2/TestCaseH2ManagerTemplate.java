@@ -0,0 +1,135 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.h2;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.Arrays;
+
+import com.edugility.junit.db.DBConnection;
+import com.edugility.junit.db.DBRule;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseH2ManagerTemplate {
+
+  private static int builds;
+
+  public final H2Manager manager;
+
+  @Rule
+  public final DBRule rule;
+
+  @DBConnection
+  private Connection connection;
+
+  public TestCaseH2ManagerTemplate() {
+    super();
+    this.manager = new H2Manager("template", "sa", "", true);
+    this.manager.setTemplateName(TestCaseH2ManagerTemplate.class.getName());
+    this.manager.setTemplateDataTables(Arrays.asList("TEMPLATE_BUILDS"));
+    this.rule = new DBRule(Arrays.<DBRule.DBManager>asList(this.manager, new SchemaBuilder(), new Seeder()));
+  }
+
+  @Test
+  public void testOne() throws SQLException {
+    this.assertSchema();
+  }
+
+  @Test
+  public void testTwo() throws SQLException {
+    this.assertSchema();
+  }
+
+  private final void assertSchema() throws SQLException {
+    assertNotNull(this.connection);
+    final Statement s = this.connection.createStatement();
+    ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM TEMPLATE_TEST");
+    assertTrue(rs.next());
+    assertEquals(1, rs.getInt(1));
+    rs.close();
+    rs = s.executeQuery("SELECT COUNT(*) FROM TEMPLATE_BUILDS");
+    assertTrue(rs.next());
+    assertEquals(1, rs.getInt(1));
+    rs.close();
+    s.close();
+  }
+
+  @AfterClass
+  public static void assertSchemaBuiltOnce() {
+    assertEquals(1, builds);
+  }
+
+  private final class SchemaBuilder extends DBRule.AbstractDBManager {
+
+    @Override
+    public void initialize() throws SQLException {
+      final Connection c = manager.getAllocatedConnection();
+      assertNotNull(c);
+      final ResultSet tables = c.getMetaData().getTables(null, null, "TEMPLATE_TEST", null);
+      final boolean exists = tables.next();
+      tables.close();
+      if (!exists) {
+        final Statement s = c.createStatement();
+        s.executeUpdate("CREATE TABLE TEMPLATE_TEST (ID INT PRIMARY KEY)");
+        s.executeUpdate("CREATE TABLE TEMPLATE_BUILDS (ID INT PRIMARY KEY)");
+        s.executeUpdate("INSERT INTO TEMPLATE_BUILDS (ID) VALUES (1)");
+        s.close();
+        builds++;
+      }
+    }
+
+  }
+
+  /**
+   * Inserts a row as a dataset would; the insert fails if the row was
+   * carried over in the template.
+   */
+  private final class Seeder extends DBRule.AbstractDBManager {
+
+    @Override
+    public void initialize() throws SQLException {
+      final Connection c = manager.getAllocatedConnection();
+      assertNotNull(c);
+      final Statement s = c.createStatement();
+      s.executeUpdate("INSERT INTO TEMPLATE_TEST (ID) VALUES (1)");
+      s.close();
+    }
+
+  }
+
+}
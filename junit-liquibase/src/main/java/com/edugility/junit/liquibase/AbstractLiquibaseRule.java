@@ -48,7 +48,9 @@ import java.util.logging.LogRecord;
 
 import com.edugility.junit.db.ConnectionDescriptor;
 
-import liquibase.Liquibase;
+import liquibase.Liquibase; // for javadoc only
+
+import liquibase.changelog.DatabaseChangeLog;
 
 import liquibase.database.jvm.JdbcConnection;
 
@@ -73,6 +75,14 @@ import org.junit.runners.model.Statement;
 
 public abstract class AbstractLiquibaseRule implements TestRule {
 
+  /**
+   * The {@link ResourceAccessor} returned by default by {@link
+   * #createResourceAccessor()}.  It is shared so that {@link
+   * ChangeLogCache}, which keys its entries by {@link
+   * ResourceAccessor}, can reuse parsed changelogs across rules.
+   */
+  private static final ResourceAccessor defaultResourceAccessor = new CompositeResourceAccessor(new FileSystemResourceAccessor(), new ClassLoaderResourceAccessor(), new URLResourceAccessor());
+
   protected transient Logger logger;
 
   private String username;
@@ -85,6 +95,10 @@ public abstract class AbstractLiquibaseRule implements TestRule {
 
   private String changeLogResourceName;
 
+  private boolean fingerprintEnabled;
+
+  private boolean changeLogLockEnabled;
+
   public AbstractLiquibaseRule(final ConnectionDescriptor cd, final String changeLogResourceName, final String... changeLogContexts) {
     this(cd == null ? null : cd.getUsername(),
          cd == null ? null : cd.getPassword(),
@@ -110,6 +124,7 @@ public abstract class AbstractLiquibaseRule implements TestRule {
       this.setChangeLogResourceName(changeLogResourceName);
     }
     this.setChangeLogContexts(changeLogContexts);
+    this.setChangeLogLockEnabled(true);
   }
 
   protected Logger createLogger() {
@@ -163,6 +178,59 @@ public abstract class AbstractLiquibaseRule implements TestRule {
     this.contexts = changeLogContexts;
   }
 
+  /**
+   * Returns {@code true} if {@link #update()} does nothing when the
+   * database records that it has already been brought up to date
+   * with an identical changelog.
+   *
+   * @return {@code true} if fingerprinting is enabled
+   *
+   * @see LiquibaseManager#setFingerprintEnabled(boolean)
+   */
+  public boolean isFingerprintEnabled() {
+    return this.fingerprintEnabled;
+  }
+
+  /**
+   * Sets whether {@link #update()} does nothing when the database
+   * records that it has already been brought up to date with an
+   * identical changelog, in the same way and in the same {@linkplain
+   * LiquibaseManager#FINGERPRINT_TABLE_NAME table} as a {@link
+   * LiquibaseManager} does.
+   *
+   * @param fingerprintEnabled whether fingerprinting is enabled
+   *
+   * @see LiquibaseManager#setFingerprintEnabled(boolean)
+   */
+  public void setFingerprintEnabled(final boolean fingerprintEnabled) {
+    this.fingerprintEnabled = fingerprintEnabled;
+  }
+
+  /**
+   * Returns {@code true} if {@link #update()} acquires and releases
+   * Liquibase's changelog lock.
+   *
+   * @return {@code true} if the changelog lock is used
+   *
+   * @see LiquibaseManager#setChangeLogLockEnabled(boolean)
+   */
+  public boolean isChangeLogLockEnabled() {
+    return this.changeLogLockEnabled;
+  }
+
+  /**
+   * Sets whether {@link #update()} acquires and releases Liquibase's
+   * changelog lock.  The default is {@code true}; set it to {@code
+   * false} only for databases that nothing else can reach.
+   *
+   * @param changeLogLockEnabled whether the changelog lock is used
+   *
+   * @see LiquibaseManager#setChangeLogLockEnabled(boolean)
+   */
+  public void setChangeLogLockEnabled(final boolean changeLogLockEnabled) {
+    this.changeLogLockEnabled = changeLogLockEnabled;
+  }
+
   /**
    * Runs a <a href="http://liquibase.org/">Liquibase</a> <a
    * href="http://www.liquibase.org/manual/update">update</a>
@@ -187,7 +255,8 @@ public abstract class AbstractLiquibaseRule implements TestRule {
    *
    * <li>Using the {@link ResourceAccessor}, attempt to open a
    * connection to the changelog resource to see if it exists.  If it
-   * does not exist, this method effectively returns.</li>
+   * does not exist, this method effectively returns without ever
+   * connecting to the database.</li>
    *
    * <li>Get a {@link Connection} to the appropriate {@link Database}
    * by calling the {@link #getConnection()} method.  <strong>This
@@ -197,23 +266,37 @@ public abstract class AbstractLiquibaseRule implements TestRule {
    * <li>Assemble the {@linkplain #getChangeLogContexts() changelog
    * contexts} into a single comma-delimited {@link String}.</li>
    *
-   * <li>Create a new {@link Liquibase} instance from the data that
-   * has been gathered so far.</li>
+   * <li>If {@linkplain #isFingerprintEnabled() fingerprinting is
+   * enabled}, compute a {@linkplain
+   * ChangeLogCache#getFingerprint(String, ResourceAccessor, Database,
+   * String) fingerprint} of the changelog and contexts.  If the
+   * database has recorded that fingerprint, this method effectively
+   * returns.</li>
    *
-   * <li>Invoke the {@link Liquibase#update(String)} method.</li>
+   * <li>Using the {@link ResourceAccessor}, {@linkplain
+   * ChangeLogCache#getChangeLog(String, ResourceAccessor, Database,
+   * String) obtain a parsed <tt>DatabaseChangeLog</tt>}, reusing one
+   * parsed earlier in this JVM if the changelog resource has not
+   * changed since.</li>
    *
-   * <li>{@linkplain Liquibase#forceReleaseLocks() Forcibly release
-   * any database locks acquired by the <tt>Liquibase</tt>
-   * instance}.</li>
+   * <li>{@linkplain LiquibaseManager#update(DatabaseChangeLog,
+   * Database, String) Run the update} as the {@link
+   * Liquibase#update(String)} method would, and then {@linkplain
+   * Liquibase#forceReleaseLocks() forcibly release any database locks
+   * acquired along the way}.  The changelog lock is skipped entirely
+   * if it has been {@linkplain #setChangeLogLockEnabled(boolean)
+   * disabled}, and for {@linkplain
+   * LiquibaseManager#isPrivateInMemory(Database) unnamed in-memory
+   * databases}.  If fingerprinting is enabled,
+   * record the fingerprint in the database.</li>
    *
    * </ol>
    *
    * @exception DatabaseException if an error occurs while trying to
    * determine the appropriate {@link Database} class to use
    *
-   * @exception LiquibaseException if an error occurs with the {@link
-   * Liquibase} instance creation or the invocation of its {@link
-   * Liquibase#update(String)} method
+   * @exception LiquibaseException if an error occurs while parsing
+   * the changelog or while running the update
    *
    * @exception SQLException if an error occurs while allocating a
    * {@link Connection} to the database
@@ -230,7 +313,7 @@ public abstract class AbstractLiquibaseRule implements TestRule {
 
     ResourceAccessor resourceAccessor = this.createResourceAccessor();
     if (resourceAccessor == null) {
-      resourceAccessor = new CompositeResourceAccessor(new FileSystemResourceAccessor(), new ClassLoaderResourceAccessor(), new URLResourceAccessor());
+      resourceAccessor = defaultResourceAccessor;
     }    
 
     if (this.changeLogExists(changeLogResourceName, resourceAccessor)) {
@@ -269,11 +352,27 @@ public abstract class AbstractLiquibaseRule implements TestRule {
           }
         }
 
-        final Liquibase liquibase = new Liquibase(changeLogResourceName, resourceAccessor, database);
-        try {
-          liquibase.update(changeLogContext);
-        } finally {
-          liquibase.forceReleaseLocks();
+        final String fingerprint;
+        if (this.isFingerprintEnabled()) {
+          fingerprint = ChangeLogCache.getFingerprint(changeLogResourceName, resourceAccessor, database, changeLogContext);
+        } else {
+          fingerprint = null;
+        }
+
+        if (fingerprint != null && LiquibaseManager.hasFingerprint(connection, database, fingerprint)) {
+          if (this.logger != null && this.logger.isLoggable(Level.FINE)) {
+            this.logger.logp(Level.FINE, this.getClass().getName(), "update", "The database is already up to date with the changelog resource {0}", changeLogResourceName);
+          }
+        } else {
+          final DatabaseChangeLog changeLog = ChangeLogCache.getChangeLog(changeLogResourceName, resourceAccessor, database, changeLogContext);
+          if (changeLog != null) {
+            LiquibaseManager.update(changeLog, database, changeLogContext, this.isChangeLogLockEnabled() && !LiquibaseManager.isPrivateInMemory(database));
+            if (fingerprint != null) {
+              LiquibaseManager.recordFingerprint(connection, database, fingerprint);
+            }
+          } else if (this.logger != null && this.logger.isLoggable(Level.FINE)) {
+            this.logger.logp(Level.FINE, this.getClass().getName(), "update", "The changelog resource {0} does not exist", changeLogResourceName);
+          }
         }
 
       } finally {
@@ -281,7 +380,7 @@ public abstract class AbstractLiquibaseRule implements TestRule {
           try {
             connection.close();
           } catch (final SQLException whatever) {
-            
+          
           }
         }
       }
@@ -374,7 +473,7 @@ public abstract class AbstractLiquibaseRule implements TestRule {
   public abstract Connection getConnection() throws SQLException;
 
   public ResourceAccessor createResourceAccessor() {
-    return new CompositeResourceAccessor(new FileSystemResourceAccessor(), new ClassLoaderResourceAccessor(), new URLResourceAccessor());
+    return defaultResourceAccessor;
   }
 
   public static Database findCorrectDatabaseImplementation(final Connection connection) throws DatabaseException {
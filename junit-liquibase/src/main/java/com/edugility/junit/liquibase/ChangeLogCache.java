@@ -0,0 +1,456 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.liquibase;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+import java.net.URL;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.LogRecord;
+
+import liquibase.changelog.ChangeLogParameters;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.database.Database;
+
+import liquibase.exception.LiquibaseException;
+
+import liquibase.parser.ChangeLogParser;
+import liquibase.parser.ChangeLogParserFactory;
+
+import liquibase.resource.ResourceAccessor;
+
+/**
+ * A JVM-wide cache of parsed {@link DatabaseChangeLog}s shared by
+ * all {@link LiquibaseManager}s and {@link AbstractLiquibaseRule}s.
+ *
+ * <p>Entries are keyed by changelog resource name, the {@link
+ * ResourceAccessor} used to read it (since two {@link
+ * ResourceAccessor}s may resolve the same name differently), the type
+ * and default schema of the target {@link Database} (since both
+ * influence changelog parameter expansion) and the changelog contexts
+ * in effect.  {@link ResourceAccessor}s are compared by identity and
+ * held weakly, so callers that want to share entries should reuse
+ * the same {@link ResourceAccessor}.  Each entry records a SHA-1 digest of the contents of the
+ * changelog resource, and of every resource it includes, as read
+ * through the supplied {@link ResourceAccessor}; if any of them
+ * changes, or if an included resource cannot be read, the changelog
+ * is parsed again.</p>
+ *
+ * @author <a href="http://about.me/lairdnelson"
+ * target="_parent">Laird Nelson</a>
+ *
+ * @see #getChangeLog(String, ResourceAccessor, Database, String)
+ */
+public final class ChangeLogCache {
+
+  /**
+   * The cache of parsed {@link DatabaseChangeLog}s.  This field is
+   * never {@code null}.
+   */
+  private static final ConcurrentMap<Key, Entry> changeLogs = new ConcurrentHashMap<Key, Entry>();
+
+  /**
+   * The {@link ReferenceQueue} on which {@link Key}s whose {@link
+   * ResourceAccessor}s have been collected are enqueued.
+   */
+  private static final ReferenceQueue<ResourceAccessor> staleKeys = new ReferenceQueue<ResourceAccessor>();
+
+  /**
+   * Creates a new {@link ChangeLogCache}.
+   */
+  private ChangeLogCache() {
+    super();
+  }
+
+  /**
+   * Returns a parsed {@link DatabaseChangeLog} for the supplied
+   * changelog resource, parsing it only if it has not been parsed
+   * before or if it has changed since it was last parsed.
+   *
+   * <p>This method returns {@code null} if the named changelog
+   * resource cannot be found by the supplied {@link
+   * ResourceAccessor}, so there is no need to check for its
+   * existence beforehand.</p>
+   *
+   * @param changeLogResourceName the name of the changelog resource;
+   * may be {@code null} in which case {@code null} will be returned
+   *
+   * @param resourceAccessor the {@link ResourceAccessor} used to
+   * locate and parse the changelog resource; may be {@code null} in
+   * which case {@code null} will be returned
+   *
+   * @param database the {@link Database} against which the changelog
+   * will be run; must not be {@code null}
+   *
+   * @param changeLogContext a comma-separated list of changelog
+   * contexts; may be {@code null}
+   *
+   * @return a {@link DatabaseChangeLog}, or {@code null} if the
+   * changelog resource does not exist
+   *
+   * @exception IllegalArgumentException if {@code database} is {@code
+   * null}
+   *
+   * @exception LiquibaseException if the changelog could not be
+   * parsed
+   */
+  public static final DatabaseChangeLog getChangeLog(final String changeLogResourceName, final ResourceAccessor resourceAccessor, final Database database, final String changeLogContext) throws LiquibaseException {
+    final Entry entry = getEntry(changeLogResourceName, resourceAccessor, database, changeLogContext);
+    return entry == null ? null : entry.changeLog;
+  }
+
+  /**
+   * Returns a SHA-1 digest of the contents of the named changelog
+   * resource and of every resource it includes, together with the
+   * changelog contexts and the type and default schema of the
+   * supplied {@link Database}, or {@code null} if the changelog
+   * resource does not exist or if any resource it includes could not
+   * be read through the supplied {@link ResourceAccessor}.
+   *
+   * <p>Two equal fingerprints mean that running the changelog would
+   * execute the same changesets with the same checksums, so a
+   * database that has been brought up to date with one is up to date
+   * with the other.  A {@code null} return value means that no such
+   * guarantee can be made.  Computing a fingerprint costs no more
+   * than {@linkplain #getChangeLog(String, ResourceAccessor, Database,
+   * String) retrieving a cached changelog}, and in particular does
+   * not compute changeset checksums.</p>
+   *
+   * @param changeLogResourceName the name of the changelog resource;
+   * may be {@code null} in which case {@code null} will be returned
+   *
+   * @param resourceAccessor the {@link ResourceAccessor} used to
+   * locate and parse the changelog resource; may be {@code null} in
+   * which case {@code null} will be returned
+   *
+   * @param database the {@link Database} against which the changelog
+   * will be run; must not be {@code null}
+   *
+   * @param changeLogContext a comma-separated list of changelog
+   * contexts; may be {@code null}
+   *
+   * @return a fingerprint of at most 40 characters, or {@code null}
+   *
+   * @exception IllegalArgumentException if {@code database} is {@code
+   * null}
+   *
+   * @exception LiquibaseException if the changelog could not be
+   * parsed
+   */
+  public static final String getFingerprint(final String changeLogResourceName, final ResourceAccessor resourceAccessor, final Database database, final String changeLogContext) throws LiquibaseException {
+    final Entry entry = getEntry(changeLogResourceName, resourceAccessor, database, changeLogContext);
+    return entry == null ? null : entry.digest;
+  }
+
+  private static final Entry getEntry(final String changeLogResourceName, final ResourceAccessor resourceAccessor, final Database database, final String changeLogContext) throws LiquibaseException {
+    if (database == null) {
+      throw new IllegalArgumentException("database", new NullPointerException("database == null"));
+    }
+    Reference<? extends ResourceAccessor> stale;
+    while ((stale = staleKeys.poll()) != null) {
+      changeLogs.remove(stale);
+    }
+    Entry entry = null;
+    if (changeLogResourceName != null && resourceAccessor != null) {
+      final String fingerprint = fingerprint(changeLogResourceName, resourceAccessor);
+      if (fingerprint != null) {
+        final List<String> values = Arrays.asList(changeLogResourceName, database.getTypeName(), database.getDefaultSchemaName(), changeLogContext);
+        entry = changeLogs.get(new Key(values, resourceAccessor, null));
+        if (entry == null || !fingerprint.equals(entry.fingerprint) || !entry.isCurrent(resourceAccessor)) {
+          final ChangeLogParameters parameters = new ChangeLogParameters(database);
+          parameters.setContexts(LiquibaseManager.splitChangeLogContext(changeLogContext));
+          final RecordingResourceAccessor recordingResourceAccessor = new RecordingResourceAccessor(resourceAccessor);
+          final ChangeLogParser parser = ChangeLogParserFactory.getInstance().getParser(changeLogResourceName, recordingResourceAccessor);
+          assert parser != null;
+          final DatabaseChangeLog changeLog = parser.parse(changeLogResourceName, parameters, recordingResourceAccessor);
+          if (changeLog == null) {
+            entry = null;
+          } else {
+            final Set<String> includedResourceNames = recordingResourceAccessor.getResourceNames();
+            includedResourceNames.remove(changeLogResourceName);
+            entry = new Entry(values, fingerprint, changeLog, includedResourceNames, resourceAccessor);
+            changeLogs.put(new Key(values, resourceAccessor, staleKeys), entry);
+          }
+        }
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Returns a SHA-1 digest of the contents of the named resource as
+   * read through the supplied {@link ResourceAccessor}, or {@code
+   * null} if the resource does not exist or could not be read.
+   */
+  private static final String fingerprint(final String resourceName, final ResourceAccessor resourceAccessor) {
+    assert resourceName != null;
+    assert resourceAccessor != null;
+    String fingerprint = null;
+    try {
+      final InputStream stream = resourceAccessor.getResourceAsStream(resourceName);
+      if (stream != null) {
+        try {
+          final MessageDigest md = newMessageDigest();
+          final byte[] buffer = new byte[8192];
+          int bytesRead;
+          while ((bytesRead = stream.read(buffer)) >= 0) {
+            md.update(buffer, 0, bytesRead);
+          }
+          fingerprint = toHexString(md.digest());
+        } finally {
+          stream.close();
+        }
+      }
+    } catch (final IOException logMe) {
+      fingerprint = null;
+      final Logger logger = Logger.getLogger(ChangeLogCache.class.getName());
+      if (logger != null && logger.isLoggable(Level.SEVERE)) {
+        final LogRecord logRecord = new LogRecord(Level.SEVERE, "The changelog resource named {0} could not be read.");
+        logRecord.setThrown(logMe);
+        logRecord.setParameters(new Object[] { resourceName, resourceAccessor });
+        logRecord.setSourceClassName(ChangeLogCache.class.getName());
+        logRecord.setSourceMethodName("fingerprint");
+        logger.log(logRecord);
+      }
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Returns the concatenated fingerprints of the supplied resources,
+   * or {@code null} if any one of them could not be fingerprinted.
+   */
+  private static final String fingerprint(final Iterable<? extends String> resourceNames, final ResourceAccessor resourceAccessor) {
+    assert resourceNames != null;
+    StringBuilder sb = new StringBuilder();
+    for (final String resourceName : resourceNames) {
+      final String fingerprint = fingerprint(resourceName, resourceAccessor);
+      if (fingerprint == null) {
+        sb = null;
+        break;
+      }
+      sb.append(fingerprint).append('\n');
+    }
+    return sb == null ? null : sb.toString();
+  }
+
+  private static final String digest(final String s) {
+    assert s != null;
+    try {
+      return toHexString(newMessageDigest().digest(s.getBytes("UTF-8")));
+    } catch (final IOException cannotHappen) {
+      throw new IllegalStateException(cannotHappen);
+    }
+  }
+
+  private static final MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (final NoSuchAlgorithmException cannotHappen) {
+      throw new IllegalStateException(cannotHappen);
+    }
+  }
+
+  private static final String toHexString(final byte[] bytes) {
+    assert bytes != null;
+    final StringBuilder sb = new StringBuilder();
+    for (final byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A key in the {@linkplain #changeLogs cache}: the {@link String}s
+   * that identify an entry together with a weak reference to the
+   * {@link ResourceAccessor} it was parsed with.  Two {@link Key}s
+   * are equal if their {@link String}s are equal and they refer to
+   * the same {@link ResourceAccessor}.
+   */
+  private static final class Key extends WeakReference<ResourceAccessor> {
+
+    private final List<String> values;
+
+    private final int hashCode;
+
+    private Key(final List<String> values, final ResourceAccessor resourceAccessor, final ReferenceQueue<? super ResourceAccessor> queue) {
+      super(resourceAccessor, queue);
+      assert values != null;
+      assert resourceAccessor != null;
+      this.values = values;
+      this.hashCode = 31 * values.hashCode() + System.identityHashCode(resourceAccessor);
+    }
+
+    @Override
+    public final int hashCode() {
+      return this.hashCode;
+    }
+
+    @Override
+    public final boolean equals(final Object other) {
+      boolean returnValue = false;
+      if (other == this) {
+        returnValue = true;
+      } else if (other instanceof Key) {
+        final Key her = (Key)other;
+        final ResourceAccessor resourceAccessor = this.get();
+        returnValue = resourceAccessor != null && resourceAccessor == her.get() && this.values.equals(her.values);
+      }
+      return returnValue;
+    }
+
+  }
+
+  /**
+   * A parsed {@link DatabaseChangeLog} together with the fingerprints
+   * of the resources it was parsed from.
+   */
+  private static final class Entry {
+
+    private final String fingerprint;
+
+    private final DatabaseChangeLog changeLog;
+
+    /**
+     * The names of the resources, other than the master changelog,
+     * that were read while parsing it.
+     */
+    private final List<String> includedResourceNames;
+
+    private final String includedFingerprint;
+
+    /**
+     * A digest of all fingerprints together with the cache key, or
+     * {@code null} if an included resource could not be
+     * fingerprinted.
+     */
+    private final String digest;
+
+    private Entry(final List<String> key, final String fingerprint, final DatabaseChangeLog changeLog, final Collection<? extends String> includedResourceNames, final ResourceAccessor resourceAccessor) {
+      super();
+      assert key != null;
+      assert fingerprint != null;
+      assert changeLog != null;
+      assert includedResourceNames != null;
+      this.fingerprint = fingerprint;
+      this.changeLog = changeLog;
+      this.includedResourceNames = new ArrayList<String>(includedResourceNames);
+      this.includedFingerprint = fingerprint(this.includedResourceNames, resourceAccessor);
+      if (this.includedFingerprint == null) {
+        this.digest = null;
+      } else {
+        this.digest = digest(key + "\n" + fingerprint + "\n" + this.includedFingerprint);
+      }
+    }
+
+    /**
+     * Returns {@code true} if every resource included by the master
+     * changelog still has the contents it had when this {@link Entry}
+     * was created.  An {@link Entry} with an included resource that
+     * could not be read is never current.
+     */
+    private final boolean isCurrent(final ResourceAccessor resourceAccessor) {
+      return this.includedResourceNames.isEmpty() || (this.includedFingerprint != null && this.includedFingerprint.equals(fingerprint(this.includedResourceNames, resourceAccessor)));
+    }
+
+  }
+
+  /**
+   * A {@link ResourceAccessor} that remembers the names of the
+   * resources that were successfully opened through it, so that
+   * resources included by a changelog can be found whatever logical
+   * file paths their changesets declare.
+   */
+  private static final class RecordingResourceAccessor implements ResourceAccessor {
+
+    private final ResourceAccessor delegate;
+
+    private final Set<String> resourceNames;
+
+    private RecordingResourceAccessor(final ResourceAccessor delegate) {
+      super();
+      assert delegate != null;
+      this.delegate = delegate;
+      this.resourceNames = new LinkedHashSet<String>();
+    }
+
+    private final synchronized Set<String> getResourceNames() {
+      return new LinkedHashSet<String>(this.resourceNames);
+    }
+
+    @Override
+    public final InputStream getResourceAsStream(final String resourceName) throws IOException {
+      final InputStream stream = this.delegate.getResourceAsStream(resourceName);
+      if (stream != null && resourceName != null) {
+        synchronized (this) {
+          this.resourceNames.add(resourceName);
+        }
+      }
+      return stream;
+    }
+
+    @Override
+    public final Enumeration<URL> getResources(final String packageName) throws IOException {
+      return this.delegate.getResources(packageName);
+    }
+
+    @Override
+    public final ClassLoader toClassLoader() {
+      return this.delegate.toClassLoader();
+    }
+
+    @Override
+    public final String toString() {
+      return this.delegate.toString();
+    }
+
+  }
+
+}
@@ -27,6 +27,7 @@
  */
 package com.edugility.junit.liquibase;
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
 
@@ -34,12 +35,24 @@ import java.net.MalformedURLException;
 import java.net.URL;
 
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,9 +61,19 @@ import java.util.logging.LogRecord;
 import com.edugility.junit.db.ConnectionDescriptor;
 import com.edugility.junit.db.DBRule.SingleDBManager;
 
-import liquibase.Liquibase;
+import liquibase.Liquibase; // for javadoc only
+
+import liquibase.changelog.ChangeLogIterator;
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.changelog.filter.ContextChangeSetFilter;
+import liquibase.changelog.filter.DbmsChangeSetFilter;
+import liquibase.changelog.filter.ShouldRunChangeSetFilter;
+
+import liquibase.changelog.visitor.UpdateVisitor;
 
 import liquibase.database.Database;
+import liquibase.database.DatabaseConnection;
 import liquibase.database.DatabaseFactory;
 
 import liquibase.database.jvm.JdbcConnection;
@@ -58,22 +81,46 @@ import liquibase.database.jvm.JdbcConnection;
 import liquibase.exception.DatabaseException;
 import liquibase.exception.LiquibaseException;
 
+import liquibase.lockservice.LockService;
+
 import liquibase.resource.ClassLoaderResourceAccessor;
 import liquibase.resource.CompositeResourceAccessor;
 import liquibase.resource.FileSystemResourceAccessor;
 import liquibase.resource.ResourceAccessor;
 
 import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertTrue;
 
 public class LiquibaseManager extends SingleDBManager {
 
+  /**
+   * The name of the table in which {@linkplain
+   * #setFingerprintEnabled(boolean) changelog fingerprints} are
+   * recorded.
+   */
+  public static final String FINGERPRINT_TABLE_NAME = "DATABASECHANGELOGFINGERPRINT";
+
+  private static final ConcurrentMap<List<String>, Snapshot> snapshots = new ConcurrentHashMap<List<String>, Snapshot>();
+
+  /**
+   * The {@link ResourceAccessor} used when none is supplied at
+   * construction time.  It is shared so that {@link ChangeLogCache},
+   * which keys its entries by {@link ResourceAccessor}, can reuse
+   * parsed changelogs across {@link LiquibaseManager}s.
+   */
+  private static final ResourceAccessor defaultAccessor = new CompositeResourceAccessor(new FileSystemResourceAccessor(), new ClassLoaderResourceAccessor(), new URLResourceAccessor());
+
   private final String changeLogResourceName;
 
   private final ResourceAccessor accessor;
 
   private final String changeLogContext;
 
+  private boolean snapshotEnabled;
+
+  private boolean fingerprintEnabled;
+
+  private boolean changeLogLockEnabled;
+
   private transient Database database;
 
   public LiquibaseManager(final ConnectionDescriptor cd, final String... changeLogContexts) {
@@ -89,6 +136,7 @@ public class LiquibaseManager extends SingleDBManager {
     this.changeLogResourceName = changeLogResourceName;
     this.accessor = accessor;
     this.changeLogContext = joinChangeLogContexts(Arrays.asList(changeLogContexts));
+    this.changeLogLockEnabled = true;
   }
 
   @Override
@@ -107,23 +155,200 @@ public class LiquibaseManager extends SingleDBManager {
     }
   }
 
+  /**
+   * Returns {@code true} if this {@link LiquibaseManager} will
+   * capture a snapshot of the database after its first successful
+   * update and will use that snapshot to satisfy subsequent calls to
+   * {@link #initialize()}.
+   *
+   * @return {@code true} if snapshots are enabled; {@code false}
+   * otherwise
+   *
+   * @see #setSnapshotEnabled(boolean)
+   */
+  public boolean isSnapshotEnabled() {
+    return this.snapshotEnabled;
+  }
+
+  /**
+   * Sets whether this {@link LiquibaseManager} will capture a
+   * snapshot of the database after its first successful update and
+   * will use that snapshot to satisfy subsequent calls to {@link
+   * #initialize()}.
+   *
+   * <p>Snapshots are shared by all {@link LiquibaseManager}s in the
+   * current JVM and are keyed by the connection URL, the changelog
+   * resource name and the changelog contexts in effect.  When a
+   * snapshot exists for that combination, {@link #initialize()} will
+   * skip the Liquibase update entirely if the database's
+   * <tt>DATABASECHANGELOG</tt> table already matches the snapshot's
+   * recorded changesets and checksums, or will restore the snapshot
+   * if the database has not been migrated at all.  In all other cases
+   * a normal update is performed.</p>
+   *
+   * <p>Snapshots are currently only supported for <a
+   * href="http://www.h2database.com/">H2</a> databases, where they are
+   * captured with <tt>SCRIPT TO</tt> and restored with
+   * <tt>RUNSCRIPT FROM</tt>.  For all other databases this setting
+   * is ignored.</p>
+   *
+   * @param snapshotEnabled whether snapshots are enabled
+   */
+  public void setSnapshotEnabled(final boolean snapshotEnabled) {
+    this.snapshotEnabled = snapshotEnabled;
+  }
+
+  /**
+   * Returns {@code true} if this {@link LiquibaseManager} skips the
+   * Liquibase update entirely when the database records that it has
+   * already been brought up to date with an identical changelog.
+   *
+   * @return {@code true} if fingerprinting is enabled
+   *
+   * @see #setFingerprintEnabled(boolean)
+   */
+  public boolean isFingerprintEnabled() {
+    return this.fingerprintEnabled;
+  }
+
+  /**
+   * Sets whether this {@link LiquibaseManager} skips the Liquibase
+   * update entirely when the database records that it has already
+   * been brought up to date with an identical changelog.
+   *
+   * <p>When enabled, {@link #initialize()} computes a {@linkplain
+   * ChangeLogCache#getFingerprint(String, ResourceAccessor, Database,
+   * String) fingerprint} of the changelog resources and contexts and
+   * looks for it in a one-column table named {@link
+   * #FINGERPRINT_TABLE_NAME} in the database's default schema.  If it
+   * is there, the update, with its locking, reading of
+   * <tt>DATABASECHANGELOG</tt> and checksum computation, is skipped.
+   * Otherwise the update is performed and the fingerprint is recorded
+   * afterwards, creating the table if necessary.</p>
+   *
+   * <p>Because the fingerprint lives in the database itself, a
+   * database that is recreated starts out without one.  Changes made
+   * to the database's schema by other means than the changelog go
+   * unnoticed, however.</p>
+   *
+   * @param fingerprintEnabled whether fingerprinting is enabled
+   */
+  public void setFingerprintEnabled(final boolean fingerprintEnabled) {
+    this.fingerprintEnabled = fingerprintEnabled;
+  }
+
+  /**
+   * Returns {@code true} if this {@link LiquibaseManager} acquires
+   * and releases Liquibase's changelog lock around each update.
+   *
+   * @return {@code true} if the changelog lock is used
+   *
+   * @see #setChangeLogLockEnabled(boolean)
+   */
+  public boolean isChangeLogLockEnabled() {
+    return this.changeLogLockEnabled;
+  }
+
+  /**
+   * Sets whether this {@link LiquibaseManager} acquires and releases
+   * Liquibase's changelog lock around each update.  The default is
+   * {@code true}.
+   *
+   * <p>The lock costs several statements and commits per update and
+   * guards only against other processes updating the same database
+   * at the same time.  Set this to {@code false} for databases that
+   * nothing else can reach, such as an in-memory H2 database whose
+   * catalog was made unique to the test class:</p>
+   *
+   * <blockquote><pre>final ConnectionDescriptor cd = H2Manager.withUniqueCatalog(descriptor);
+   *final H2Manager h2 = new H2Manager(cd, true);
+   *final LiquibaseManager liquibase = new LiquibaseManager(cd);
+   *liquibase.setChangeLogLockEnabled(!h2.isInMemory());</pre></blockquote>
+   *
+   * <p>Regardless of this setting the lock is skipped for {@linkplain
+   * #isPrivateInMemory(Database) unnamed in-memory databases}.</p>
+   *
+   * @param changeLogLockEnabled whether the changelog lock is used
+   */
+  public void setChangeLogLockEnabled(final boolean changeLogLockEnabled) {
+    this.changeLogLockEnabled = changeLogLockEnabled;
+  }
+
+  /**
+   * Brings the database up to date with this {@link
+   * LiquibaseManager}'s changelog, unless its {@link
+   * ConnectionDescriptor} reports that it has {@linkplain
+   * ConnectionDescriptor#isAttached() attached} to a database that
+   * was already built, such as a shared H2 catalog migrated by an
+   * earlier test class.
+   */
   @Override
   public void initialize() throws Exception {
     assertNotNull(this.changeLogResourceName);
     assertNotNull(this.database);
+    final ConnectionDescriptor cd = this.getConnectionDescriptor();
+    if (cd == null || !cd.isAttached()) {
+      this.migrate();
+    }
+  }
+
+  private final void migrate() throws Exception {
+    final Connection c = this.getAllocatedConnection();
     final ResourceAccessor accessor;
     if (this.accessor == null) {
-      accessor = new CompositeResourceAccessor(new FileSystemResourceAccessor(), new ClassLoaderResourceAccessor(), new URLResourceAccessor());
+      accessor = defaultAccessor;
     } else {
       accessor = this.accessor;
     }
-    assertTrue(changeLogExists(this.changeLogResourceName, accessor));
-    final Liquibase liquibase = new Liquibase(this.changeLogResourceName, accessor, this.database);
-    try {
-      liquibase.update(this.changeLogContext);
-    } finally {
-      liquibase.forceReleaseLocks();
+    final String fingerprint;
+    if (this.isFingerprintEnabled()) {
+      fingerprint = ChangeLogCache.getFingerprint(this.changeLogResourceName, accessor, this.database, this.changeLogContext);
+    } else {
+      fingerprint = null;
+    }
+    if (fingerprint == null || !hasFingerprint(c, this.database, fingerprint)) {
+      this.update(c, accessor, fingerprint);
+    }
+  }
+
+  private final void update(final Connection c, final ResourceAccessor accessor, final String fingerprint) throws Exception {
+    assertNotNull(accessor);
+    final List<String> snapshotKey = this.getSnapshotKey(c);
+    final Snapshot snapshot;
+    if (snapshotKey == null) {
+      snapshot = null;
+    } else {
+      snapshot = snapshots.get(snapshotKey);
+    }
+    if (snapshot == null || !snapshot.restore(c, this.database)) {
+      final DatabaseChangeLog changeLog = ChangeLogCache.getChangeLog(this.changeLogResourceName, accessor, this.database, this.changeLogContext);
+      assertNotNull(changeLog);
+      update(changeLog, this.database, this.changeLogContext, this.isChangeLogLockEnabled() && !isPrivateInMemory(this.database));
+      if (fingerprint != null) {
+        // Record the fingerprint before any snapshot is captured so
+        // that restored snapshots carry it too.
+        recordFingerprint(c, this.database, fingerprint);
+      }
+      if (snapshotKey != null && snapshot == null) {
+        final Snapshot newSnapshot = Snapshot.capture(c, this.database);
+        if (newSnapshot != null && snapshots.putIfAbsent(snapshotKey, newSnapshot) != null) {
+          newSnapshot.discard();
+        }
+      }
+    } else if (fingerprint != null) {
+      recordFingerprint(c, this.database, fingerprint);
+    }
+  }
+
+  private final List<String> getSnapshotKey(final Connection c) throws SQLException {
+    List<String> key = null;
+    if (this.isSnapshotEnabled() && c != null) {
+      final String url = c.getMetaData().getURL();
+      if (url != null && url.startsWith("jdbc:h2:")) {
+        key = Arrays.asList(url, this.changeLogResourceName, this.changeLogContext);
+      }
     }
+    return key;
   }
 
   private static final String joinChangeLogContexts(final Iterable<? extends String> changeLogContexts) {
@@ -155,6 +380,245 @@ public class LiquibaseManager extends SingleDBManager {
     return changeLogContext;
   }
 
+  static final List<String> splitChangeLogContext(final String changeLogContext) {
+    final List<String> contexts = new ArrayList<String>();
+    if (changeLogContext != null) {
+      for (final String context : changeLogContext.split(",")) {
+        final String trimmedContext = context.trim();
+        if (!trimmedContext.isEmpty()) {
+          contexts.add(trimmedContext);
+        }
+      }
+    }
+    return contexts;
+  }
+
+  /**
+   * Runs a Liquibase update of the supplied {@link Database} using an
+   * already-parsed {@link DatabaseChangeLog}, such as one returned by
+   * {@link ChangeLogCache#getChangeLog(String, ResourceAccessor,
+   * Database, String)}.
+   *
+   * <p>This method does what {@link Liquibase#update(String)} does,
+   * minus the parsing of the changelog, and then {@linkplain
+   * Liquibase#forceReleaseLocks() forcibly releases} the changelog
+   * lock.  If the supplied {@link Database} is a {@linkplain
+   * #isPrivateInMemory(Database) private in-memory database} the
+   * changelog lock is neither acquired nor released.</p>
+   *
+   * @param changeLog the {@link DatabaseChangeLog} to run; must not
+   * be {@code null}
+   *
+   * @param database the {@link Database} to update; must not be
+   * {@code null}
+   *
+   * @param changeLogContext a comma-separated list of changelog
+   * contexts; may be {@code null}
+   *
+   * @exception LiquibaseException if the update fails
+   *
+   * @see #update(DatabaseChangeLog, Database, String, boolean)
+   */
+  public static void update(final DatabaseChangeLog changeLog, final Database database, final String changeLogContext) throws LiquibaseException {
+    update(changeLog, database, changeLogContext, !isPrivateInMemory(database));
+  }
+
+  /**
+   * Runs a Liquibase update of the supplied {@link Database} using an
+   * already-parsed {@link DatabaseChangeLog}, optionally bracketing
+   * it with the acquisition and forcible release of Liquibase's
+   * changelog lock.
+   *
+   * @param changeLog the {@link DatabaseChangeLog} to run; must not
+   * be {@code null}
+   *
+   * @param database the {@link Database} to update; must not be
+   * {@code null}
+   *
+   * @param changeLogContext a comma-separated list of changelog
+   * contexts; may be {@code null}
+   *
+   * @param lock whether to go through Liquibase's {@link
+   * LockService}; pass {@code false} only when no other process
+   * could possibly be updating the same database
+   *
+   * @exception LiquibaseException if the update fails
+   */
+  public static void update(final DatabaseChangeLog changeLog, final Database database, final String changeLogContext, final boolean lock) throws LiquibaseException {
+    assertNotNull(changeLog);
+    assertNotNull(database);
+    final List<String> contextList = splitChangeLogContext(changeLogContext);
+    final String[] contexts = contextList.toArray(new String[contextList.size()]);
+    final LockService lockService;
+    if (lock) {
+      lockService = LockService.getInstance(database);
+      assertNotNull(lockService);
+      lockService.waitForLock();
+    } else {
+      lockService = null;
+    }
+    try {
+      database.checkDatabaseChangeLogTable(true, changeLog, contexts);
+      changeLog.validate(database, contexts);
+      final ChangeLogIterator iterator = new ChangeLogIterator(changeLog, new ShouldRunChangeSetFilter(database), new ContextChangeSetFilter(contexts), new DbmsChangeSetFilter(database));
+      iterator.run(new UpdateVisitor(database), database);
+    } finally {
+      if (lockService != null) {
+        lockService.forceReleaseLock();
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the supplied {@link Database} is an
+   * unnamed H2 in-memory database, i.e. one whose connection URL is
+   * {@code jdbc:h2:mem:} followed by nothing but, optionally,
+   * settings.
+   *
+   * <p>Such a database is visible only to the connection that
+   * created it, so there is nothing that Liquibase's changelog lock
+   * would need to guard against.  A <em>named</em> in-memory
+   * database, by contrast, can be opened by any connection in the
+   * JVM, such as one belonging to a shared catalog or to another
+   * parallel test, and so is not considered private.  Callers that
+   * know a named database to be private can {@linkplain
+   * #setChangeLogLockEnabled(boolean) disable the changelog lock}
+   * explicitly.</p>
+   *
+   * @param database the {@link Database} to test; may be {@code
+   * null} in which case {@code false} will be returned
+   *
+   * @return {@code true} if the supplied {@link Database} is a
+   * private in-memory database
+   */
+  public static boolean isPrivateInMemory(final Database database) {
+    boolean returnValue = false;
+    if (database != null) {
+      final DatabaseConnection connection = database.getConnection();
+      if (connection != null) {
+        final String url = connection.getURL();
+        if (url != null && url.startsWith("jdbc:h2:mem:")) {
+          final String nameAndSettings = url.substring("jdbc:h2:mem:".length());
+          final int semicolonIndex = nameAndSettings.indexOf(';');
+          final String name = semicolonIndex < 0 ? nameAndSettings : nameAndSettings.substring(0, semicolonIndex);
+          returnValue = name.trim().isEmpty();
+        }
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns {@code true} if the supplied changelog fingerprint has
+   * been {@linkplain #recordFingerprint(Connection, Database, String)
+   * recorded} in the database reachable by the supplied {@link
+   * Connection}.
+   *
+   * <p>The existence of the {@linkplain #FINGERPRINT_TABLE_NAME
+   * fingerprint table} is checked using {@link DatabaseMetaData}
+   * rather than by letting a query fail, since on some databases a
+   * failed statement aborts the current transaction.</p>
+   */
+  static final boolean hasFingerprint(final Connection c, final Database database, final String fingerprint) throws SQLException {
+    assertNotNull(database);
+    boolean returnValue = false;
+    if (c != null && fingerprint != null && tableExists(c, database, FINGERPRINT_TABLE_NAME)) {
+      final PreparedStatement ps = c.prepareStatement(String.format("SELECT COUNT(*) FROM %s WHERE FINGERPRINT = ?", getFingerprintTableName(database)));
+      try {
+        ps.setString(1, fingerprint);
+        final ResultSet rs = ps.executeQuery();
+        assertNotNull(rs);
+        try {
+          returnValue = rs.next() && rs.getInt(1) > 0;
+        } finally {
+          rs.close();
+        }
+      } finally {
+        ps.close();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Records the supplied changelog fingerprint in the database
+   * reachable by the supplied {@link Connection}, creating the
+   * {@linkplain #FINGERPRINT_TABLE_NAME fingerprint table} if
+   * necessary.
+   */
+  static final void recordFingerprint(final Connection c, final Database database, final String fingerprint) throws SQLException {
+    assertNotNull(database);
+    if (c != null && fingerprint != null && !hasFingerprint(c, database, fingerprint)) {
+      final String tableName = getFingerprintTableName(database);
+      if (!tableExists(c, database, FINGERPRINT_TABLE_NAME)) {
+        final Statement s = c.createStatement();
+        try {
+          s.executeUpdate(String.format("CREATE TABLE %s (FINGERPRINT VARCHAR(40) NOT NULL PRIMARY KEY)", tableName));
+        } finally {
+          s.close();
+        }
+      }
+      final PreparedStatement ps = c.prepareStatement(String.format("INSERT INTO %s (FINGERPRINT) VALUES (?)", tableName));
+      try {
+        ps.setString(1, fingerprint);
+        ps.executeUpdate();
+      } finally {
+        ps.close();
+      }
+      if (!c.getAutoCommit()) {
+        c.commit();
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if a table with the supplied unquoted name
+   * exists in the supplied {@link Database}'s default schema, as
+   * reported by the {@link DatabaseMetaData} of the supplied {@link
+   * Connection}.
+   */
+  static final boolean tableExists(final Connection c, final Database database, final String tableName) throws SQLException {
+    assertNotNull(c);
+    assertNotNull(database);
+    assertNotNull(tableName);
+    final DatabaseMetaData dmd = c.getMetaData();
+    assertNotNull(dmd);
+    String schemaPattern = database.getDefaultSchemaName();
+    String tableNamePattern = tableName;
+    if (dmd.storesUpperCaseIdentifiers()) {
+      schemaPattern = schemaPattern == null ? null : schemaPattern.toUpperCase();
+      tableNamePattern = tableNamePattern.toUpperCase();
+    } else if (dmd.storesLowerCaseIdentifiers()) {
+      schemaPattern = schemaPattern == null ? null : schemaPattern.toLowerCase();
+      tableNamePattern = tableNamePattern.toLowerCase();
+    }
+    final String escape = dmd.getSearchStringEscape();
+    if (escape != null && !escape.isEmpty()) {
+      schemaPattern = schemaPattern == null ? null : escapePattern(schemaPattern, escape);
+      tableNamePattern = escapePattern(tableNamePattern, escape);
+    }
+    boolean returnValue = false;
+    final ResultSet rs = dmd.getTables(null, schemaPattern, tableNamePattern, null);
+    assertNotNull(rs);
+    try {
+      returnValue = rs.next();
+    } finally {
+      rs.close();
+    }
+    return returnValue;
+  }
+
+  private static final String escapePattern(final String s, final String escape) {
+    assert s != null;
+    assert escape != null;
+    return s.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+  }
+
+  private static final String getFingerprintTableName(final Database database) {
+    assertNotNull(database);
+    return database.escapeTableName(database.getDefaultSchemaName(), FINGERPRINT_TABLE_NAME);
+  }
+
   public static Database findCorrectDatabaseImplementation(final Connection connection) throws DatabaseException {
     Database database = null;
     if (connection != null) {
@@ -226,6 +690,116 @@ public class LiquibaseManager extends SingleDBManager {
     return returnValue;
   }
 
+  /**
+   * A captured copy of an H2 database taken immediately after a
+   * successful Liquibase update, together with the
+   * <tt>DATABASECHANGELOG</tt> entries that were present at the
+   * time.
+   */
+  private static final class Snapshot {
+
+    private final File script;
+
+    private final Set<String> changeLogEntries;
+
+    private Snapshot(final File script, final Set<String> changeLogEntries) {
+      super();
+      assert script != null;
+      assert changeLogEntries != null;
+      this.script = script;
+      this.changeLogEntries = changeLogEntries;
+    }
+
+    /**
+     * Brings the database reachable by the supplied {@link
+     * Connection} into line with this {@link Snapshot}, if possible.
+     *
+     * @return {@code true} if the database now matches this {@link
+     * Snapshot}; {@code false} if a regular Liquibase update is still
+     * required
+     */
+    private final boolean restore(final Connection c, final Database database) throws SQLException {
+      boolean returnValue = false;
+      if (c != null) {
+        final Set<String> currentEntries = readChangeLogEntries(c, database);
+        if (currentEntries == null) {
+          final Statement s = c.createStatement();
+          try {
+            s.execute(String.format("RUNSCRIPT FROM '%s'", quote(this.script.getAbsolutePath())));
+          } finally {
+            s.close();
+          }
+          returnValue = true;
+        } else {
+          returnValue = this.changeLogEntries.equals(currentEntries);
+        }
+      }
+      return returnValue;
+    }
+
+    private final void discard() {
+      this.script.delete();
+    }
+
+    private static final Snapshot capture(final Connection c, final Database database) throws IOException, SQLException {
+      Snapshot snapshot = null;
+      if (c != null) {
+        final Set<String> entries = readChangeLogEntries(c, database);
+        if (entries != null) {
+          final File script = File.createTempFile("liquibase", ".sql");
+          script.deleteOnExit();
+          final Statement s = c.createStatement();
+          try {
+            s.execute(String.format("SCRIPT TO '%s'", quote(script.getAbsolutePath())));
+          } finally {
+            s.close();
+          }
+          snapshot = new Snapshot(script, entries);
+        }
+      }
+      return snapshot;
+    }
+
+    /**
+     * Returns a {@link Set} of {@link String}s, one per row of the
+     * supplied <tt>DATABASECHANGELOG</tt> table, identifying each
+     * executed changeset together with its checksum, or {@code null}
+     * if the table does not exist.
+     *
+     * @exception SQLException if the table exists but could not be
+     * read
+     */
+    private static final Set<String> readChangeLogEntries(final Connection c, final Database database) throws SQLException {
+      assert c != null;
+      assert database != null;
+      Set<String> entries = null;
+      final String changeLogTableName = database.getDatabaseChangeLogTableName();
+      if (tableExists(c, database, changeLogTableName)) {
+        final Statement s = c.createStatement();
+        try {
+          final ResultSet rs = s.executeQuery(String.format("SELECT ID, AUTHOR, FILENAME, MD5SUM FROM %s", database.escapeTableName(database.getDefaultSchemaName(), changeLogTableName)));
+          assertNotNull(rs);
+          try {
+            entries = new HashSet<String>();
+            while (rs.next()) {
+              entries.add(String.format("%s::%s::%s::%s", rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+            }
+          } finally {
+            rs.close();
+          }
+        } finally {
+          s.close();
+        }
+      }
+      return entries;
+    }
+
+    private static final String quote(final String path) {
+      return path.replace("'", "''");
+    }
+
+  }
+
   public static class URLResourceAccessor implements ResourceAccessor {
     
     public URLResourceAccessor() {
@@ -0,0 +1,173 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.liquibase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.database.Database;
+
+import liquibase.resource.FileSystemResourceAccessor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseChangeLogCache {
+
+  static {
+    try {
+      CustomLoggingPropertiesLoader.loadLoggingProperties();
+    } catch (final Exception everything) {
+      everything.printStackTrace(System.err);
+    }
+  }
+
+  private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<databaseChangeLog xmlns=\"http://www.liquibase.org/xml/ns/dbchangelog\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://www.liquibase.org/xml/ns/dbchangelog http://www.liquibase.org/xml/ns/dbchangelog/dbchangelog-2.0.xsd\">\n";
+
+  private File directory;
+
+  private File otherDirectory;
+
+  private Connection connection;
+
+  private Database database;
+
+  public TestCaseChangeLogCache() {
+    super();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    this.directory = createDirectory();
+    write(new File(this.directory, "master.xml"), HEADER + "  <include file=\"child.xml\"/>\n</databaseChangeLog>\n");
+    write(new File(this.directory, "child.xml"), HEADER + "  <changeSet id=\"child\" author=\"test\" logicalFilePath=\"logical\">\n    <createTable tableName=\"aaaa\">\n      <column name=\"id\" type=\"bigint\"/>\n    </createTable>\n  </changeSet>\n</databaseChangeLog>\n");
+    this.otherDirectory = createDirectory();
+    write(new File(this.otherDirectory, "master.xml"), HEADER + "  <changeSet id=\"other\" author=\"test\">\n    <createTable tableName=\"cccc\">\n      <column name=\"id\" type=\"bigint\"/>\n    </createTable>\n  </changeSet>\n</databaseChangeLog>\n");
+    this.connection = DriverManager.getConnection("jdbc:h2:mem:", "sa", "");
+    this.database = LiquibaseManager.findCorrectDatabaseImplementation(this.connection);
+    assertNotNull(this.database);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (this.connection != null) {
+      this.connection.close();
+    }
+    delete(this.directory);
+    delete(this.otherDirectory);
+  }
+
+  @Test
+  public void testSameAccessorSharesChangeLog() throws Exception {
+    final FileSystemResourceAccessor accessor = new FileSystemResourceAccessor(this.directory.getAbsolutePath());
+    final DatabaseChangeLog changeLog = ChangeLogCache.getChangeLog("master.xml", accessor, this.database, null);
+    assertNotNull(changeLog);
+    assertSame(changeLog, ChangeLogCache.getChangeLog("master.xml", accessor, this.database, null));
+  }
+
+  @Test
+  public void testAccessorsResolvingDifferentlyDoNotShareChangeLogs() throws Exception {
+    final FileSystemResourceAccessor accessor = new FileSystemResourceAccessor(this.directory.getAbsolutePath());
+    final FileSystemResourceAccessor otherAccessor = new FileSystemResourceAccessor(this.otherDirectory.getAbsolutePath());
+
+    final DatabaseChangeLog changeLog = ChangeLogCache.getChangeLog("master.xml", accessor, this.database, null);
+    assertNotNull(changeLog);
+    assertEquals("child", changeLog.getChangeSets().get(0).getId());
+
+    final DatabaseChangeLog otherChangeLog = ChangeLogCache.getChangeLog("master.xml", otherAccessor, this.database, null);
+    assertNotNull(otherChangeLog);
+    assertEquals("other", otherChangeLog.getChangeSets().get(0).getId());
+
+    // Neither accessor's entry displaced the other's.
+    assertSame(changeLog, ChangeLogCache.getChangeLog("master.xml", accessor, this.database, null));
+    assertSame(otherChangeLog, ChangeLogCache.getChangeLog("master.xml", otherAccessor, this.database, null));
+  }
+
+  @Test
+  public void testFingerprintReflectsIncludedContents() throws Exception {
+    final FileSystemResourceAccessor accessor = new FileSystemResourceAccessor(this.directory.getAbsolutePath());
+    final String before = ChangeLogCache.getFingerprint("master.xml", accessor, this.database, null);
+    assertNotNull(before);
+    assertEquals(before, ChangeLogCache.getFingerprint("master.xml", accessor, this.database, null));
+
+    // Same length, same timestamp, different contents.
+    final File child = new File(this.directory, "child.xml");
+    final long lastModified = child.lastModified();
+    final long length = child.length();
+    write(child, HEADER + "  <changeSet id=\"child\" author=\"test\" logicalFilePath=\"logical\">\n    <createTable tableName=\"bbbb\">\n      <column name=\"id\" type=\"bigint\"/>\n    </createTable>\n  </changeSet>\n</databaseChangeLog>\n");
+    assertTrue(child.setLastModified(lastModified));
+    assertEquals(length, child.length());
+
+    final String after = ChangeLogCache.getFingerprint("master.xml", accessor, this.database, null);
+    assertNotNull(after);
+    assertFalse(before.equals(after));
+  }
+
+  private static final File createDirectory() throws IOException {
+    final File directory = File.createTempFile("changelogs", "");
+    assertTrue(directory.delete());
+    assertTrue(directory.mkdir());
+    return directory;
+  }
+
+  private static final void delete(final File directory) {
+    if (directory != null) {
+      final File[] files = directory.listFiles();
+      if (files != null) {
+        for (final File f : files) {
+          f.delete();
+        }
+      }
+      directory.delete();
+    }
+  }
+
+  private static final void write(final File file, final String contents) throws IOException {
+    final OutputStream stream = new FileOutputStream(file);
+    try {
+      stream.write(contents.getBytes("UTF-8"));
+    } finally {
+      stream.close();
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.liquibase;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.Arrays;
+
+import com.edugility.junit.db.ConnectionDescriptor;
+import com.edugility.junit.db.DBConnection;
+import com.edugility.junit.db.DBRule;
+
+import com.edugility.junit.h2.H2Manager;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseLiquibaseManagerFingerprint {
+
+  static {
+    try {
+      CustomLoggingPropertiesLoader.loadLoggingProperties();
+    } catch (final Exception everything) {
+      everything.printStackTrace(System.err);
+    }
+  }
+
+  /**
+   * Whichever test runs first empties <tt>DATABASECHANGELOG</tt>,
+   * which only a skipped update leaves empty.
+   */
+  private static boolean changeLogCleared;
+
+  @DBConnection
+  private Connection connection;
+
+  @Rule
+  public final DBRule rule;
+
+  public TestCaseLiquibaseManagerFingerprint() {
+    super();
+    final ConnectionDescriptor cd = new ConnectionDescriptor("jdbc:h2:mem:fingerprint;INIT=CREATE SCHEMA IF NOT EXISTS test;DB_CLOSE_DELAY=-1", "fingerprint", "test", "sa", "");
+    final H2Manager h2Manager = new H2Manager(cd, false /* keep the database between tests */);
+    final LiquibaseManager liquibaseManager = new LiquibaseManager(cd);
+    liquibaseManager.setFingerprintEnabled(true);
+    this.rule = new DBRule(Arrays.asList(h2Manager, liquibaseManager));
+  }
+
+  private final int count(final String tableName) throws Exception {
+    assertNotNull(this.connection);
+    int returnValue = -1;
+    final Statement s = this.connection.createStatement();
+    assertNotNull(s);
+    try {
+      final ResultSet rs = s.executeQuery(String.format("SELECT COUNT(*) FROM TEST.%s", tableName));
+      assertNotNull(rs);
+      try {
+        assertTrue(rs.next());
+        returnValue = rs.getInt(1);
+      } finally {
+        rs.close();
+      }
+    } finally {
+      s.close();
+    }
+    return returnValue;
+  }
+
+  private final void assertUpdateSkippedAfterFirstRun() throws Exception {
+    assertEquals(1, this.count(LiquibaseManager.FINGERPRINT_TABLE_NAME));
+    assertEquals(0, this.count("ROCK"));
+    if (changeLogCleared) {
+      // Had the update run again, it would have repopulated
+      // DATABASECHANGELOG, or failed trying to recreate ROCK.
+      assertEquals(0, this.count("DATABASECHANGELOG"));
+    } else {
+      assertTrue(this.count("DATABASECHANGELOG") > 0);
+      final Statement s = this.connection.createStatement();
+      try {
+        s.executeUpdate("DELETE FROM TEST.DATABASECHANGELOG");
+      } finally {
+        s.close();
+      }
+      // Liquibase turns auto-commit off on the connections it uses.
+      if (!this.connection.getAutoCommit()) {
+        this.connection.commit();
+      }
+      changeLogCleared = true;
+    }
+  }
+
+  @Test
+  public void testFirstRun() throws Exception {
+    this.assertUpdateSkippedAfterFirstRun();
+  }
+
+  @Test
+  public void testSecondRun() throws Exception {
+    this.assertUpdateSkippedAfterFirstRun();
+  }
+
+}
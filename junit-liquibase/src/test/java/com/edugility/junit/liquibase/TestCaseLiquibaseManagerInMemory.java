@@ -0,0 +1,145 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.liquibase;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+
+import java.util.Arrays;
+
+import com.edugility.junit.db.ConnectionDescriptor;
+import com.edugility.junit.db.DBRule;
+
+import com.edugility.junit.h2.H2Manager;
+
+import liquibase.changelog.DatabaseChangeLog;
+
+import liquibase.database.Database;
+
+import liquibase.resource.ClassLoaderResourceAccessor;
+import liquibase.resource.ResourceAccessor;
+
+import org.junit.Test;
+
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.Statement;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseLiquibaseManagerInMemory {
+
+  static {
+    try {
+      CustomLoggingPropertiesLoader.loadLoggingProperties();
+    } catch (final Exception everything) {
+      everything.printStackTrace(System.err);
+    }
+  }
+
+  private static final ResourceAccessor accessor = new ClassLoaderResourceAccessor();
+
+  public TestCaseLiquibaseManagerInMemory() {
+    super();
+  }
+
+  @Test
+  public void testUnnamedDatabaseIsUpdatedWithoutLockTable() throws Exception {
+    final Connection connection = DriverManager.getConnection("jdbc:h2:mem:", "sa", "");
+    try {
+      final Database database = LiquibaseManager.findCorrectDatabaseImplementation(connection);
+      assertNotNull(database);
+      assertTrue(LiquibaseManager.isPrivateInMemory(database));
+      update(database);
+      assertTrue(LiquibaseManager.tableExists(connection, database, "ROCK"));
+      assertTrue(LiquibaseManager.tableExists(connection, database, database.getDatabaseChangeLogTableName()));
+      assertFalse(LiquibaseManager.tableExists(connection, database, database.getDatabaseChangeLogLockTableName()));
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void testNamedDatabaseIsUpdatedWithLockTable() throws Exception {
+    final Connection connection = DriverManager.getConnection("jdbc:h2:mem:inmemory", "sa", "");
+    try {
+      final Database database = LiquibaseManager.findCorrectDatabaseImplementation(connection);
+      assertNotNull(database);
+      assertFalse(LiquibaseManager.isPrivateInMemory(database));
+      update(database);
+      assertTrue(LiquibaseManager.tableExists(connection, database, "ROCK"));
+      assertTrue(LiquibaseManager.tableExists(connection, database, database.getDatabaseChangeLogLockTableName()));
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test
+  public void testManagerSkipsLockWhenDisabled() throws Throwable {
+    assertFalse(this.lockTableExists(true, "testManagerSkipsLockWhenDisabled"));
+  }
+
+  @Test
+  public void testManagerUsesLockByDefault() throws Throwable {
+    assertTrue(this.lockTableExists(false, "testManagerUsesLockByDefault"));
+  }
+
+  /**
+   * Runs an {@link H2Manager} and a {@link LiquibaseManager} against
+   * a catalog unique to this call and returns whether Liquibase's
+   * changelog lock table was created.
+   */
+  private final boolean lockTableExists(final boolean privateCatalog, final String methodName) throws Throwable {
+    final ConnectionDescriptor cd = H2Manager.withUniqueCatalog(new ConnectionDescriptor("jdbc:h2:mem:lockless", "sa", ""));
+    final H2Manager h2 = new H2Manager(cd, true);
+    final LiquibaseManager liquibase = new LiquibaseManager(cd, accessor);
+    if (privateCatalog) {
+      liquibase.setChangeLogLockEnabled(!h2.isInMemory());
+    }
+    final boolean[] lockTableExists = new boolean[1];
+    new DBRule(Arrays.<DBRule.DBManager>asList(h2, liquibase)).asMethodRule().apply(new Statement() {
+        @Override
+        public final void evaluate() throws Exception {
+          final Connection connection = liquibase.getAllocatedConnection();
+          final Database database = LiquibaseManager.findCorrectDatabaseImplementation(connection);
+          assertFalse(LiquibaseManager.isPrivateInMemory(database));
+          assertTrue(LiquibaseManager.tableExists(connection, database, "ROCK"));
+          lockTableExists[0] = LiquibaseManager.tableExists(connection, database, database.getDatabaseChangeLogLockTableName());
+        }
+      }, new FrameworkMethod(this.getClass().getMethod(methodName)), this).evaluate();
+    return lockTableExists[0];
+  }
+
+  private static final void update(final Database database) throws Exception {
+    final DatabaseChangeLog changeLog = ChangeLogCache.getChangeLog("changelog.xml", accessor, database, null);
+    assertNotNull(changeLog);
+    LiquibaseManager.update(changeLog, database, null);
+  }
+
+}
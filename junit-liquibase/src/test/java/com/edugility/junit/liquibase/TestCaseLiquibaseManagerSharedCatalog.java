@@ -0,0 +1,150 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.liquibase;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import java.util.Arrays;
+
+import com.edugility.junit.db.DBRule;
+
+import com.edugility.junit.h2.H2Manager;
+
+import liquibase.database.Database;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseLiquibaseManagerSharedCatalog {
+
+  static {
+    try {
+      CustomLoggingPropertiesLoader.loadLoggingProperties();
+    } catch (final Exception everything) {
+      everything.printStackTrace(System.err);
+    }
+  }
+
+  public TestCaseLiquibaseManagerSharedCatalog() {
+    super();
+  }
+
+  @Test
+  public void testSecondClassReusesMigratedCatalog() {
+    final Result result = JUnitCore.runClasses(FirstClass.class, SecondClass.class);
+    assertNotNull(result);
+    assertTrue(String.valueOf(result.getFailures()), result.wasSuccessful());
+    assertEquals(2, result.getRunCount());
+  }
+
+  /**
+   * A test class whose {@link DBRule} shares an H2 catalog, which
+   * only its first user migrates.
+   */
+  public static abstract class SharedCatalogTests {
+
+    protected final H2Manager h2;
+
+    protected final LiquibaseManager liquibase;
+
+    @Rule
+    public final DBRule rule;
+
+    protected SharedCatalogTests() {
+      super();
+      // No DB_CLOSE_DELAY, and shut down after each test, so only
+      // the shared catalog keeps the database alive between classes.
+      this.h2 = new H2Manager(new H2Manager("jdbc:h2:mem:sharedMigration").getConnectionDescriptor(), true);
+      this.h2.setSharedCatalog(true);
+      this.liquibase = new LiquibaseManager(this.h2.getConnectionDescriptor());
+      this.rule = new DBRule(Arrays.asList(this.h2, this.liquibase));
+    }
+
+    protected final Connection getConnection() throws Exception {
+      final Connection c = this.liquibase.getAllocatedConnection();
+      assertNotNull(c);
+      final Database database = LiquibaseManager.findCorrectDatabaseImplementation(c);
+      assertTrue(LiquibaseManager.tableExists(c, database, "ROCK"));
+      return c;
+    }
+
+  }
+
+  public static class FirstClass extends SharedCatalogTests {
+
+    @Test
+    public void testMigrates() throws Exception {
+      assertTrue(this.h2.isSharedCatalogCreator());
+      assertFalse(this.h2.getConnectionDescriptor().isAttached());
+      // Empty DATABASECHANGELOG, which only a skipped migration
+      // leaves empty.
+      final Connection c = this.getConnection();
+      final Statement s = c.createStatement();
+      try {
+        s.executeUpdate("DELETE FROM DATABASECHANGELOG");
+      } finally {
+        s.close();
+      }
+      if (!c.getAutoCommit()) {
+        c.commit();
+      }
+    }
+
+  }
+
+  public static class SecondClass extends SharedCatalogTests {
+
+    @Test
+    public void testAttaches() throws Exception {
+      assertFalse(this.h2.isSharedCatalogCreator());
+      assertTrue(this.h2.getConnectionDescriptor().isAttached());
+      final Connection c = this.getConnection();
+      final Statement s = c.createStatement();
+      try {
+        final ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM DATABASECHANGELOG");
+        assertTrue(rs.next());
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+      } finally {
+        s.close();
+      }
+    }
+
+  }
+
+}
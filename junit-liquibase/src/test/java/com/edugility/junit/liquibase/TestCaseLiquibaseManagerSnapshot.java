@@ -0,0 +1,139 @@
+/* -*- mode: Java; c-basic-offset: 2; indent-tabs-mode: nil; coding: utf-8-unix -*-
+ *
+ * Copyright (c) 2013-2013 Edugility LLC.
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THIS SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT.  IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * The original copy of this license is available at
+ * http://www.opensource.org/license/mit-license.html.
+ */
+package com.edugility.junit.liquibase;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import java.util.Arrays;
+
+import com.edugility.junit.db.ConnectionDescriptor;
+import com.edugility.junit.db.DBConnection;
+import com.edugility.junit.db.DBRule;
+
+import com.edugility.junit.h2.H2Manager;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestCaseLiquibaseManagerSnapshot {
+
+  static {
+    try {
+      CustomLoggingPropertiesLoader.loadLoggingProperties();
+    } catch (final Exception everything) {
+      everything.printStackTrace(System.err);
+    }
+  }
+
+  /**
+   * The time at which the changeset was executed as recorded in
+   * <tt>DATABASECHANGELOG</tt> by whichever test ran first.  Every
+   * later test, running against a freshly created database, must see
+   * the same time, which is only possible if its database was
+   * restored from the snapshot rather than updated again.
+   */
+  private static Timestamp firstDateExecuted;
+
+  @DBConnection
+  private Connection connection;
+
+  @Rule
+  public final DBRule rule;
+
+  public TestCaseLiquibaseManagerSnapshot() {
+    super();
+    final ConnectionDescriptor cd = new ConnectionDescriptor("jdbc:h2:mem:snapshot;INIT=CREATE SCHEMA IF NOT EXISTS test;DB_CLOSE_DELAY=-1", "snapshot", "test", "sa", "");
+    final H2Manager h2Manager = new H2Manager(cd, true /* shutdown after every test */);
+    final LiquibaseManager liquibaseManager = new LiquibaseManager(cd);
+    liquibaseManager.setSnapshotEnabled(true);
+    this.rule = new DBRule(Arrays.asList(h2Manager, liquibaseManager));
+  }
+
+  private final void assertRockTableExists() throws Exception {
+    assertNotNull(this.connection);
+    final DatabaseMetaData dmd = this.connection.getMetaData();
+    assertNotNull(dmd);
+    final ResultSet rs = dmd.getTables("SNAPSHOT", "TEST", "ROCK", null);
+    assertNotNull(rs);
+    try {
+      assertTrue(rs.next());
+    } finally {
+      rs.close();
+    }
+  }
+
+  private final void assertSnapshotRestoredAfterFirstRun() throws Exception {
+    assertNotNull(this.connection);
+    final Timestamp dateExecuted;
+    final Statement s = this.connection.createStatement();
+    assertNotNull(s);
+    try {
+      final ResultSet rs = s.executeQuery("SELECT DATEEXECUTED FROM TEST.DATABASECHANGELOG WHERE ID = 'test.rock.TableCreation'");
+      assertNotNull(rs);
+      try {
+        assertTrue(rs.next());
+        dateExecuted = rs.getTimestamp(1);
+        assertNotNull(dateExecuted);
+        assertFalse(rs.next());
+      } finally {
+        rs.close();
+      }
+    } finally {
+      s.close();
+    }
+    synchronized (TestCaseLiquibaseManagerSnapshot.class) {
+      if (firstDateExecuted == null) {
+        firstDateExecuted = dateExecuted;
+      } else {
+        assertEquals(firstDateExecuted, dateExecuted);
+      }
+    }
+  }
+
+  @Test
+  public void testFirstRun() throws Exception {
+    this.assertRockTableExists();
+    this.assertSnapshotRestoredAfterFirstRun();
+  }
+
+  @Test
+  public void testSecondRun() throws Exception {
+    this.assertRockTableExists();
+    this.assertSnapshotRestoredAfterFirstRun();
+  }
+
+}
@@ -98,4 +98,11 @@ public class TestCaseLiquibaseRule {
     }
   }
 
+  @Test
+  public void testMissingChangeLogNeverConnects() throws Exception {
+    // No driver accepts this URL, so update() fails if it connects.
+    final DriverManagerLiquibaseRule rule = new DriverManagerLiquibaseRule("jdbc:unreachable:test", "sa", "", null, "nonexistent-changelog.xml");
+    rule.update();
+  }
+
 }